@@ -1,9 +1,11 @@
 package com.stanfy.enroscar.images;
 
 import com.stanfy.enroscar.beans.BeansManager;
+import com.stanfy.enroscar.images.cache.BitmapsPool;
 import com.stanfy.enroscar.images.cache.ImageFileCache;
 import com.stanfy.enroscar.images.cache.SupportLruImageMemoryCache;
 import com.stanfy.enroscar.io.BuffersPool;
+import com.stanfy.enroscar.net.FlushableBuffersPool;
 import com.stanfy.enroscar.net.UrlConnectionBuilderFactory;
 
 /**
@@ -15,9 +17,10 @@ public class BeanSetup {
 
   public static void setup(final BeansManager.Editor editor) {
     if (!editor.hasBean(BuffersPool.class.getName())) {
-      editor.put(BuffersPool.class);
+      editor.put(FlushableBuffersPool.class);
     }
     editor.put(ImageFileCache.class);
+    editor.put(BitmapsPool.class);
     editor.put(SupportLruImageMemoryCache.class);
     editor.put(ImagesManager.CONNECTION_BUILDER_FACTORY_NAME, UrlConnectionBuilderFactory.DEFAULT);
     editor.put(ImagesManager.class);
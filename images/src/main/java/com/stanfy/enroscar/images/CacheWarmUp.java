@@ -0,0 +1,78 @@
+package com.stanfy.enroscar.images;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches images that are missing in the disk cache with limited concurrency and traffic.
+ * Each task stores one image and then reschedules itself, so that the executor can run more important tasks in between.
+ * @see ImagesManager#scheduleWarmUp(int, long)
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+final class CacheWarmUp implements Runnable {
+
+  /** Images manager. */
+  private final ImagesManager manager;
+  /** Executor. */
+  private final Executor executor;
+
+  /** URLs to fetch. */
+  private final Queue<String> urls;
+
+  /** Max count of bytes to store, 0 means no limit. */
+  private final long maxBytes;
+  /** Stored bytes. */
+  private final AtomicLong bytes = new AtomicLong();
+
+  /** Statistics. */
+  private final ImageStageStats stats;
+
+  CacheWarmUp(final ImagesManager manager, final Executor executor, final List<String> urls,
+              final long maxBytes, final ImageStageStats stats) {
+    this.manager = manager;
+    this.executor = executor;
+    this.urls = new ConcurrentLinkedQueue<String>(urls);
+    this.maxBytes = maxBytes;
+    this.stats = stats;
+  }
+
+  /**
+   * @param maxConcurrency max count of images fetched simultaneously
+   */
+  void start(final int maxConcurrency) {
+    final int count = Math.min(maxConcurrency, urls.size());
+    for (int i = 0; i < count; i++) {
+      executor.execute(this);
+    }
+  }
+
+  @Override
+  public void run() {
+    if (maxBytes > 0 && bytes.get() >= maxBytes) {
+      urls.clear();
+      return;
+    }
+    final String url = urls.poll();
+    if (url == null) { return; }
+
+    if (!manager.isPresentOnDisk(url)) {
+      final long startTime = System.nanoTime();
+      // errors are logged by ensureImages, the result is checked in the cache
+      manager.ensureImages(Collections.singletonList(new ImageRequest(manager, url, -1)), null);
+      final long size = manager.getDiskCachedSize(url);
+      if (size > 0) {
+        bytes.addAndGet(size);
+        stats.onTaskFinished(startTime, size);
+      } else {
+        stats.onTaskFailed();
+      }
+    }
+
+    executor.execute(this);
+  }
+
+}
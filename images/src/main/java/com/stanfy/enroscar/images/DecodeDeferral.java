@@ -0,0 +1,176 @@
+package com.stanfy.enroscar.images;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Defers decoding of fetched images and delivery of results to the main thread, e. g. during a fling.
+ * Fetch tasks are not affected. Deferred decodes of images that are not needed anymore are dropped when decoding is resumed.
+ * Count of deferred decodes is limited: when the limit is reached, the oldest deferred decode is cancelled,
+ * its image stays in the disk cache and is loaded again when it's requested.
+ * @see ImagesManager#deferDecoding(long)
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+final class DecodeDeferral {
+
+  /** Max count of deferred decodes. */
+  static final int MAX_DEFERRED_DECODES = 32;
+
+  /** Images manager. */
+  private final ImagesManager manager;
+
+  /** Main thread handler. */
+  private final Handler handler = new Handler(Looper.getMainLooper());
+
+  /** Resume action. */
+  private final Runnable resumeAction = new Runnable() {
+    @Override
+    public void run() {
+      resume();
+    }
+  };
+
+  /** Lock for the state below. */
+  private final Object lock = new Object();
+  /** Deferral flag. */
+  private boolean deferred;
+  /** Deferred decode tasks. */
+  private ArrayList<FutureTask<Void>> decodes = new ArrayList<FutureTask<Void>>();
+  /** Sizes of fetched images of deferred decode tasks. */
+  private ArrayList<Long> sizes = new ArrayList<Long>();
+  /** Deferred deliveries. */
+  private final ArrayList<Runnable> deliveries = new ArrayList<Runnable>();
+
+  /** Counters. */
+  private final AtomicInteger deferredCount = new AtomicInteger(), savedCount = new AtomicInteger(),
+                              droppedCount = new AtomicInteger();
+  /** Bytes of images that were not decoded. */
+  private final AtomicLong savedBytes = new AtomicLong();
+
+  DecodeDeferral(final ImagesManager manager) {
+    this.manager = manager;
+  }
+
+  /**
+   * Start or prolong deferral. Must be called from the main thread.
+   * @param settleDelay delay in milliseconds after which decoding is resumed automatically
+   */
+  void defer(final long settleDelay) {
+    synchronized (lock) {
+      deferred = true;
+    }
+    handler.removeCallbacks(resumeAction);
+    handler.postDelayed(resumeAction, settleDelay);
+  }
+
+  boolean isDeferred() {
+    synchronized (lock) {
+      return deferred;
+    }
+  }
+
+  /**
+   * Resume decoding. Must be called from the main thread.
+   */
+  void resume() {
+    handler.removeCallbacks(resumeAction);
+    final ArrayList<FutureTask<Void>> decodes;
+    final ArrayList<Long> sizes;
+    synchronized (lock) {
+      if (!deferred) { return; }
+      deferred = false;
+      decodes = this.decodes;
+      sizes = this.sizes;
+      this.decodes = new ArrayList<FutureTask<Void>>();
+      this.sizes = new ArrayList<Long>();
+      // deliveries only post to the main thread, run them under the lock to keep their order
+      final int count = deliveries.size();
+      //noinspection ForLoopReplaceableByForEach
+      for (int i = 0; i < count; i++) {
+        deliveries.get(i).run();
+      }
+      deliveries.clear();
+    }
+    if (decodes.isEmpty()) { return; }
+
+    // decode executor runs tasks in the caller thread when its queue is full, so it's not called from the main thread
+    final Runnable submit = new Runnable() {
+      @Override
+      public void run() {
+        final Executor executor = manager.getImageDecodeExecutor();
+        final int count = decodes.size();
+        for (int i = 0; i < count; i++) {
+          final FutureTask<Void> decode = decodes.get(i);
+          if (decode.isCancelled()) {
+            savedCount.incrementAndGet();
+            savedBytes.addAndGet(sizes.get(i));
+          } else {
+            executor.execute(decode);
+          }
+        }
+      }
+    };
+    manager.getImageTaskExecutor().execute(
+        new ImageTasksScheduler.Task<Void>(submit, null, ImageTasksScheduler.PRIORITY_VISIBLE)
+    );
+  }
+
+  /**
+   * Execute decode task or defer it.
+   * @param decode decode task
+   * @param size size of the fetched image
+   */
+  void decode(final FutureTask<Void> decode, final long size) {
+    final boolean defer;
+    FutureTask<Void> dropped = null;
+    synchronized (lock) {
+      defer = deferred;
+      if (defer) {
+        if (decodes.size() == MAX_DEFERRED_DECODES) {
+          dropped = decodes.remove(0);
+          sizes.remove(0);
+        }
+        decodes.add(decode);
+        sizes.add(size);
+        deferredCount.incrementAndGet();
+      }
+    }
+    if (!defer) {
+      manager.getImageDecodeExecutor().execute(decode);
+      return;
+    }
+    // loader is removed from current loads and its consumers are notified when its decode task is cancelled
+    if (dropped != null && dropped.cancel(false)) {
+      droppedCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Run delivery action or defer it.
+   * @param delivery action that posts result to the main thread
+   */
+  void deliver(final Runnable delivery) {
+    synchronized (lock) {
+      if (deferred) {
+        deliveries.add(delivery);
+        return;
+      }
+      delivery.run();
+    }
+  }
+
+  int getDeferredCount() { return deferredCount.get(); }
+
+  int getSavedCount() { return savedCount.get(); }
+
+  long getSavedBytes() { return savedBytes.get(); }
+
+  int getDroppedCount() { return droppedCount.get(); }
+
+}
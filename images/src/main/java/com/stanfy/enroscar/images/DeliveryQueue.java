@@ -0,0 +1,174 @@
+package com.stanfy.enroscar.images;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers results of image loaders to the main thread in batches, one batch per frame.
+ * Time spent by one batch is limited, the rest of results is delivered in the next frame.
+ * <p>
+ *   On Android 4.1+ batches are run by {@link Choreographer} before the frame is laid out and drawn,
+ *   on older versions they are posted at frame boundaries.
+ * </p>
+ * @see ImagesManager#getDeliveryStats()
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+final class DeliveryQueue {
+
+  /** Default max time of one batch in milliseconds. */
+  static final long DEFAULT_MAX_BATCH_TIME = 4;
+
+  /** Frame duration in milliseconds used when Choreographer is not available. */
+  private static final long FRAME_TIME = 16;
+
+  /** Pending deliveries. */
+  private final Queue<Delivery> queue = new ConcurrentLinkedQueue<Delivery>();
+
+  /** Whether a batch is scheduled. */
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  /** Main thread handler. */
+  private final Handler handler = new Handler(Looper.getMainLooper());
+
+  /** Frame callback, null if Choreographer is not used. */
+  private final FrameCallback frameCallback;
+
+  /** Runs a batch. */
+  private final Runnable batchAction = new Runnable() {
+    @Override
+    public void run() {
+      runBatch();
+    }
+  };
+
+  /** Schedules a batch from the main thread. */
+  private final Runnable scheduleAction = new Runnable() {
+    @Override
+    public void run() {
+      frameCallback.postFrameCallback();
+    }
+  };
+
+  /** Max time of one batch in nanoseconds. */
+  private volatile long maxBatchTime = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_BATCH_TIME);
+
+  /** Latency stats: time between a result is ready and it's delivered. */
+  private final ImageStageStats stats = new ImageStageStats();
+
+  /** Counters. */
+  private final AtomicInteger batchesCount = new AtomicInteger(), overBudgetCount = new AtomicInteger();
+
+  /**
+   * @param useChoreographer whether batches are aligned with frames by Choreographer, requires Android 4.1
+   */
+  DeliveryQueue(final boolean useChoreographer) {
+    this.frameCallback = useChoreographer ? new FrameCallback(this) : null;
+  }
+
+  /**
+   * @param millis max time of one batch in milliseconds
+   */
+  void setMaxBatchTime(final long millis) {
+    if (millis <= 0) { throw new IllegalArgumentException("Batch time must be positive"); }
+    this.maxBatchTime = TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /**
+   * Called from any thread.
+   * @param action action that must be run in the main thread
+   */
+  void enqueue(final Runnable action) {
+    queue.add(new Delivery(action, System.nanoTime()));
+    if (scheduled.compareAndSet(false, true)) {
+      scheduleBatch();
+    }
+  }
+
+  private void scheduleBatch() {
+    if (frameCallback != null) {
+      // Choreographer instance belongs to the main thread
+      if (Looper.myLooper() == Looper.getMainLooper()) {
+        frameCallback.postFrameCallback();
+      } else {
+        handler.post(scheduleAction);
+      }
+    } else {
+      final long now = SystemClock.uptimeMillis();
+      handler.postAtTime(batchAction, now - now % FRAME_TIME + FRAME_TIME);
+    }
+  }
+
+  /** Main thread. */
+  void runBatch() {
+    final long startTime = System.nanoTime();
+    final long maxTime = maxBatchTime;
+    batchesCount.incrementAndGet();
+    Delivery delivery;
+    while ((delivery = queue.poll()) != null) {
+      delivery.action.run();
+      stats.onTaskFinished(delivery.time, 0);
+      if (System.nanoTime() - startTime > maxTime && !queue.isEmpty()) {
+        overBudgetCount.incrementAndGet();
+        // continue in the next frame, batch is still scheduled
+        scheduleBatch();
+        return;
+      }
+    }
+    scheduled.set(false);
+    // a delivery could be added after the queue was found empty
+    if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+      scheduleBatch();
+    }
+  }
+
+  ImageStageStats getStats() { return stats; }
+
+  int getBatchesCount() { return batchesCount.get(); }
+
+  int getOverBudgetBatchesCount() { return overBudgetCount.get(); }
+
+  /** Pending delivery. */
+  private static final class Delivery {
+    /** Action. */
+    final Runnable action;
+    /** Time when the delivery was enqueued. */
+    final long time;
+
+    Delivery(final Runnable action, final long time) {
+      this.action = action;
+      this.time = time;
+    }
+  }
+
+  /** Runs batches in frame callbacks. */
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private static final class FrameCallback implements Choreographer.FrameCallback {
+    /** Queue. */
+    private final DeliveryQueue queue;
+
+    FrameCallback(final DeliveryQueue queue) {
+      this.queue = queue;
+    }
+
+    /** Main thread. */
+    void postFrameCallback() {
+      Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(final long frameTimeNanos) {
+      queue.runBatch();
+    }
+  }
+
+}
@@ -0,0 +1,147 @@
+package com.stanfy.enroscar.images;
+
+import com.stanfy.enroscar.io.BuffersPool;
+import com.stanfy.enroscar.io.IoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Keeps a copy of a fetched image until it's known whether the response cache has stored it.
+ * Small images are kept in a pooled buffer, bigger ones are written to a temporary file.
+ * Either {@link #discard()} or {@link #toInputStream()} must be called when the image is fetched.
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+final class FetchSpool extends OutputStream {
+
+  /** Max count of bytes kept in memory. */
+  static final int MEMORY_LIMIT = 64 * 1024;
+
+  /** Buffers pool. */
+  private final BuffersPool pool;
+  /** Directory for temporary files. */
+  private final File directory;
+
+  /** Memory buffer. */
+  private byte[] buffer;
+  /** Count of written bytes. */
+  private long size;
+
+  /** Temporary file. */
+  private File file;
+  /** Temporary file output. */
+  private OutputStream fileOutput;
+
+  FetchSpool(final BuffersPool pool, final File directory) {
+    this.pool = pool;
+    this.directory = directory;
+  }
+
+  /** @return count of written bytes */
+  long size() {
+    return size;
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException {
+    if (fileOutput == null && size + len > MEMORY_LIMIT) {
+      spill();
+    }
+    if (fileOutput != null) {
+      fileOutput.write(b, off, len);
+    } else {
+      if (buffer == null) {
+        buffer = pool.get(MEMORY_LIMIT);
+      }
+      System.arraycopy(b, off, buffer, (int) size, len);
+    }
+    size += len;
+  }
+
+  private void spill() throws IOException {
+    file = File.createTempFile("fetch", ".image", directory);
+    fileOutput = pool.bufferizeUnsynchronized(new FileOutputStream(file));
+    if (buffer != null) {
+      fileOutput.write(buffer, 0, (int) size);
+      pool.release(buffer);
+      buffer = null;
+    }
+  }
+
+  /**
+   * Drop the copy.
+   */
+  void discard() {
+    if (buffer != null) {
+      pool.release(buffer);
+      buffer = null;
+    }
+    if (fileOutput != null) {
+      IoUtils.closeQuietly(fileOutput);
+      fileOutput = null;
+    }
+    if (file != null) {
+      deleteFile(file);
+      file = null;
+    }
+  }
+
+  /**
+   * Spool cannot be used after this call. Closing the result releases all the resources.
+   * @return stream that reads the copy
+   * @throws IOException if error happens
+   */
+  InputStream toInputStream() throws IOException {
+    if (file != null) {
+      final File file = this.file;
+      this.file = null;
+      try {
+        fileOutput.close();
+      } finally {
+        fileOutput = null;
+      }
+      return new FileInputStream(file) {
+        @Override
+        public void close() throws IOException {
+          super.close();
+          deleteFile(file);
+        }
+      };
+    }
+
+    final byte[] buffer = this.buffer;
+    this.buffer = null;
+    if (buffer == null) {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+    return new ByteArrayInputStream(buffer, 0, (int) size) {
+      /** Whether buffer is returned to the pool. */
+      private boolean released;
+      @Override
+      public void close() throws IOException {
+        super.close();
+        synchronized (this) {
+          if (released) { return; }
+          released = true;
+        }
+        pool.release(buffer);
+      }
+    };
+  }
+
+  private static void deleteFile(final File file) {
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+
+}
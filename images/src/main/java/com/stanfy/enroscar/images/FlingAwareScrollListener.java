@@ -0,0 +1,61 @@
+package com.stanfy.enroscar.images;
+
+import android.widget.AbsListView;
+
+/**
+ * Scroll listener that defers decoding of images while a list is flung.
+ * Images continue to be fetched to the disk cache. Decoding is resumed after the list settles,
+ * and images of the items that were scrolled by are not decoded at all.
+ * <pre>
+ *   listView.setOnScrollListener(new FlingAwareScrollListener(imagesManager, 150, null));
+ * </pre>
+ * @see ImagesManager#deferDecoding(long)
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+public class FlingAwareScrollListener implements AbsListView.OnScrollListener {
+
+  /** Default settle delay in milliseconds. */
+  public static final long DEFAULT_SETTLE_DELAY = 150;
+
+  /** Images manager. */
+  private final ImagesManager manager;
+  /** Settle delay. */
+  private final long settleDelay;
+  /** Delegate. */
+  private final AbsListView.OnScrollListener delegate;
+
+  /** Current scroll state. */
+  private int scrollState = SCROLL_STATE_IDLE;
+
+  /**
+   * @param manager images manager
+   * @param settleDelay delay in milliseconds between the end of the fling and decoding resume
+   * @param delegate listener to pass scroll events to, may be null
+   */
+  public FlingAwareScrollListener(final ImagesManager manager, final long settleDelay,
+                                  final AbsListView.OnScrollListener delegate) {
+    this.manager = manager;
+    this.settleDelay = settleDelay;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void onScrollStateChanged(final AbsListView view, final int scrollState) {
+    this.scrollState = scrollState;
+    if (scrollState == SCROLL_STATE_FLING) {
+      manager.deferDecoding(settleDelay);
+    }
+    if (delegate != null) { delegate.onScrollStateChanged(view, scrollState); }
+  }
+
+  @Override
+  public void onScroll(final AbsListView view, final int firstVisibleItem, final int visibleItemCount,
+                       final int totalItemCount) {
+    if (scrollState == SCROLL_STATE_FLING) {
+      // prolong deferral while the list is moving
+      manager.deferDecoding(settleDelay);
+    }
+    if (delegate != null) { delegate.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount); }
+  }
+
+}
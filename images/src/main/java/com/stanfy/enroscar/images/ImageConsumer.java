@@ -106,4 +106,12 @@ public abstract class ImageConsumer {
 
   public boolean allowSmallImagesFromCache() { return false; }
 
+  /**
+   * Consumers whose {@link #post(Runnable)} just runs the action in the main thread may return true.
+   * Then results are delivered by {@link ImagesManager} in batches, one batch per frame.
+   * @return whether results may be delivered in the main thread without calling {@link #post(Runnable)}
+   * @see ImagesManager#setMaxDeliveryTimePerFrame(long)
+   */
+  protected boolean postsToMainThread() { return false; }
+
 }
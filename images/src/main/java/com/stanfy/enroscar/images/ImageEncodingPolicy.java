@@ -0,0 +1,118 @@
+package com.stanfy.enroscar.images;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * Defines how images downscaled by {@link ImageRequest#storeToDisk()} are encoded in the disk cache.
+ * Images that do not need rescaling are always stored as they were received ({@link #ENCODING_ORIGINAL}).
+ * <p>
+ *   Images with alpha channel are stored as PNG, other images are encoded with the photo encoding.
+ *   WebP encoding requires Android 4.0, JPEG is used on older versions.
+ * </p>
+ * @see ImagesManager#setDiskEncodingPolicy(ImageEncodingPolicy)
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+public class ImageEncodingPolicy {
+
+  /** Encoding: bytes are stored as they were received. */
+  public static final int ENCODING_ORIGINAL = 0;
+  /** Encoding: PNG. */
+  public static final int ENCODING_PNG = 1;
+  /** Encoding: JPEG. */
+  public static final int ENCODING_JPEG = 2;
+  /** Encoding: WebP. */
+  public static final int ENCODING_WEBP = 3;
+
+  /** Count of encodings. */
+  static final int ENCODINGS_COUNT = 4;
+
+  /** Default quality. */
+  public static final int DEFAULT_QUALITY = 85;
+
+  /** Default policy: JPEG for photos. */
+  public static final ImageEncodingPolicy DEFAULT = new ImageEncodingPolicy(ENCODING_JPEG, DEFAULT_QUALITY);
+
+  /** Lossless policy: all the images are stored as PNG. */
+  public static final ImageEncodingPolicy LOSSLESS = new ImageEncodingPolicy(ENCODING_PNG, 100);
+
+  /** Encoding of images without alpha channel. */
+  private final int photoEncoding;
+  /** Quality of lossy encodings. */
+  private final int quality;
+
+  /**
+   * @param photoEncoding encoding of images without alpha channel: {@link #ENCODING_JPEG}, {@link #ENCODING_WEBP}
+   *                      or {@link #ENCODING_PNG}
+   * @param quality quality of lossy encodings, from 0 to 100
+   */
+  public ImageEncodingPolicy(final int photoEncoding, final int quality) {
+    if (photoEncoding != ENCODING_JPEG && photoEncoding != ENCODING_WEBP && photoEncoding != ENCODING_PNG) {
+      throw new IllegalArgumentException("Bad photo encoding " + photoEncoding);
+    }
+    if (quality < 0 || quality > 100) { throw new IllegalArgumentException("Bad quality " + quality); }
+    this.photoEncoding = photoEncoding;
+    this.quality = quality;
+  }
+
+  /**
+   * @param bitmap downscaled image
+   * @return encoding of the image on disk
+   */
+  public int getEncoding(final Bitmap bitmap) {
+    if (bitmap.hasAlpha()) {
+      return ENCODING_PNG;
+    }
+    if (photoEncoding == ENCODING_WEBP && Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+      return ENCODING_JPEG;
+    }
+    return photoEncoding;
+  }
+
+  /**
+   * @param encoding encoding returned by {@link #getEncoding(Bitmap)}
+   * @return quality passed to {@link Bitmap#compress(Bitmap.CompressFormat, int, java.io.OutputStream)}
+   */
+  public int getQuality(final int encoding) {
+    // PNG ignores quality
+    return encoding == ENCODING_PNG ? 100 : quality;
+  }
+
+  static Bitmap.CompressFormat toCompressFormat(final int encoding) {
+    switch (encoding) {
+    case ENCODING_PNG:
+      return Bitmap.CompressFormat.PNG;
+    case ENCODING_JPEG:
+      return Bitmap.CompressFormat.JPEG;
+    case ENCODING_WEBP:
+      return Bitmap.CompressFormat.WEBP;
+    default:
+      throw new IllegalArgumentException("Cannot compress to encoding " + encoding);
+    }
+  }
+
+  /**
+   * @param encoding encoding
+   * @return encoding name for logs
+   */
+  public static String toString(final int encoding) {
+    switch (encoding) {
+    case ENCODING_ORIGINAL:
+      return "original";
+    case ENCODING_PNG:
+      return "png";
+    case ENCODING_JPEG:
+      return "jpeg";
+    case ENCODING_WEBP:
+      return "webp";
+    default:
+      return "unknown(" + encoding + ")";
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ImageEncodingPolicy[photo=" + toString(photoEncoding) + ", quality=" + quality + "]";
+  }
+
+}
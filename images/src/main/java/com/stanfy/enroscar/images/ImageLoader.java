@@ -23,9 +23,12 @@ class ImageLoader implements Callable<Void> {
   /** Images manager. */
   private final ImagesManager imagesManager;
 
-  /** Future task instance. */
+  /** Future task instance. It fetches an image. */
   final FutureTask<Void> future;
 
+  /** Decode stage future, assigned when image is fetched. */
+  private volatile FutureTask<Void> decodeFuture;
+
   /** Targets. */
   private final ArrayList<ImageConsumer> targets = new ArrayList<ImageConsumer>();
 
@@ -42,13 +45,27 @@ class ImageLoader implements Callable<Void> {
   public ImageLoader(final ImageRequest request, final ImagesManager imagesManager) {
     this.request = request;
     this.imagesManager = imagesManager;
-    this.future = new FutureTask<Void>(this);
+    this.future = new LoaderTask(this);
+  }
+
+  private boolean isCancelled() {
+    final FutureTask<Void> decode = decodeFuture;
+    return future.isCancelled() || (decode != null && decode.isCancelled());
+  }
+
+  /** @return true if the current stage has been cancelled */
+  private boolean cancelStages() {
+    if (future.cancel(true)) {
+      return true;
+    }
+    final FutureTask<Void> decode = decodeFuture;
+    return decode != null && decode.cancel(true);
   }
 
 
   // main thread
   public boolean addTarget(final ImageConsumer imageHolder) {
-    if (future.isCancelled()) { return false; } // we should start a new task
+    if (isCancelled()) { return false; } // we should start a new task
 
     imageHolder.onStart(this, request.url);
 
@@ -78,7 +95,7 @@ class ImageLoader implements Callable<Void> {
       targets.remove(consumer);
 
       if (targets.isEmpty()) {
-        if (!future.cancel(true)) {
+        if (!cancelStages()) {
           if (imagesManager.debug) { Log.d(TAG, "Can't cancel task so let's try to remove loader manually"); }
           imagesManager.currentLoads.remove(request.getKey(), this);
         }
@@ -133,30 +150,14 @@ class ImageLoader implements Callable<Void> {
   }
 
   private Bitmap prepare(final Bitmap map) {
-    int dstW = request.getRequiredWidth(), dstH = request.getRequiredHeight();
+    final int dstW = request.getRequiredWidth(), dstH = request.getRequiredHeight();
     if (dstW <= 0 || dstH <= 0 || request.isSkipScaleBeforeMemCache()) {
       if (imagesManager.debug) {
         Log.d(TAG, "Skip scaling for " + request.getKey() + " skip flag: " + request.isSkipScaleBeforeMemCache());
       }
       return map;
     }
-
-    final int w = map.getWidth(), h = map.getHeight();
-
-    if (w <= dstW && h <= dstH) { return map; }
-
-    final double ratio = (double)w / h;
-    if (w > h) {
-      dstH = (int)(dstW / ratio);
-    } else {
-      dstW = (int)(dstH * ratio);
-    }
-
-    if (dstW <= 0 || dstH <= 0) { return map; }
-
-    final Bitmap scaled = Bitmap.createScaledBitmap(map, dstW, dstH, true);
-    scaled.setDensity(imagesManager.getResources().getDisplayMetrics().densityDpi);
-    return scaled;
+    return imagesManager.scaleToFit(map, dstW, dstH);
   }
 
   private void memCacheImage(final ImageResult result) {
@@ -165,7 +166,7 @@ class ImageLoader implements Callable<Void> {
       Bitmap resultBitmap = prepare(input);
       if (resultBitmap != input) {
         result.setBitmap(resultBitmap);
-        input.recycle();
+        imagesManager.releaseBitmap(input);
       }
       imagesManager.memCacheImage(request.url, resultBitmap);
     }
@@ -228,15 +229,85 @@ class ImageLoader implements Callable<Void> {
   }
 
   private void post(final Runnable action) {
-    ImageConsumer consumer = findMainTarget();
+    final ImageConsumer consumer = findMainTarget();
     if (consumer != null) {
-      consumer.post(action);
+      // delivery is deferred together with decoding
+      imagesManager.getDecodeDeferral().deliver(new Runnable() {
+        @Override
+        public void run() {
+          if (consumer.postsToMainThread()) {
+            imagesManager.getDeliveryQueue().enqueue(action);
+          } else {
+            consumer.post(action);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Future of a loading stage that cleans up after cancellation, even if the task has never been started.
+   */
+  private final class LoaderTask extends ImageTasksScheduler.Task<Void> {
+
+    /** Fetched image that is decoded by this task, null for the fetch stage. */
+    private final ImageRequest.FetchedImage image;
+
+    public LoaderTask(final Callable<Void> stage) {
+      this(stage, null);
+    }
+
+    public LoaderTask(final Callable<Void> stage, final ImageRequest.FetchedImage image) {
+      super(stage, request.getPriority());
+      this.image = image;
+    }
+
+    @Override
+    protected void done() {
+      super.done();
+      if (!isCancelled()) { return; }
+
+      if (image != null) {
+        // decode stage has not started or has been interrupted
+        image.close();
+      }
+
+      imagesManager.currentLoads.remove(request.getKey(), ImageLoader.this);
+      // targets are not empty if the task was dropped by scheduler
+      if (findMainTarget() != null) {
+        if (imagesManager.debug) { Log.d(TAG, "Task is dropped: " + request.getKey()); }
+        ImageLoader.this.cancel();
+      }
+    }
+
+  }
+
+  private void handleError(final Exception e) {
+    if (e instanceof MalformedURLException) {
+      Log.e(TAG, "Bad URL: " + request.url + ". Loading canceled.", e);
+    } else if (e instanceof IOException) {
+      if (imagesManager.debug) { Log.e(TAG, "IO error for " + request.url + ": " + e.getMessage()); }
+    } else {
+      Log.e(TAG, "Cannot load image " + request.url, e);
     }
+    error(e);
   }
 
+  private void removeFromCurrentLoads() {
+    final boolean removed = imagesManager.currentLoads.remove(request.getKey(), this);
+    if (imagesManager.debug) {
+      Log.d(TAG, "Current loaders count: " + imagesManager.currentLoads.size());
+      if (!removed) { Log.w(TAG, "Incorrect loader in currents for " + request.getKey()); }
+    }
+  }
+
+  /**
+   * Fetch stage. Hands the fetched image off to the decode executor.
+   */
   @Override
   public Void call() {
     if (imagesManager.debug) { Log.d(TAG, "Start image task"); }
+    boolean handedOff = false;
     try {
 
       if (!imagesManager.waitForPause()) {
@@ -245,39 +316,68 @@ class ImageLoader implements Callable<Void> {
         return null;
       }
 
-      final ImageResult result = request.readImage();
-      if (result == null) {
-        throw new IllegalStateException("Image is not returned!");
+      final long startTime = System.nanoTime();
+      final ImageRequest.FetchedImage image = request.fetchImage();
+      imagesManager.getFetchStats().onTaskFinished(startTime, image.size());
+
+      if (future.isCancelled()) {
+        image.close();
+        return null;
       }
-      safeImageSet(result);
 
-      finish();
+      final FutureTask<Void> decode = new LoaderTask(new Callable<Void>() {
+        @Override
+        public Void call() {
+          decode(image);
+          return null;
+        }
+      }, image);
+      decodeFuture = decode;
+      imagesManager.getDecodeDeferral().decode(decode, image.size());
+      handedOff = true;
 
-    } catch (final MalformedURLException e) {
+    } catch (final Exception e) {
 
-      Log.e(TAG, "Bad URL: " + request.url + ". Loading canceled.", e);
-      error(e);
+      imagesManager.getFetchStats().onTaskFailed();
+      handleError(e);
 
-    } catch (final IOException e) {
+    } finally {
 
-      if (imagesManager.debug) { Log.e(TAG, "IO error for " + request.url + ": " + e.getMessage()); }
-      error(e);
+      if (!handedOff) {
+        removeFromCurrentLoads();
+      }
+
+    }
+    return null;
+  }
+
+  /**
+   * Decode stage.
+   * @param image fetched image
+   */
+  private void decode(final ImageRequest.FetchedImage image) {
+    try {
+
+      final long startTime = System.nanoTime();
+      final ImageResult result = request.decodeImage(image);
+      if (result == null) {
+        throw new IllegalStateException("Image is not returned!");
+      }
+      safeImageSet(result);
+      imagesManager.getDecodeStats().onTaskFinished(startTime, image.size());
+
+      finish();
 
     } catch (final Exception e) {
 
-      Log.e(TAG, "Cannot load image " + request.url, e);
-      error(e);
+      imagesManager.getDecodeStats().onTaskFailed();
+      handleError(e);
 
     } finally {
 
-      final boolean removed = imagesManager.currentLoads.remove(request.getKey(), this);
-      if (imagesManager.debug) {
-        Log.d(TAG, "Current loaders count: " + imagesManager.currentLoads.size());
-        if (!removed) { Log.w(TAG, "Incorrect loader in currents for " + request.getKey()); }
-      }
+      removeFromCurrentLoads();
 
     }
-    return null;
   }
 
 }
@@ -0,0 +1,275 @@
+package com.stanfy.enroscar.images;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.AbsListView;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import static com.stanfy.enroscar.images.ImagesManager.TAG;
+
+/**
+ * Keeps images of the next screens of a list warm in the disk cache (and optionally in the memory cache).
+ * <p>
+ *   Prefetch tasks are run by {@link ImagesManager#getImageTaskExecutor()} with
+ *   {@link ImageTasksScheduler#PRIORITY_PREFETCH}, so images that are displayed now go first.
+ *   Tasks of images that scrolled out of the prefetch range are cancelled.
+ *   Tasks wait while loading is paused with {@link ImagesManager#pauseLoading()}.
+ * </p>
+ * <pre>
+ *   prefetcher = imagesManager.createPrefetcher(2);
+ *   prefetcher.setUrls(urls);
+ *   listView.setOnScrollListener(prefetcher.asScrollListener(null));
+ * </pre>
+ * Methods of this class must be called from the main thread.
+ * @see ImagesManager#createPrefetcher(int)
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+public class ImagePrefetcher {
+
+  /** Images manager. */
+  private final ImagesManager manager;
+  /** Executor. */
+  private final Executor executor;
+
+  /** Count of screens to prefetch. */
+  private final int screens;
+
+  /** URLs of list items. */
+  private List<String> urls = Collections.emptyList();
+
+  /** Size of images put to the memory cache, 0 means memory cache is not used. */
+  private volatile int memoryWidth, memoryHeight;
+
+  /** Scheduled tasks. */
+  private final HashMap<String, PrefetchTask> tasks = new HashMap<String, PrefetchTask>();
+  /** URLs that have been prefetched or failed. */
+  private final Set<String> finished = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /** Last scroll direction: 1 or -1. */
+  private int direction = 1;
+
+  ImagePrefetcher(final ImagesManager manager, final Executor executor, final int screens) {
+    if (screens <= 0) { throw new IllegalArgumentException("Screens count must be positive"); }
+    this.manager = manager;
+    this.executor = executor;
+    this.screens = screens;
+  }
+
+  /**
+   * Set URLs of list items. Scheduled prefetches are cancelled.
+   * @param urls image URLs in the order of list items, null elements are allowed
+   */
+  public void setUrls(final List<String> urls) {
+    cancel();
+    finished.clear();
+    this.urls = urls != null ? urls : Collections.<String>emptyList();
+  }
+
+  /**
+   * Decode prefetched images and put them to the memory cache.
+   * @param width target width of images, 0 means images are prefetched to the disk cache only
+   * @param height target height of images
+   */
+  public void setMemoryCacheTarget(final int width, final int height) {
+    this.memoryWidth = width;
+    this.memoryHeight = height;
+  }
+
+  /**
+   * Update the prefetch range.
+   * @param firstVisible position of the first visible item
+   * @param visibleCount count of visible items
+   * @param velocity scroll velocity in items per second, positive when scrolling towards the end of the list;
+   *                 images are prefetched in the direction of the last scroll
+   */
+  public void onScroll(final int firstVisible, final int visibleCount, final float velocity) {
+    if (velocity > 0) {
+      direction = 1;
+    } else if (velocity < 0) {
+      direction = -1;
+    }
+
+    final int count = screens * Math.max(visibleCount, 1);
+    final int start, end;
+    if (direction > 0) {
+      start = firstVisible + visibleCount;
+      end = Math.min(start + count, urls.size());
+    } else {
+      end = Math.min(firstVisible, urls.size());
+      start = Math.max(end - count, 0);
+    }
+
+    // cancel tasks out of range
+    final Set<String> range = new HashSet<String>(count * 2);
+    for (int i = start; i < end; i++) {
+      final String url = urls.get(i);
+      if (url != null) { range.add(url); }
+    }
+    final Iterator<Map.Entry<String, PrefetchTask>> iterator = tasks.entrySet().iterator();
+    while (iterator.hasNext()) {
+      final Map.Entry<String, PrefetchTask> entry = iterator.next();
+      final PrefetchTask task = entry.getValue();
+      if (task.isDone() || !range.contains(entry.getKey())) {
+        task.cancel(false);
+        iterator.remove();
+      }
+    }
+
+    // schedule tasks in the order images are going to be displayed
+    for (int k = 0; k < end - start; k++) {
+      final String url = urls.get(direction > 0 ? start + k : end - 1 - k);
+      if (url == null || tasks.containsKey(url) || finished.contains(url)) { continue; }
+      final PrefetchTask task = new PrefetchTask(new Prefetch(url));
+      tasks.put(url, task);
+      executor.execute(task);
+    }
+  }
+
+  /** Cancel all the scheduled prefetches. */
+  public void cancel() {
+    for (final PrefetchTask task : tasks.values()) {
+      task.cancel(false);
+    }
+    tasks.clear();
+  }
+
+  /** @return count of scheduled prefetches that are not finished */
+  public int getPendingCount() {
+    int result = 0;
+    for (final PrefetchTask task : tasks.values()) {
+      if (!task.isDone()) { result++; }
+    }
+    return result;
+  }
+
+  /**
+   * Create a scroll listener that estimates scroll velocity and updates the prefetch range.
+   * @param delegate listener to pass scroll events to, may be null
+   * @return scroll listener for the list view
+   */
+  public AbsListView.OnScrollListener asScrollListener(final AbsListView.OnScrollListener delegate) {
+    return new ScrollListener(delegate);
+  }
+
+  /** Prefetch task. */
+  private static final class PrefetchTask extends ImageTasksScheduler.Task<Void> {
+    /** Prefetch. */
+    private final Prefetch prefetch;
+
+    public PrefetchTask(final Prefetch prefetch) {
+      super(prefetch, ImageTasksScheduler.PRIORITY_PREFETCH);
+      this.prefetch = prefetch;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+      // running prefetch checks the flag after waiting for pause
+      prefetch.cancelled = true;
+      return super.cancel(mayInterruptIfRunning);
+    }
+  }
+
+  /** Prefetch of one image. */
+  private final class Prefetch implements Callable<Void> {
+    /** Image URL. */
+    private final String url;
+    /** Cancellation flag. */
+    volatile boolean cancelled;
+
+    Prefetch(final String url) {
+      this.url = url;
+    }
+
+    @Override
+    public Void call() {
+      if (!manager.waitForPause() || cancelled) { return null; }
+
+      final int width = memoryWidth, height = memoryHeight;
+      final boolean toMemory = width > 0 && height > 0;
+      final ImageRequest request = new ImageRequest(manager, url, -1);
+      request.setPriority(ImageTasksScheduler.PRIORITY_PREFETCH);
+      if (toMemory) {
+        request.setRequiredWidth(width);
+        request.setRequiredHeight(height);
+      }
+      if (manager.currentLoads.containsKey(request.getKey())
+          || (toMemory ? manager.isMemCached(url) : manager.isPresentOnDisk(url))) {
+        finished.add(url);
+        return null;
+      }
+
+      final long startTime = System.nanoTime();
+      try {
+        if (toMemory) {
+          final ImageResult result = request.readImage();
+          if (result.getBitmap() != null) {
+            manager.memCacheImage(url, result.getBitmap());
+          }
+        } else {
+          request.storeToDisk();
+        }
+        manager.getPrefetchStats().onTaskFinished(startTime, manager.getDiskCachedSize(url));
+      } catch (final IOException e) {
+        manager.getPrefetchStats().onTaskFailed();
+        if (manager.debug) { Log.e(TAG, "IO error for prefetch of " + url + ": " + e.getMessage()); }
+      } catch (final RuntimeException e) {
+        manager.getPrefetchStats().onTaskFailed();
+        Log.e(TAG, "Cannot prefetch " + url, e);
+      }
+      // failed images are not retried until URLs are reset
+      finished.add(url);
+      return null;
+    }
+  }
+
+  /** Estimates scroll velocity from changes of the first visible position. */
+  private final class ScrollListener implements AbsListView.OnScrollListener {
+    /** Milliseconds in a second. */
+    private static final float MILLIS_IN_SECOND = 1000f;
+
+    /** Delegate. */
+    private final AbsListView.OnScrollListener delegate;
+
+    /** Last position. */
+    private int lastFirstVisible = -1;
+    /** Time of the last position change. */
+    private long lastTime;
+
+    ScrollListener(final AbsListView.OnScrollListener delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void onScrollStateChanged(final AbsListView view, final int scrollState) {
+      if (delegate != null) { delegate.onScrollStateChanged(view, scrollState); }
+    }
+
+    @Override
+    public void onScroll(final AbsListView view, final int firstVisibleItem, final int visibleItemCount,
+                         final int totalItemCount) {
+      if (delegate != null) { delegate.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount); }
+      if (firstVisibleItem == lastFirstVisible) { return; }
+
+      final long now = SystemClock.uptimeMillis();
+      float velocity = 0;
+      if (lastFirstVisible != -1 && now > lastTime) {
+        velocity = (firstVisibleItem - lastFirstVisible) * MILLIS_IN_SECOND / (now - lastTime);
+      }
+      lastFirstVisible = firstVisibleItem;
+      lastTime = now;
+      ImagePrefetcher.this.onScroll(firstVisibleItem, visibleItemCount, velocity);
+    }
+  }
+
+}
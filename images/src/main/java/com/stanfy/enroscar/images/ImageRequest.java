@@ -1,16 +1,24 @@
 package com.stanfy.enroscar.images;
 
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 import android.util.DisplayMetrics;
 import android.util.Log;
 
 import com.stanfy.enroscar.beans.BeansManager;
+import com.stanfy.enroscar.images.cache.BitmapsPool;
 import com.stanfy.enroscar.io.FlushedInputStream;
+import com.stanfy.enroscar.io.ImageHeaderParser;
 import com.stanfy.enroscar.io.IoUtils;
 import com.stanfy.enroscar.net.UrlConnectionBuilderFactory;
 import com.stanfy.enroscar.net.cache.EnhancedResponseCache;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,6 +36,8 @@ public class ImageRequest {
 
   /** Mark for getting bounds info. */
   private static final int BOUNDS_INFO_MARK = 65536;
+  /** Max count of bytes read to get bounds info, JPEG frame header may follow big metadata segments. */
+  private static final int MAX_BOUNDS_INFO_SIZE = 512 * 1024;
   /** Buffer size for image IO operations. */
   private static final int IMAGES_BUFFER_SIZE = IoUtils.BUFFER_SIZE_16K;
 
@@ -49,6 +59,9 @@ public class ImageRequest {
   /** Image format. */
   private Bitmap.Config format = Bitmap.Config.ARGB_8888;
 
+  /** Loading task priority. */
+  private int priority = ImageTasksScheduler.PRIORITY_VISIBLE;
+
   /**
    * @param manager images manager instance
    * @param url image URL
@@ -100,10 +113,22 @@ public class ImageRequest {
     this.format = format;
   }
 
+  /** @return loading task priority, see {@link ImageTasksScheduler} */
+  public int getPriority() {
+    return priority;
+  }
+
+  /** @param priority loading task priority, see {@link ImageTasksScheduler} */
+  public void setPriority(final int priority) {
+    this.priority = priority;
+  }
+
+  /** @return key of the loading task: URL and required size */
   public String getKey() {
-    return url + "!" + getRequiredHeight() + "x" + getRequiredHeight();
+    return url + "!" + getRequiredWidth() + "x" + getRequiredHeight();
   }
 
+  /** @return memory cache key: all the size variants of an image share it */
   public String getCacheKey() {
     return url;
   }
@@ -131,6 +156,7 @@ public class ImageRequest {
     if (result.getType() == ImageSourceType.NETWORK && result.getBitmap() != null) {
       // image was scaled
       writeBitmapToDisk(result.getBitmap());
+      manager.releaseBitmap(result.getBitmap());
     }
   }
 
@@ -142,6 +168,64 @@ public class ImageRequest {
     return decodeStream(getRemoteInputStream(), false);
   }
 
+  /**
+   * Fetch stage of image loading: download the image to the disk cache unless it's already there.
+   * Each image is requested once: if the response is not stored by the cache,
+   * the decode stage gets a copy of the downloaded data.
+   * @return fetched image that should be passed to {@link #decodeImage(FetchedImage)}
+   *         or closed if it's not decoded
+   * @throws IOException if error happens
+   */
+  FetchedImage fetchImage() throws IOException {
+    if (manager.isPresentOnDisk(url)) {
+      return new FetchedImage(ImageSourceType.DISK, null, 0);
+    }
+
+    // response is written to the disk cache while it's read
+    final FetchSpool spool = new FetchSpool(manager.getBuffersPool(), manager.getContext().getCacheDir());
+    final InputStream remote = getRemoteInputStream();
+    try {
+      IoUtils.transfer(remote, spool, manager.getBuffersPool());
+    } catch (final IOException e) {
+      spool.discard();
+      throw e;
+    } finally {
+      IoUtils.closeQuietly(remote);
+    }
+
+    // opened file remains readable even if the entry is evicted before the decode stage
+    final String path = ((EnhancedResponseCache) manager.getImagesResponseCache()).getLocalPath(url);
+    if (path != null) {
+      try {
+        final InputStream cached = new FileInputStream(path);
+        spool.discard();
+        return new FetchedImage(ImageSourceType.NETWORK, cached, spool.size());
+      } catch (final FileNotFoundException e) {
+        // not stored
+      }
+    }
+    if (manager.debug) { Log.d(TAG, "Image " + url + " is not cached, downloaded copy will be decoded"); }
+    return new FetchedImage(ImageSourceType.NETWORK, spool.toInputStream(), spool.size());
+  }
+
+  /**
+   * Decode stage of image loading. Does not perform network operations.
+   * @param image result of {@link #fetchImage()}, it's closed by this method
+   * @return decoded image
+   * @throws IOException if error happens
+   */
+  ImageResult decodeImage(final FetchedImage image) throws IOException {
+    final InputStream input;
+    try {
+      // images on disk are read through the response cache
+      input = image.input != null ? image.input : getRemoteInputStream();
+    } catch (final IOException e) {
+      image.close();
+      throw e;
+    }
+    return decodeStream(input, false, image.type);
+  }
+
   private InputStream getRemoteInputStream() throws IOException {
     return newUrlConnection().getInputStream();
   }
@@ -158,7 +242,13 @@ public class ImageRequest {
         .create();
   }
 
-  private ImageResult decodeStream(final InputStream is, boolean onlyIfNeedsRescale) throws IOException {
+  private ImageResult decodeStream(final InputStream is, final boolean onlyIfNeedsRescale) throws IOException {
+    final ImageSourceType type = manager.isPresentOnDisk(url) ? ImageSourceType.DISK : ImageSourceType.NETWORK;
+    return decodeStream(is, onlyIfNeedsRescale, type);
+  }
+
+  private ImageResult decodeStream(final InputStream is, final boolean onlyIfNeedsRescale,
+                                   final ImageSourceType type) throws IOException {
     final BitmapFactory.Options options = createBitmapOptions();
 
     final InputStream src = prepareInputStream(is);
@@ -166,14 +256,19 @@ public class ImageRequest {
     try {
 
       ImageResult result = new ImageResult();
-      result.setType(manager.isPresentOnDisk(url) ? ImageSourceType.DISK : ImageSourceType.NETWORK);
+      result.setType(type);
 
       // get scale factor
-      options.inSampleSize = resolveSampleFactor(src, options);
+      options.inSampleSize = resolveSampleFactor(src, options, result);
 
       if (options.inSampleSize > 1 || !onlyIfNeedsRescale) {
         // actually decode
-        result.setBitmap(doStreamDecode(src, options));
+        final long startTime = System.nanoTime();
+        result.setBitmap(decodeBitmap(src, options));
+        if (type == ImageSourceType.DISK && result.getBitmap() != null) {
+          manager.getDiskDecodeStats(manager.getStoredEncoding(url))
+              .onTaskFinished(startTime, manager.getDiskCachedSize(url));
+        }
       } else {
         // consume input in order to cache it
         IoUtils.consumeStream(src, manager.getBuffersPool());
@@ -215,51 +310,186 @@ public class ImageRequest {
     manager.getBuffersPool().release(options.inTempStorage);
   }
 
+  private Bitmap decodeBitmap(final InputStream src, final BitmapFactory.Options options) throws IOException {
+    final BitmapsPool bitmapsPool = manager.getBitmapsPool();
+    if (bitmapsPool == null || !BitmapsPool.isReuseSupported()) {
+      return doStreamDecode(src, options);
+    }
+    return decodeReusingBitmap(src, options, bitmapsPool);
+  }
+
+  @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+  private Bitmap decodeReusingBitmap(final InputStream src, final BitmapFactory.Options options,
+                                     final BitmapsPool bitmapsPool) throws IOException {
+    options.inMutable = true;
+
+    final int sampleSize = options.inSampleSize;
+    final boolean exactSizeKnown = sampleSize <= 1
+        && ("image/jpeg".equals(options.outMimeType) || "image/png".equals(options.outMimeType));
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && !exactSizeKnown) {
+      // older decoders can reuse bitmaps only for not sampled JPEG and PNG
+      return doStreamDecode(src, options);
+    }
+
+    // decoder rounds sample size down to a power of 2, so we get an upper estimate here
+    final int divider = Integer.highestOneBit(Math.max(sampleSize, 1));
+    final int width = (options.outWidth + divider - 1) / divider, height = (options.outHeight + divider - 1) / divider;
+    // pool gives only bitmaps that fit, see BitmapsPool.canReuse(); stream cannot be decoded twice
+    final Bitmap reused = bitmapsPool.get(width, height, options.inPreferredConfig);
+    if (reused == null) {
+      return doStreamDecode(src, options);
+    }
+
+    options.inBitmap = reused;
+    try {
+      final Bitmap result = doStreamDecode(src, options);
+      if (result != reused) {
+        bitmapsPool.put(reused);
+      }
+      return result;
+    } catch (final IllegalArgumentException e) {
+      bitmapsPool.put(reused);
+      final IOException wrapped = new IOException("cannot reuse bitmap for " + getKey());
+      wrapped.initCause(e);
+      throw wrapped;
+    } finally {
+      options.inBitmap = null;
+    }
+  }
+
   private InputStream prepareInputStream(final InputStream is) throws IOException {
     InputStream src = new FlushedInputStream(is);
     if (!src.markSupported()) {
-      src = manager.getBuffersPool().bufferize(src, IMAGES_BUFFER_SIZE);
+      src = manager.getBuffersPool().bufferizeUnsynchronized(src, IMAGES_BUFFER_SIZE);
     }
     return src;
   }
 
   /**
    * @param is image input stream
+   * @param result result to put EXIF orientation to
    * @return sampling factor
    * @throws IOException if error happens
    */
-  private int resolveSampleFactor(final InputStream is, final BitmapFactory.Options options) throws IOException {
+  private int resolveSampleFactor(final InputStream is, final BitmapFactory.Options options,
+                                  final ImageResult result) throws IOException {
     if (!is.markSupported()) { throw new IllegalStateException("Input stream does not support marks!"); }
 
+    final ImageHeaderParser header = sniffHeader(is);
+    if (header != null) {
+      options.outWidth = header.getWidth();
+      options.outHeight = header.getHeight();
+      options.outMimeType = header.getMimeType();
+      result.setOrientation(header.getOrientation());
+    } else {
+      decodeBounds(is, options);
+    }
+
+    return ImagesManager.calculateSampleFactor(options.outWidth, options.outHeight,
+        getRequiredWidth(), getRequiredHeight());
+  }
+
+  /**
+   * Read image dimensions from its header without invoking the decoder.
+   * Stream is reset to its initial position.
+   * @param is image input stream, must support marks
+   * @return parsed header or null if format is not recognized
+   * @throws IOException if error happens
+   */
+  private ImageHeaderParser sniffHeader(final InputStream is) throws IOException {
+    final ImageHeaderParser parser = new ImageHeaderParser();
+    final byte[] buffer = manager.getBuffersPool().get(BOUNDS_INFO_MARK);
+    final MarkableInputStream markableStream = new MarkableInputStream(is);
+    final long mark = markableStream.savePosition(BOUNDS_INFO_MARK);
+    markableStream.setMaxLimit(MAX_BOUNDS_INFO_SIZE);
+    try {
+      final int status = parser.parse(markableStream, buffer, MAX_BOUNDS_INFO_SIZE);
+      return status == ImageHeaderParser.RESULT_OK ? parser : null;
+    } finally {
+      markableStream.reset(mark);
+      manager.getBuffersPool().release(buffer);
+    }
+  }
+
+  private void decodeBounds(final InputStream is, final BitmapFactory.Options options) throws IOException {
     options.inJustDecodeBounds = true;
-    int result = 1;
     try {
 
       MarkableInputStream markableStream = new MarkableInputStream(is); // Thanks to Square guys :)
       long mark = markableStream.savePosition(BOUNDS_INFO_MARK);
+      markableStream.setMaxLimit(MAX_BOUNDS_INFO_SIZE);
       doStreamDecode(markableStream, options);
-
-      result = ImagesManager.calculateSampleFactor(options.outWidth, options.outHeight,
-          getRequiredWidth(), getRequiredHeight());
-
       markableStream.reset(mark);
 
     } finally {
       options.inJustDecodeBounds = false;
     }
-    return result;
   }
 
   void writeBitmapToDisk(final Bitmap bitmap) throws IOException {
+    final ImageEncodingPolicy policy = manager.getDiskEncodingPolicy();
+    final int encoding = policy.getEncoding(bitmap);
+    final int quality = policy.getQuality(encoding);
+    final ImageStageStats stats = manager.getEncodeStats(encoding);
+
+    final long startTime = System.nanoTime();
     EnhancedResponseCache cache = (EnhancedResponseCache) manager.getImagesResponseCache();
-    OutputStream output = new FileOutputStream(cache.getLocalPath(url));
-    output = manager.getBuffersPool().bufferize(output, IMAGES_BUFFER_SIZE);
+    final File file = new File(cache.getLocalPath(url));
+    OutputStream output = new FileOutputStream(file);
+    output = manager.getBuffersPool().bufferizeUnsynchronized(output, IMAGES_BUFFER_SIZE);
+    boolean success = false;
     try {
-      final int quality = 100;
-      bitmap.compress(Bitmap.CompressFormat.PNG, quality, output);
+      success = bitmap.compress(ImageEncodingPolicy.toCompressFormat(encoding), quality, output);
     } finally {
       IoUtils.closeQuietly(output);
+      if (success) {
+        stats.onTaskFinished(startTime, file.length());
+      } else {
+        stats.onTaskFailed();
+      }
+    }
+    if (!success) {
+      throw new IOException("Cannot encode " + url + " to " + ImageEncodingPolicy.toString(encoding));
+    }
+
+    manager.onImageEncoded(url, encoding, quality);
+    if (manager.debug) {
+      Log.d(TAG, "Image " + url + " stored as " + ImageEncodingPolicy.toString(encoding) + ", "
+          + file.length() + " bytes");
+    }
+  }
+
+  /**
+   * Result of the fetch stage.
+   */
+  static final class FetchedImage implements Closeable {
+
+    /** Image source type. */
+    final ImageSourceType type;
+
+    /** Downloaded image data, null if image should be read through the response cache. */
+    final InputStream input;
+
+    /** Count of downloaded bytes. */
+    private final long size;
+
+    FetchedImage(final ImageSourceType type, final InputStream input, final long size) {
+      this.type = type;
+      this.input = input;
+      this.size = size;
     }
+
+    /** @return count of downloaded bytes */
+    long size() {
+      return size;
+    }
+
+    /** Release resources of an image that is not going to be decoded. */
+    @Override
+    public void close() {
+      IoUtils.closeQuietly(input);
+    }
+
   }
 
 }
@@ -2,6 +2,8 @@ package com.stanfy.enroscar.images;
 
 import android.graphics.Bitmap;
 
+import com.stanfy.enroscar.io.ImageHeaderParser;
+
 /**
  * Image loading result.
  */
@@ -13,6 +15,9 @@ public class ImageResult {
   /** Result type. */
   private ImageSourceType type;
 
+  /** EXIF orientation. */
+  private int orientation = ImageHeaderParser.ORIENTATION_NORMAL;
+
   ImageResult() {
 
   }
@@ -30,6 +35,10 @@ public class ImageResult {
     this.type = type;
   }
 
+  void setOrientation(final int orientation) {
+    this.orientation = orientation;
+  }
+
   public Bitmap getBitmap() {
     return bitmap;
   }
@@ -38,6 +47,14 @@ public class ImageResult {
     return type;
   }
 
+  /**
+   * Orientation is read from the image header, bitmap is not rotated.
+   * @return EXIF orientation (1-8), {@link ImageHeaderParser#ORIENTATION_NORMAL} if it's unknown
+   */
+  public int getOrientation() {
+    return orientation;
+  }
+
   @Override
   public String toString() {
     if (bitmap == null) { return "not ready"; }
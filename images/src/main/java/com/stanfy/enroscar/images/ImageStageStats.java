@@ -0,0 +1,72 @@
+package com.stanfy.enroscar.images;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of one image loading stage (fetch or decode).
+ * @see ImagesManager#getFetchStats()
+ * @see ImagesManager#getDecodeStats()
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+public final class ImageStageStats {
+
+  /** Counters. */
+  private final AtomicInteger tasksCount = new AtomicInteger(), errorsCount = new AtomicInteger();
+
+  /** Time spent by finished tasks. */
+  private final AtomicLong totalTime = new AtomicLong();
+
+  /** Processed bytes. */
+  private final AtomicLong bytesCount = new AtomicLong();
+
+  ImageStageStats() { }
+
+  /**
+   * @param startTime value of {@link System#nanoTime()} when task was started
+   * @param bytes count of processed bytes
+   */
+  void onTaskFinished(final long startTime, final long bytes) {
+    totalTime.addAndGet(System.nanoTime() - startTime);
+    bytesCount.addAndGet(bytes);
+    tasksCount.incrementAndGet();
+  }
+
+  void onTaskFailed() {
+    errorsCount.incrementAndGet();
+  }
+
+  /** @return count of successfully finished tasks */
+  public int getTasksCount() {
+    return tasksCount.get();
+  }
+
+  /** @return count of failed tasks */
+  public int getErrorsCount() {
+    return errorsCount.get();
+  }
+
+  /** @return count of bytes processed by this stage */
+  public long getBytesCount() {
+    return bytesCount.get();
+  }
+
+  /** @return time spent by successfully finished tasks in milliseconds */
+  public long getTotalTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(totalTime.get());
+  }
+
+  /** @return average time of one task in milliseconds */
+  public long getAverageTimeMillis() {
+    final int count = tasksCount.get();
+    return count == 0 ? 0 : getTotalTimeMillis() / count;
+  }
+
+  @Override
+  public String toString() {
+    return "tasks=" + getTasksCount() + ", errors=" + getErrorsCount() + ", bytes=" + getBytesCount()
+        + ", avgTime=" + getAverageTimeMillis() + "ms";
+  }
+
+}
@@ -0,0 +1,193 @@
+package com.stanfy.enroscar.images;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for image tasks.
+ * <p>
+ *   Queued tasks are ordered by priority: images that are visible now go first, then prefetched images,
+ *   then background tasks (like {@link ImagesManager#ensureImages(java.util.List, java.util.concurrent.Executor)}).
+ *   Tasks with the same priority are taken in LIFO (the latest request is most probably on screen)
+ *   or FIFO order.
+ * </p>
+ * <p>
+ *   When queue depth limit is reached the oldest task with the lowest priority is cancelled and dropped.
+ *   Cancelled tasks are removed from the queue immediately, so they do not occupy queue slots.
+ * </p>
+ * @see ImagesManager#getImageTaskExecutor()
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+public class ImageTasksScheduler extends ThreadPoolExecutor {
+
+  /** Priority of images that are displayed now. */
+  public static final int PRIORITY_VISIBLE = 2;
+  /** Priority of images that are expected to be displayed soon. */
+  public static final int PRIORITY_PREFETCH = 1;
+  /** Priority of background tasks. */
+  public static final int PRIORITY_BACKGROUND = 0;
+
+  /** Unlimited queue depth. */
+  public static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+
+  /** Initial queue capacity. */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** Tasks sequence. */
+  private final AtomicLong sequence = new AtomicLong();
+
+  /**
+   * @param workersCount count of working threads
+   * @param lifo whether tasks with the same priority should be taken in LIFO order
+   * @param maxQueueDepth max count of queued tasks
+   * @param threadFactory thread factory
+   */
+  public ImageTasksScheduler(final int workersCount, final boolean lifo, final int maxQueueDepth,
+                             final ThreadFactory threadFactory) {
+    super(workersCount, workersCount, Long.MAX_VALUE, TimeUnit.MILLISECONDS,
+        new TasksQueue(lifo, maxQueueDepth), threadFactory);
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    final Task<?> task = command instanceof Task
+        ? (Task<?>) command
+        : new Task<Void>(command, null, PRIORITY_BACKGROUND);
+    task.sequence = sequence.incrementAndGet();
+    task.queue = getQueue();
+    super.execute(task);
+  }
+
+  /** @return count of tasks dropped because queue depth limit was reached */
+  public int getDroppedTasksCount() {
+    return ((TasksQueue) getQueue()).droppedCount.get();
+  }
+
+  /**
+   * Task with a priority.
+   * @param <V> result type
+   */
+  public static class Task<V> extends FutureTask<V> {
+
+    /** Task priority. */
+    final int priority;
+
+    /** Sequence number, assigned when task is scheduled. */
+    long sequence;
+
+    /** Queue this task was put to. */
+    volatile BlockingQueue<Runnable> queue;
+
+    public Task(final Callable<V> callable, final int priority) {
+      super(callable);
+      this.priority = priority;
+    }
+
+    public Task(final Runnable runnable, final V result, final int priority) {
+      super(runnable, result);
+      this.priority = priority;
+    }
+
+    public int getPriority() {
+      return priority;
+    }
+
+    @Override
+    protected void done() {
+      final BlockingQueue<Runnable> queue = this.queue;
+      if (queue != null && isCancelled()) {
+        // free the slot now instead of waiting for a worker to take the task
+        queue.remove(this);
+      }
+    }
+
+  }
+
+  /**
+   * Tasks queue.
+   */
+  private static final class TasksQueue extends PriorityBlockingQueue<Runnable> {
+
+    /** Serial version UID. */
+    private static final long serialVersionUID = -4315472003471580914L;
+
+    /** Max count of queued tasks. */
+    private final int maxDepth;
+
+    /** Dropped tasks counter. */
+    final AtomicInteger droppedCount = new AtomicInteger();
+
+    public TasksQueue(final boolean lifo, final int maxDepth) {
+      super(INITIAL_CAPACITY, new TasksComparator(lifo));
+      if (maxDepth <= 0) {
+        throw new IllegalArgumentException("Queue depth must be positive");
+      }
+      this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public boolean offer(final Runnable task) {
+      final boolean result = super.offer(task);
+      while (size() > maxDepth) {
+        final Task<?> victim = findVictim();
+        if (victim == null || !remove(victim)) {
+          break;
+        }
+        droppedCount.incrementAndGet();
+        victim.cancel(false);
+      }
+      return result;
+    }
+
+    /** @return the oldest task with the lowest priority */
+    private Task<?> findVictim() {
+      Task<?> victim = null;
+      for (Iterator<Runnable> i = iterator(); i.hasNext();) {
+        final Task<?> task = (Task<?>) i.next();
+        if (victim == null || task.priority < victim.priority
+            || (task.priority == victim.priority && task.sequence < victim.sequence)) {
+          victim = task;
+        }
+      }
+      return victim;
+    }
+
+  }
+
+  /**
+   * Orders tasks by priority and then by sequence number.
+   */
+  private static final class TasksComparator implements Comparator<Runnable> {
+
+    /** LIFO flag. */
+    private final boolean lifo;
+
+    public TasksComparator(final boolean lifo) {
+      this.lifo = lifo;
+    }
+
+    @Override
+    public int compare(final Runnable lhs, final Runnable rhs) {
+      final Task<?> a = (Task<?>) lhs, b = (Task<?>) rhs;
+      if (a.priority != b.priority) {
+        return a.priority > b.priority ? -1 : 1;
+      }
+      if (a.sequence == b.sequence) {
+        return 0;
+      }
+      final boolean aFirst = lifo ? a.sequence > b.sequence : a.sequence < b.sequence;
+      return aFirst ? -1 : 1;
+    }
+
+  }
+
+}
@@ -9,7 +9,10 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.NinePatchDrawable;
+import android.os.Build;
+import android.os.Handler;
 import android.os.Looper;
+import android.os.MessageQueue;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
@@ -18,13 +21,19 @@ import android.view.ViewTreeObserver;
 import com.stanfy.enroscar.beans.BeansContainer;
 import com.stanfy.enroscar.beans.EnroscarBean;
 import com.stanfy.enroscar.beans.InitializingBean;
+import com.stanfy.enroscar.images.cache.BitmapsPool;
+import com.stanfy.enroscar.images.cache.ImageFileCache;
 import com.stanfy.enroscar.images.cache.ImageMemoryCache;
+import com.stanfy.enroscar.images.cache.ImageVariantsMemoryCache;
 import com.stanfy.enroscar.io.BuffersPool;
 import com.stanfy.enroscar.net.cache.EnhancedResponseCache;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.ResponseCache;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 
@@ -53,10 +62,17 @@ public class ImagesManager implements InitializingBean {
   /** Max distance between sample factor and its nearest power of 2 to use the latter. */
   static final int MAX_POWER_OF_2_DISTANCE = 3;
 
+  /** Cached variant is downscaled in memory when it's this times bigger than the target. */
+  static final int DOWNSCALE_FACTOR = 2;
+
   /** Current loads. */
   // TODO make private
   final ConcurrentHashMap<String, ImageLoader> currentLoads = new ConcurrentHashMap<String, ImageLoader>(Threading.imagesWorkersCount);
 
+  /** Keys of variants that are being downscaled now. */
+  private final Set<String> pendingDownscales =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
   /** Application context. */
   private final Context context;
 
@@ -64,6 +80,8 @@ public class ImagesManager implements InitializingBean {
   private BuffersPool buffersPool;
   /** Memory cache. */
   private ImageMemoryCache memCache;
+  /** Bitmaps pool, may be null. */
+  private BitmapsPool bitmapsPool;
   /** Images response cache. */
   private EnhancedResponseCache imagesResponseCache;
   /** Consumer factory. */
@@ -72,6 +90,24 @@ public class ImagesManager implements InitializingBean {
   /** Paused state. */
   private boolean paused = false;
 
+  /** Deferral of decoding. */
+  private final DecodeDeferral decodeDeferral = new DecodeDeferral(this);
+  /** Batched delivery of results to the main thread. */
+  private final DeliveryQueue deliveryQueue =
+      new DeliveryQueue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+
+  /** Loading stages stats. */
+  private final ImageStageStats fetchStats = new ImageStageStats(), decodeStats = new ImageStageStats();
+  /** Cache warm-up stats. */
+  private final ImageStageStats warmUpStats = new ImageStageStats();
+  /** Prefetch stats. */
+  private final ImageStageStats prefetchStats = new ImageStageStats();
+  /** Stats of encoding images to disk and decoding them from disk, by encoding. */
+  private final ImageStageStats[] encodeStats = newEncodingStats(), diskDecodeStats = newEncodingStats();
+
+  /** Encoding of images downscaled on disk. */
+  private volatile ImageEncodingPolicy diskEncodingPolicy = ImageEncodingPolicy.DEFAULT;
+
   /** Debug flag. */
   boolean debug = false;
 
@@ -87,6 +123,27 @@ public class ImagesManager implements InitializingBean {
     Threading.configureImageTasksExecutor(count);
   }
 
+  /**
+   * Configure the queue of image loading tasks.
+   * Must be called before the first image is requested.
+   * @param lifo whether tasks with the same priority should be taken in LIFO order (default is true)
+   * @param maxDepth max count of queued tasks, the oldest tasks with the lowest priority are dropped
+   *                 when it's exceeded (default is {@link ImageTasksScheduler#UNLIMITED_DEPTH})
+   */
+  public static void configureImageTasksQueue(final boolean lifo, final int maxDepth) {
+    Threading.configureImageTasksQueue(lifo, maxDepth);
+  }
+
+  /**
+   * Configure the decode stage of image loading.
+   * Must be called before the first image is requested.
+   * @param count count of threads that decode images (default is count of CPU cores)
+   * @param queueSize max count of fetched images waiting for decoding
+   */
+  public static void configureImageDecodeExecutor(final int count, final int queueSize) {
+    Threading.configureImageDecodeExecutor(count, queueSize);
+  }
+
 
   /** @return application context */
   public Context getContext() {
@@ -98,6 +155,18 @@ public class ImagesManager implements InitializingBean {
     return context.getResources();
   }
 
+  /**
+   * Set encoding of images that are downscaled before storing to the disk cache.
+   * @param policy encoding policy (default is {@link ImageEncodingPolicy#DEFAULT})
+   */
+  public void setDiskEncodingPolicy(final ImageEncodingPolicy policy) {
+    if (policy == null) { throw new IllegalArgumentException("Encoding policy cannot be null"); }
+    this.diskEncodingPolicy = policy;
+  }
+
+  /** @return encoding policy of images downscaled on disk */
+  public ImageEncodingPolicy getDiskEncodingPolicy() { return diskEncodingPolicy; }
+
   /**
    * Set verbose logging flag.
    * @param value debug flag value
@@ -109,10 +178,23 @@ public class ImagesManager implements InitializingBean {
 
   BuffersPool getBuffersPool() { return buffersPool; }
 
+  BitmapsPool getBitmapsPool() { return bitmapsPool; }
+
+  /**
+   * Called when a bitmap is not needed anymore. It's either pooled for reuse or recycled.
+   * @param bitmap bitmap that is not displayed anywhere
+   */
+  void releaseBitmap(final Bitmap bitmap) {
+    if (bitmapsPool == null || !bitmapsPool.put(bitmap)) {
+      bitmap.recycle();
+    }
+  }
+
   @Override
   public void onInitializationFinished(final BeansContainer beansContainer) {
     this.buffersPool = beansContainer.getBean(BuffersPool.class.getName(), BuffersPool.class);
     this.memCache = beansContainer.getBean(ImageMemoryCache.BEAN_NAME, ImageMemoryCache.class);
+    this.bitmapsPool = beansContainer.getBean(BitmapsPool.BEAN_NAME, BitmapsPool.class);
     if (buffersPool == null || memCache == null) {
       throw new IllegalStateException("Buffers pool and images memory cache must be initialized before images manager.");
     }
@@ -167,6 +249,84 @@ public class ImagesManager implements InitializingBean {
     }
   }
 
+  /**
+   * Fetch images of the hot set saved by {@link ImageFileCache} that are missing in the disk cache,
+   * e. g. after application update or cache wipe.
+   * Warm-up starts when the main thread becomes idle after the cache is installed.
+   * Images are fetched with {@link #getImageTaskExecutor()} as background tasks.
+   * @param maxConcurrency max count of images fetched simultaneously
+   * @param maxBytes max count of bytes written to the cache during warm-up, 0 means no limit
+   */
+  public void scheduleWarmUp(final int maxConcurrency, final long maxBytes) {
+    if (!(imagesResponseCache instanceof ImageFileCache)) {
+      Log.w(TAG, "Warm-up is supported for " + ImageFileCache.class.getSimpleName() + " only");
+      return;
+    }
+    final ImageFileCache cache = (ImageFileCache) imagesResponseCache;
+    final MessageQueue.IdleHandler idleHandler = new MessageQueue.IdleHandler() {
+      @Override
+      public boolean queueIdle() {
+        if (!cache.isInstallationFinished()) {
+          // wait for the next idle state
+          return true;
+        }
+        final List<String> hotSet = cache.getHotSet();
+        if (debug) { Log.d(TAG, "Warm up " + hotSet.size() + " images"); }
+        new CacheWarmUp(ImagesManager.this, getImageTaskExecutor(), hotSet, maxBytes, warmUpStats)
+            .start(maxConcurrency);
+        return false;
+      }
+    };
+    new Handler(Looper.getMainLooper()).post(new Runnable() {
+      @Override
+      public void run() {
+        Looper.myQueue().addIdleHandler(idleHandler);
+      }
+    });
+  }
+
+  /**
+   * Create a prefetcher that keeps images of the next screens of a list warm in the cache.
+   * Prefetches run with {@link #getImageTaskExecutor()} after images that are displayed now.
+   * @param screens count of screens to prefetch
+   * @return prefetcher instance, it should be used from the main thread
+   */
+  public ImagePrefetcher createPrefetcher(final int screens) {
+    return new ImagePrefetcher(this, getImageTaskExecutor(), screens);
+  }
+
+  /**
+   * @param url image URL
+   * @return size of the image stored in the disk cache, 0 if it's not cached
+   */
+  long getDiskCachedSize(final String url) {
+    if (imagesResponseCache == null || !imagesResponseCache.contains(url)) { return 0; }
+    final String path = imagesResponseCache.getLocalPath(url);
+    return path != null ? new File(path).length() : 0;
+  }
+
+  /**
+   * @param url image URL
+   * @return encoding of the image stored in the disk cache
+   */
+  int getStoredEncoding(final String url) {
+    return imagesResponseCache instanceof ImageFileCache
+        ? ((ImageFileCache) imagesResponseCache).getStoredEncoding(url)
+        : ImageEncodingPolicy.ENCODING_ORIGINAL;
+  }
+
+  /**
+   * Called when body of a cached image is replaced with its downscaled version.
+   * @param url image URL
+   * @param encoding new encoding
+   * @param quality encoding quality
+   */
+  void onImageEncoded(final String url, final int encoding, final int quality) {
+    if (imagesResponseCache instanceof ImageFileCache) {
+      ((ImageFileCache) imagesResponseCache).setStoredEncoding(url, encoding, quality);
+    }
+  }
+
   /**
    * Pause all future loading tasks.
    */
@@ -181,6 +341,64 @@ public class ImagesManager implements InitializingBean {
     notifyAll();
   }
 
+  /**
+   * Defer decoding of images and delivery of results to image consumers, e. g. during a fling.
+   * Unlike {@link #pauseLoading()} this does not stop fetching images to the disk cache.
+   * Decoding is resumed automatically {@code settleDelay} milliseconds after the last call.
+   * Deferred images whose consumers are gone by that time are not decoded.
+   * Must be called from the main thread.
+   * @param settleDelay delay of automatic resume in milliseconds
+   * @see FlingAwareScrollListener
+   */
+  public void deferDecoding(final long settleDelay) {
+    decodeDeferral.defer(settleDelay);
+  }
+
+  /**
+   * Resume decoding deferred with {@link #deferDecoding(long)} now. Must be called from the main thread.
+   */
+  public void resumeDecoding() {
+    decodeDeferral.resume();
+  }
+
+  /** @return whether decoding is deferred now */
+  public boolean isDecodingDeferred() { return decodeDeferral.isDeferred(); }
+
+  /** @return count of decodes that have been deferred */
+  public int getDeferredDecodesCount() { return decodeDeferral.getDeferredCount(); }
+
+  /** @return count of deferred decodes that were dropped because images were not needed anymore */
+  public int getSavedDecodesCount() { return decodeDeferral.getSavedCount(); }
+
+  /** @return size of fetched images that were not decoded because they were not needed anymore */
+  public long getSavedDecodeBytes() { return decodeDeferral.getSavedBytes(); }
+
+  /** @return count of the oldest deferred decodes that were cancelled because too many decodes were deferred */
+  public int getDroppedDecodesCount() { return decodeDeferral.getDroppedCount(); }
+
+  DecodeDeferral getDecodeDeferral() { return decodeDeferral; }
+
+  /**
+   * Limit main thread time spent on delivering loaded images in one frame.
+   * Results of consumers that return true from {@link ImageConsumer#postsToMainThread()} are applied in batches,
+   * one batch per frame; results left after the limit is exceeded are delivered in the next frame.
+   * @param millis max delivery time per frame in milliseconds (default is 4)
+   */
+  public void setMaxDeliveryTimePerFrame(final long millis) {
+    deliveryQueue.setMaxBatchTime(millis);
+  }
+
+  /** @return stats of batched delivery: time between an image result is ready and it's delivered */
+  public ImageStageStats getDeliveryStats() { return deliveryQueue.getStats(); }
+
+  /** @return count of delivery batches run in the main thread */
+  public int getDeliveryBatchesCount() { return deliveryQueue.getBatchesCount(); }
+
+  /** @return count of delivery batches that exceeded the time limit and left results to the next frame */
+  public int getOverBudgetDeliveryBatchesCount() { return deliveryQueue.getOverBudgetBatchesCount(); }
+
+  DeliveryQueue getDeliveryQueue() { return deliveryQueue; }
+
   /**
    * Start building image requests.
    * @return image requests builder
@@ -351,10 +569,50 @@ public class ImagesManager implements InitializingBean {
   }
 
   /**
+   * Override this method to plug in a custom scheduler.
+   * Tasks passed to it are instances of {@link ImageTasksScheduler.Task}.
    * @return an executor for image tasks
    */
   protected Executor getImageTaskExecutor() { return Threading.getImageTasksExecutor(); }
 
+  /**
+   * Images are fetched with {@link #getImageTaskExecutor()} and then decoded with this executor.
+   * @return an executor for decoding images
+   */
+  protected Executor getImageDecodeExecutor() { return Threading.getImageDecodeExecutor(); }
+
+  /** @return stats of the fetch stage */
+  public ImageStageStats getFetchStats() { return fetchStats; }
+
+  /** @return stats of the decode stage */
+  public ImageStageStats getDecodeStats() { return decodeStats; }
+
+  /** @return stats of the cache warm-up, bytes are counted in the disk cache */
+  public ImageStageStats getWarmUpStats() { return warmUpStats; }
+
+  /** @return stats of prefetches made by {@link ImagePrefetcher}, bytes are counted in the disk cache */
+  public ImageStageStats getPrefetchStats() { return prefetchStats; }
+
+  private static ImageStageStats[] newEncodingStats() {
+    final ImageStageStats[] result = new ImageStageStats[ImageEncodingPolicy.ENCODINGS_COUNT];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = new ImageStageStats();
+    }
+    return result;
+  }
+
+  /**
+   * @param encoding one of {@code ImageEncodingPolicy.ENCODING_*} constants except {@code ENCODING_ORIGINAL}
+   * @return stats of encoding downscaled images to disk, bytes are counted on disk
+   */
+  public ImageStageStats getEncodeStats(final int encoding) { return encodeStats[encoding]; }
+
+  /**
+   * @param encoding one of {@code ImageEncodingPolicy.ENCODING_*} constants
+   * @return stats of decoding images stored on disk with this encoding, bytes are counted on disk
+   */
+  public ImageStageStats getDiskDecodeStats(final int encoding) { return diskDecodeStats[encoding]; }
+
   /**
    * @param holder image consumer
    * @return drawable to display while image is being loaded
@@ -419,7 +677,10 @@ public class ImagesManager implements InitializingBean {
       return null;
     }
 
-    final Bitmap map = memCache.getElement(cacheKey);
+    final int targetW = consumer.getTargetWidth(), targetH = consumer.getTargetHeight();
+    final Bitmap map = memCache instanceof ImageVariantsMemoryCache
+        ? ((ImageVariantsMemoryCache) memCache).getElement(cacheKey, targetW, targetH)
+        : memCache.getElement(cacheKey);
     if (map == null) {
       if (debug) { Log.v(TAG, "Not in mem " + cacheKey); }
       return null;
@@ -428,9 +689,78 @@ public class ImagesManager implements InitializingBean {
     // check bitmap size
     final boolean suits = consumer.allowSmallImagesFromCache() || consumer.checkBitmapSize(map);
     if (debug) { Log.v(TAG, "Use mem cache " + suits + " for " + cacheKey); }
+    if (suits && memCache instanceof ImageVariantsMemoryCache
+        && !request.isSkipScaleBeforeMemCache() && targetW > 0 && targetH > 0
+        && map.getWidth() >= targetW * DOWNSCALE_FACTOR && map.getHeight() >= targetH * DOWNSCALE_FACTOR) {
+      scheduleDownscale(cacheKey, map, targetW, targetH);
+    }
     return suits ? new ImageResult(map, ImageSourceType.MEMORY) : null;
   }
 
+  /**
+   * Put a smaller variant of the cached image to memory cache, so that the next request
+   * for this size does not hold the big one.
+   * @param cacheKey memory cache key
+   * @param source cached variant
+   * @param width target width
+   * @param height target height
+   */
+  private void scheduleDownscale(final String cacheKey, final Bitmap source, final int width, final int height) {
+    final String variantKey = cacheKey + "!" + width + "x" + height;
+    if (!pendingDownscales.add(variantKey)) {
+      return;
+    }
+    if (debug) { Log.d(TAG, "Downscale " + variantKey); }
+    final Runnable downscale = new Runnable() {
+      @Override
+      public void run() {
+        if (source.isRecycled()) { return; }
+        final Bitmap scaled = scaleToFit(source, width, height);
+        if (scaled != source) {
+          ((ImageVariantsMemoryCache) memCache).putVariant(cacheKey, scaled);
+        }
+      }
+    };
+    // decode executor runs tasks in the caller thread when its queue is full, it must not be the main thread
+    getImageTaskExecutor().execute(
+        new ImageTasksScheduler.Task<Void>(downscale, null, ImageTasksScheduler.PRIORITY_BACKGROUND) {
+          @Override
+          protected void done() {
+            super.done();
+            // called for dropped tasks as well
+            pendingDownscales.remove(variantKey);
+          }
+        }
+    );
+  }
+
+  /**
+   * Scale bitmap down preserving its aspect ratio so that it fits into the specified size.
+   * @param map source bitmap
+   * @param width target width
+   * @param height target height
+   * @return scaled bitmap or the source one if it's already small enough
+   */
+  Bitmap scaleToFit(final Bitmap map, final int width, final int height) {
+    int dstW = width, dstH = height;
+    final int w = map.getWidth(), h = map.getHeight();
+
+    if (w <= dstW && h <= dstH) { return map; }
+
+    final double ratio = (double)w / h;
+    if (w > h) {
+      dstH = (int)(dstW / ratio);
+    } else {
+      dstW = (int)(dstH * ratio);
+    }
+
+    if (dstW <= 0 || dstH <= 0) { return map; }
+
+    final Bitmap scaled = Bitmap.createScaledBitmap(map, dstW, dstH, true);
+    scaled.setDensity(getResources().getDisplayMetrics().densityDpi);
+    return scaled;
+  }
+
   /**
    * Executed in the main thread.
    * @param request image request
@@ -471,7 +801,11 @@ public class ImagesManager implements InitializingBean {
    */
   protected void memCacheImage(final String url, final Bitmap bitmap) {
     if (debug) { Log.d(TAG, "Memcache for " + url); }
-    memCache.putElement(url, bitmap);
+    if (memCache instanceof ImageVariantsMemoryCache) {
+      ((ImageVariantsMemoryCache) memCache).putVariant(url, bitmap);
+    } else {
+      memCache.putElement(url, bitmap);
+    }
   }
 
   static int calculateSampleFactor(final int inW, final int inH, final int width, final int height) {
@@ -30,6 +30,7 @@ final class MarkableInputStream extends InputStream {
   private long offset;
   private long reset;
   private long limit;
+  private long maxLimit;
 
   private long defaultMark = -1;
 
@@ -59,6 +60,23 @@ final class MarkableInputStream extends InputStream {
     return offset;
   }
 
+  /**
+   * Lets the limit grow while the stream is consumed, so that saved positions
+   * stay valid until {@code maxLimit} bytes are read from the beginning of this
+   * stream. The limit is at least doubled each time it grows.
+   */
+  public void setMaxLimit(long maxLimit) {
+    this.maxLimit = maxLimit;
+  }
+
+  private void growLimit(long byteCount) {
+    long required = offset + byteCount;
+    if (required <= limit || limit >= maxLimit) {
+      return;
+    }
+    setLimit(Math.min(Math.max(required, limit * 2), maxLimit));
+  }
+
   /**
    * Makes sure that the underlying stream can backtrack the full range from
    * {@code reset} thru {@code limit}. Since we can't call {@code mark()}
@@ -107,6 +125,7 @@ final class MarkableInputStream extends InputStream {
   }
 
   @Override public int read() throws IOException {
+    growLimit(1);
     int result = in.read();
     if (result != -1) {
       offset++;
@@ -115,6 +134,7 @@ final class MarkableInputStream extends InputStream {
   }
 
   @Override public int read(byte[] buffer) throws IOException {
+    growLimit(buffer.length);
     int count = in.read(buffer);
     if (count != -1) {
       offset += count;
@@ -123,6 +143,7 @@ final class MarkableInputStream extends InputStream {
   }
 
   @Override public int read(byte[] buffer, int offset, int length) throws IOException {
+    growLimit(length);
     int count = in.read(buffer, offset, length);
     if (count != -1) {
       this.offset += count;
@@ -131,6 +152,7 @@ final class MarkableInputStream extends InputStream {
   }
 
   @Override public long skip(long byteCount) throws IOException {
+    growLimit(byteCount);
     long skipped = in.skip(byteCount);
     offset += skipped;
     return skipped;
@@ -1,8 +1,7 @@
 package com.stanfy.enroscar.images;
 
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -16,23 +15,25 @@ import android.os.Process;
 final class Threading {
   /** Thread factory. */
   private static final ThreadFactory THREAD_FACTORY = new ThreadFactory();
-  /** Tasks queue. */
-  private static final LinkedBlockingQueue<Runnable> IMAGE_TASKS_QUEUE = new LinkedBlockingQueue<Runnable>();
-  /** Workers count. */
-  static int imagesWorkersCount = 2;
+  /** Workers count. Workers perform I/O, so there are more of them than CPU cores. */
+  static int imagesWorkersCount = 4;
+  /** Whether image tasks with the same priority are taken in LIFO order. */
+  static boolean imagesQueueLifo = true;
+  /** Max count of queued image tasks. */
+  static int imagesQueueDepth = ImageTasksScheduler.UNLIMITED_DEPTH;
+  /** Decoders count. */
+  static int imagesDecodersCount = Runtime.getRuntime().availableProcessors();
+  /** Max count of fetched images waiting for decoding. */
+  static int imagesDecodeQueueSize = 8;
 
   /** executors. */
-  private static Executor imageTasksExecutor;
+  private static Executor imageTasksExecutor, imageDecodeExecutor;
 
   /** Hidden constructor. */
   private Threading() { /* just hide */ }
 
   public static Thread createThread(final Runnable worker) { return THREAD_FACTORY.newThread(worker); }
 
-  private static ThreadPoolExecutor createExecutor(final int wCount, final BlockingQueue<Runnable> queue) {
-    return new ThreadPoolExecutor(wCount, wCount, Long.MAX_VALUE, TimeUnit.MILLISECONDS, queue);
-  }
-
   /**
    * @param workersCount max count of workers
    */
@@ -40,12 +41,43 @@ final class Threading {
     imagesWorkersCount = workersCount;
   }
 
+  /**
+   * @param lifo whether tasks with the same priority should be taken in LIFO order
+   * @param maxDepth max count of queued tasks, the oldest tasks are dropped when it's exceeded
+   */
+  public static void configureImageTasksQueue(final boolean lifo, final int maxDepth) {
+    imagesQueueLifo = lifo;
+    imagesQueueDepth = maxDepth;
+  }
+
+  /**
+   * @param decodersCount count of threads that decode images
+   * @param queueSize max count of fetched images waiting for decoding
+   */
+  public static void configureImageDecodeExecutor(final int decodersCount, final int queueSize) {
+    imagesDecodersCount = decodersCount;
+    imagesDecodeQueueSize = queueSize;
+  }
+
+  /**
+   * @return executor for the decode stage
+   */
+  public static synchronized Executor getImageDecodeExecutor() {
+    if (imageDecodeExecutor == null) {
+      // when queue is full fetching worker decodes the image itself, this slows fetching down
+      imageDecodeExecutor = new ThreadPoolExecutor(imagesDecodersCount, imagesDecodersCount,
+          Long.MAX_VALUE, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(imagesDecodeQueueSize),
+          THREAD_FACTORY, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    return imageDecodeExecutor;
+  }
+
   /**
    * @return the image tasks executor
    */
   public static Executor getImageTasksExecutor() {
     if (imageTasksExecutor == null) {
-      imageTasksExecutor = createExecutor(imagesWorkersCount, IMAGE_TASKS_QUEUE);
+      imageTasksExecutor = new ImageTasksScheduler(imagesWorkersCount, imagesQueueLifo, imagesQueueDepth, THREAD_FACTORY);
     }
     return imageTasksExecutor;
   }
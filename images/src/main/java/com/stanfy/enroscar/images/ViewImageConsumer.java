@@ -36,6 +36,10 @@ public abstract class ViewImageConsumer<T extends View> extends ImageConsumer {
     view.post(r);
   }
   @Override
+  protected boolean postsToMainThread() {
+    return true;
+  }
+  @Override
   protected int getTargetHeight() {
     final View view = this.view;
     final LayoutParams params = view.getLayoutParams();
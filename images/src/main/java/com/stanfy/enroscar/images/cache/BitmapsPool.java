@@ -0,0 +1,199 @@
+package com.stanfy.enroscar.images.cache;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+import com.stanfy.enroscar.beans.BeansContainer;
+import com.stanfy.enroscar.beans.EnroscarBean;
+import com.stanfy.enroscar.beans.FlushableBean;
+import com.stanfy.enroscar.utils.Bitmaps;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Pool of bitmaps that are not used anymore and can be passed to
+ * {@link android.graphics.BitmapFactory.Options#inBitmap} in order to avoid allocations.
+ * <p>
+ *   Only mutable bitmaps are accepted. Bitmaps put to this pool must not be displayed anywhere.
+ *   Reuse requires Honeycomb; before KitKat only bitmaps of the same size and config can be reused.
+ * </p>
+ * @author Roman Mazur (Stanfy - http://www.stanfy.com)
+ */
+@EnroscarBean(value = BitmapsPool.BEAN_NAME, contextDependent = true)
+public class BitmapsPool implements FlushableBean {
+
+  /** Bean name. */
+  public static final String BEAN_NAME = "enroscar.BitmapsPool";
+
+  /** 1 MB. */
+  private static final int MB = 1024 * 1024;
+
+  /** Pooled bitmaps, the oldest one goes first. */
+  private final LinkedList<Bitmap> bitmaps = new LinkedList<Bitmap>();
+
+  /** Max size of pooled bitmaps in bytes. */
+  private final int maxSize;
+
+  /** Current size. */
+  private int size;
+
+  /** Stats. */
+  private int hitCount, missCount;
+
+  public BitmapsPool(final Context context) {
+    this(context, 0);
+  }
+
+  public BitmapsPool(final Context context, final int maxSize) {
+    int poolSize = maxSize;
+    if (poolSize == 0) {
+      int memClass = ((ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
+      if (memClass == 0) { // can be in tests
+        memClass = 3;
+      }
+
+      final int part = 16;
+      poolSize = memClass * MB / part;
+    }
+    this.maxSize = poolSize;
+  }
+
+  /** @return whether bitmaps reuse is supported on this device */
+  public static boolean isReuseSupported() {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+  }
+
+  /**
+   * Put a bitmap that is not used anymore.
+   * @param bitmap bitmap instance
+   * @return true if bitmap is pooled, false if it cannot be reused
+   */
+  public boolean put(final Bitmap bitmap) {
+    if (!isReuseSupported() || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+      return false;
+    }
+    final int bitmapSize = Bitmaps.bitmapSize(bitmap);
+    if (bitmapSize > maxSize) {
+      return false;
+    }
+
+    synchronized (bitmaps) {
+      bitmaps.addLast(bitmap);
+      size += bitmapSize;
+      while (size > maxSize) {
+        final Bitmap removed = bitmaps.removeFirst();
+        size -= Bitmaps.bitmapSize(removed);
+        removed.recycle();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Take a bitmap that can be used to decode an image of the specified size.
+   * @param width decoded image width
+   * @param height decoded image height
+   * @param config decoded image config
+   * @return bitmap to reuse or null
+   */
+  public Bitmap get(final int width, final int height, final Bitmap.Config config) {
+    if (!isReuseSupported() || width <= 0 || height <= 0 || config == null) {
+      return null;
+    }
+
+    synchronized (bitmaps) {
+      for (Iterator<Bitmap> i = bitmaps.iterator(); i.hasNext();) {
+        final Bitmap bitmap = i.next();
+        if (canReuse(bitmap, width, height, config)) {
+          i.remove();
+          size -= Bitmaps.bitmapSize(bitmap);
+          hitCount++;
+          return bitmap;
+        }
+      }
+      missCount++;
+    }
+    return null;
+  }
+
+  /**
+   * Check whether a bitmap can be passed to {@link android.graphics.BitmapFactory.Options#inBitmap}
+   * to decode an image. Before KitKat only bitmaps of the same size and config fit,
+   * since KitKat allocation of the bitmap must be enough for the decoded image.
+   * @param bitmap bitmap to reuse
+   * @param width decoded image width
+   * @param height decoded image height
+   * @param config decoded image config
+   * @return whether the bitmap fits the decoded image
+   */
+  public static boolean canReuse(final Bitmap bitmap, final int width, final int height, final Bitmap.Config config) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+      return bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config;
+    }
+    return Bitmaps.bitmapSize(bitmap) >= width * height * bytesPerPixel(config);
+  }
+
+  private static int bytesPerPixel(final Bitmap.Config config) {
+    switch (config) {
+      case ALPHA_8:
+        return 1;
+      case RGB_565:
+      case ARGB_4444:
+        return 2;
+      default:
+        return 4;
+    }
+  }
+
+  /** @return count of pooled bitmaps */
+  public int getCount() {
+    synchronized (bitmaps) {
+      return bitmaps.size();
+    }
+  }
+
+  /** @return size of pooled bitmaps in bytes */
+  public int getSize() {
+    synchronized (bitmaps) {
+      return size;
+    }
+  }
+
+  /** @return how many times a bitmap was found for reuse */
+  public int getHitCount() {
+    synchronized (bitmaps) {
+      return hitCount;
+    }
+  }
+
+  /** @return how many times no bitmap was found for reuse */
+  public int getMissCount() {
+    synchronized (bitmaps) {
+      return missCount;
+    }
+  }
+
+  /**
+   * Recycle all the pooled bitmaps.
+   */
+  public void clear() {
+    synchronized (bitmaps) {
+      for (Bitmap bitmap : bitmaps) {
+        bitmap.recycle();
+      }
+      bitmaps.clear();
+      size = 0;
+    }
+  }
+
+  @Override
+  public void flushResources(final BeansContainer beansContainer) {
+    clear();
+    Log.i(BEAN_NAME, "Bitmaps pool flushed");
+  }
+
+}
@@ -3,35 +3,71 @@
  */
 package com.stanfy.enroscar.images.cache;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Environment;
 import android.util.Log;
 
 import com.stanfy.enroscar.beans.Bean;
 import com.stanfy.enroscar.beans.BeansContainer;
 import com.stanfy.enroscar.beans.EnroscarBean;
+import com.stanfy.enroscar.beans.FlushableBean;
+import com.stanfy.enroscar.images.ImageEncodingPolicy;
 import com.stanfy.enroscar.images.ImagesManager;
+import com.stanfy.enroscar.io.IoUtils;
 import com.stanfy.enroscar.net.cache.BaseFileResponseCache;
 import com.stanfy.enroscar.net.cache.CacheEntry;
 import com.stanfy.enroscar.net.cache.CacheTimeRule;
+import com.stanfy.enroscar.net.cache.MetadataFields;
 
 /**
  * File-based cache used by images manager.
+ * <p>
+ *   Cache keeps a manifest of the most frequently hit images (hot set) out of its working directory.
+ *   The manifest is saved when the cache is destroyed or (in background) when memory is low and loaded
+ *   during installation, so that {@link ImagesManager#scheduleWarmUp(int, long)} can fetch the hot set
+ *   of the previous session after the cache was wiped.
+ * </p>
  * @author Roman Mazur (Stanfy - http://stanfy.com)
  */
 @EnroscarBean(value = ImagesManager.CACHE_BEAN_NAME, contextDependent = true)
-public class ImageFileCache extends BaseFileResponseCache implements Bean {
+public class ImageFileCache extends BaseFileResponseCache implements Bean, FlushableBean {
 
   /** Default images cache size (10M). */
   public static final long MAX_SIZE = 10 * 1024 * 1024;
 
+  /** Default max count of images in the hot set. */
+  public static final int HOT_SET_SIZE = 50;
+
+  /** Hot set manifest file name. */
+  private static final String HOT_SET_FILE = "enroscar-images-hot-set";
+  /** Hot set manifest header. */
+  private static final String HOT_SET_HEADER = "hot-set 1";
+
   /** Application context. */
   private final Context context;
+
+  /** Hot set loaded from the manifest. */
+  private volatile List<String> hotSet = Collections.emptyList();
+  /** Whether background saving of the hot set is scheduled. */
+  private final AtomicBoolean hotSetSaveScheduled = new AtomicBoolean();
   
   public ImageFileCache(final Context context) {
     this.context = context;
@@ -59,14 +95,162 @@ public class ImageFileCache extends BaseFileResponseCache implements Bean {
   @Override
   protected CacheEntry createCacheEntry() { return new ImageCacheEntry(); }
 
+  @Override
+  protected void onCacheInstalled() {
+    super.onCacheInstalled();
+    hotSet = readHotSet();
+  }
+
+  /**
+   * @return manifest file of the hot set, it should not be deleted together with the cache
+   */
+  protected File getHotSetManifest() { return new File(context.getFilesDir(), HOT_SET_FILE); }
+
+  /**
+   * @return URLs of images that were hit most frequently in the previous sessions, the most popular first
+   */
+  public List<String> getHotSet() { return hotSet; }
+
+  private List<String> readHotSet() {
+    final File manifest = getHotSetManifest();
+    if (!manifest.exists()) { return Collections.emptyList(); }
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), IoUtils.UTF_8));
+      if (!HOT_SET_HEADER.equals(reader.readLine())) {
+        return Collections.emptyList();
+      }
+      final ArrayList<String> result = new ArrayList<String>();
+      String line;
+      while ((line = reader.readLine()) != null && result.size() < HOT_SET_SIZE) {
+        if (line.length() > 0) { result.add(line); }
+      }
+      return Collections.unmodifiableList(result);
+    } catch (final IOException e) {
+      Log.w(TAG, "Cannot read hot set manifest " + manifest, e);
+      return Collections.emptyList();
+    } finally {
+      IoUtils.closeQuietly(reader);
+    }
+  }
+
+  /**
+   * Save the hot set manifest: the most hit images of this session followed by the previous hot set.
+   * Manifest file is written here, so avoid calling this method from the main thread.
+   */
+  public synchronized void saveHotSet() {
+    if (!isInstallationFinished()) { return; }
+    final Set<String> urls = new LinkedHashSet<String>(getMostHitUris(HOT_SET_SIZE));
+    if (urls.isEmpty()) { return; }
+    for (final String url : hotSet) {
+      if (urls.size() >= HOT_SET_SIZE) { break; }
+      urls.add(url);
+    }
+
+    final File manifest = getHotSetManifest();
+    final File tmp = new File(manifest.getPath() + ".tmp");
+    Writer writer = null;
+    try {
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), IoUtils.UTF_8));
+      writer.write(HOT_SET_HEADER);
+      writer.write('\n');
+      for (final String url : urls) {
+        writer.write(url);
+        writer.write('\n');
+      }
+      writer.close();
+      writer = null;
+      if (!tmp.renameTo(manifest)) {
+        throw new IOException("Cannot rename " + tmp + " to " + manifest);
+      }
+    } catch (final IOException e) {
+      Log.w(TAG, "Cannot save hot set manifest " + manifest, e);
+      IoUtils.closeQuietly(writer);
+      if (!tmp.delete()) { Log.w(TAG, "Cannot delete " + tmp); }
+    }
+  }
+
+  @Override
+  public void flushResources(final BeansContainer beansContainer) {
+    // called from the main thread when memory is low
+    if (!hotSetSaveScheduled.compareAndSet(false, true)) { return; }
+    new AsyncTask<Void, Void, Void>() {
+      @Override
+      protected Void doInBackground(final Void... params) {
+        hotSetSaveScheduled.set(false);
+        saveHotSet();
+        return null;
+      }
+    }
+    .execute();
+  }
+
+  @Override
+  public void onDestroy(final BeansContainer beansContainer) {
+    saveHotSet();
+    super.onDestroy(beansContainer);
+  }
+
+  /**
+   * @param url image URL
+   * @return encoding of the cached image, one of {@code ImageEncodingPolicy.ENCODING_*} constants
+   */
+  public int getStoredEncoding(final String url) {
+    final CacheEntry entry = getIndexedEntry(url);
+    return entry instanceof ImageCacheEntry
+        ? ((ImageCacheEntry) entry).imageEncoding
+        : ImageEncodingPolicy.ENCODING_ORIGINAL;
+  }
+
+  /**
+   * Record encoding of the image after its body was rewritten.
+   * @param url image URL
+   * @param encoding encoding, one of {@code ImageEncodingPolicy.ENCODING_*} constants
+   * @param quality encoding quality
+   * @return true if metadata is written
+   */
+  public boolean setStoredEncoding(final String url, final int encoding, final int quality) {
+    final CacheEntry entry = getIndexedEntry(url);
+    if (!(entry instanceof ImageCacheEntry)) { return false; }
+    final ImageCacheEntry imageEntry = (ImageCacheEntry) entry;
+    imageEntry.imageEncoding = encoding;
+    imageEntry.imageQuality = quality;
+    return updateMetadata(imageEntry);
+  }
+
   /** Image cache entry. */
   public static class ImageCacheEntry extends CacheEntry {
+    /** Metadata field tags. */
+    private static final int FIELD_IMAGE_TYPE = 1, FIELD_ENCODING = 2, FIELD_QUALITY = 3;
+
     /** Image type identifier. */
     int imageType = -1;
 
+    /** Encoding of the stored image. */
+    volatile int imageEncoding = ImageEncodingPolicy.ENCODING_ORIGINAL;
+    /** Encoding quality, 0 for original images. */
+    volatile int imageQuality;
+
+    /** @return encoding of the stored image, one of {@code ImageEncodingPolicy.ENCODING_*} constants */
+    public int getImageEncoding() { return imageEncoding; }
+
+    /** @return quality of the stored image encoding, 0 for original images */
+    public int getImageQuality() { return imageQuality; }
+
+    @Override
+    protected void writeMetaData(final MetadataFields fields) {
+      fields.putInt(FIELD_IMAGE_TYPE, imageType);
+      if (imageEncoding != ImageEncodingPolicy.ENCODING_ORIGINAL) {
+        fields.putInt(FIELD_ENCODING, imageEncoding);
+        fields.putInt(FIELD_QUALITY, imageQuality);
+      }
+    }
+
     @Override
-    protected void writeMetaData(final Writer writer) throws IOException {
-      writeInt(writer, imageType);
+    protected void readMetaData(final MetadataFields fields) {
+      imageType = fields.getInt(FIELD_IMAGE_TYPE, -1);
+      imageEncoding = fields.getInt(FIELD_ENCODING, ImageEncodingPolicy.ENCODING_ORIGINAL);
+      imageQuality = fields.getInt(FIELD_QUALITY, 0);
     }
 
     @Override
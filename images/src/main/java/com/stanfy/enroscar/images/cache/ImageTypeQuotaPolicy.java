@@ -0,0 +1,105 @@
+package com.stanfy.enroscar.images.cache;
+
+import com.stanfy.enroscar.net.cache.CacheEntry;
+import com.stanfy.enroscar.net.cache.EvictionPolicy;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Eviction policy for {@link ImageFileCache} that limits the share of the cache taken by images of some types.
+ * Images of a type that exceeds its quota are evicted first (the least recently used of them),
+ * then the base policy is applied to all the images.
+ * <pre>
+ *   new ImageTypeQuotaPolicy(EvictionPolicy.LRU)
+ *       .setQuota(TYPE_HERO, 0.3f)
+ *       .setQuota(TYPE_AVATAR, 0.5f);
+ * </pre>
+ * @author Roman Mazur (Stanfy - http://stanfy.com)
+ */
+public class ImageTypeQuotaPolicy extends EvictionPolicy {
+
+  /** Base policy. */
+  private final EvictionPolicy base;
+
+  /** Image types with quotas. */
+  private int[] types = new int[0];
+  /** Quotas. */
+  private float[] quotas = new float[0];
+
+  /** Size of images of each type during eviction. */
+  private long[] sizes = new long[0];
+  /** Max size during eviction. */
+  private long maxSize;
+
+  public ImageTypeQuotaPolicy(final EvictionPolicy base) {
+    super("ImageTypeQuota(" + base.getName() + ")");
+    this.base = base;
+  }
+
+  /**
+   * Should be called before the policy is passed to the cache.
+   * @param imageType image type
+   * @param share max share of the cache size for images of this type, from 0 to 1
+   * @return this instance for chaining
+   */
+  public ImageTypeQuotaPolicy setQuota(final int imageType, final float share) {
+    if (share < 0 || share > 1) { throw new IllegalArgumentException("Bad quota " + share); }
+    int index = indexOf(imageType);
+    if (index == -1) {
+      index = types.length;
+      types = Arrays.copyOf(types, index + 1);
+      quotas = Arrays.copyOf(quotas, index + 1);
+      sizes = new long[index + 1];
+      types[index] = imageType;
+    }
+    quotas[index] = share;
+    return this;
+  }
+
+  private int indexOf(final int imageType) {
+    for (int i = 0; i < types.length; i++) {
+      if (types[i] == imageType) { return i; }
+    }
+    return -1;
+  }
+
+  private int indexOf(final EntryInfo info) {
+    final CacheEntry entry = info.getEntry();
+    return entry instanceof ImageFileCache.ImageCacheEntry
+        ? indexOf(((ImageFileCache.ImageCacheEntry) entry).imageType)
+        : -1;
+  }
+
+  @Override
+  public void onEvictionStarted(final Collection<? extends EntryInfo> entries, final long maxSize) {
+    base.onEvictionStarted(entries, maxSize);
+    this.maxSize = maxSize;
+    Arrays.fill(sizes, 0);
+    for (final EntryInfo info : entries) {
+      final int index = indexOf(info);
+      if (index != -1) {
+        sizes[index] += info.getSize();
+      }
+    }
+  }
+
+  @Override
+  public double getPriority(final EntryInfo info, final double inflation) {
+    final int index = indexOf(info);
+    if (index != -1 && sizes[index] > quotas[index] * maxSize) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    return base.getPriority(info, inflation);
+  }
+
+  @Override
+  public void onEvicted(final EntryInfo info) {
+    final int index = indexOf(info);
+    if (index != -1) {
+      sizes[index] -= info.getSize();
+    }
+    base.onEvicted(info);
+  }
+
+}
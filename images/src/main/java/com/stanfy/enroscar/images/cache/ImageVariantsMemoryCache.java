@@ -0,0 +1,30 @@
+package com.stanfy.enroscar.images.cache;
+
+import android.graphics.Bitmap;
+
+/**
+ * Images memory cache that keeps variants of the same image with different sizes together.
+ * {@link com.stanfy.enroscar.images.ImagesManager} puts downscaled variants to caches that implement it
+ * and picks the variant that suits the target view best.
+ * @author Roman Mazur (Stanfy - http://www.stanfy.com)
+ */
+public interface ImageVariantsMemoryCache extends ImageMemoryCache {
+
+  /**
+   * Put an image variant. Variants of the same URL with different sizes are kept together.
+   * Unlike it, {@link #putElement(String, Bitmap)} replaces all the cached variants.
+   * @param url URL
+   * @param image image instance
+   */
+  void putVariant(String url, Bitmap image);
+
+  /**
+   * @param url URL
+   * @param width required width, non-positive value means any width
+   * @param height required height, non-positive value means any height
+   * @return the smallest cached variant that is not less than required size,
+   *         the biggest variant if all of them are smaller, null if image is not cached
+   */
+  Bitmap getElement(String url, int width, int height);
+
+}
@@ -9,20 +9,52 @@ import android.util.Log;
 import com.stanfy.enroscar.beans.Bean;
 import com.stanfy.enroscar.beans.BeansContainer;
 import com.stanfy.enroscar.beans.EnroscarBean;
+import com.stanfy.enroscar.beans.InitializingBean;
 import com.stanfy.enroscar.utils.Bitmaps;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+
 /**
  * Memory cache based on {@link LruCache}.
+ * It stores variants of the same image with different sizes separately.
+ * <p>
+ *   Evicted bitmaps are kept in the second tier with weak references: while a bitmap is still displayed
+ *   by some view it can be returned from this cache without decoding it again.
+ *   Alternatively evicted bitmaps can be passed to {@link BitmapsPool} (see {@link #setReuseEvictedBitmaps(boolean)}).
+ * </p>
  * @author Roman Mazur (Stanfy - http://stanfy.com)
  */
 @EnroscarBean(value = ImageMemoryCache.BEAN_NAME, contextDependent = true)
-public class SupportLruImageMemoryCache implements ImageMemoryCache, Bean {
+public class SupportLruImageMemoryCache implements ImageVariantsMemoryCache, Bean, InitializingBean {
 
   /** 1 MB. */
   private static final int MB = 1024 * 1024;
 
   /** LRU cache instance. */
-  private final LruCache<String, Bitmap> cache;
+  private final LruCache<VariantKey, Bitmap> cache;
+
+  /** Cached variants of every URL (in both tiers). Guards the weak tier as well. */
+  private final HashMap<String, ArrayList<VariantKey>> variants = new HashMap<String, ArrayList<VariantKey>>();
+
+  /** Weak tier: evicted bitmaps that may be still displayed. */
+  private final HashMap<VariantKey, BitmapReference> weakTier = new HashMap<VariantKey, BitmapReference>();
+  /** Queue of cleared weak tier references. */
+  private final ReferenceQueue<Bitmap> clearedReferences = new ReferenceQueue<Bitmap>();
+
+  /** Whether weak tier is enabled. */
+  private volatile boolean weakTierEnabled = true;
+
+  /** Stats. */
+  private int hitCount, weakHitCount, missCount;
+
+  /** Bitmaps pool. */
+  private BitmapsPool bitmapsPool;
+
+  /** Whether evicted bitmaps should be put to the pool. */
+  private boolean reuseEvictedBitmaps;
 
   public SupportLruImageMemoryCache(final Context context) {
     this(context, 0);
@@ -41,35 +73,291 @@ public class SupportLruImageMemoryCache implements ImageMemoryCache, Bean {
     }
 
     Log.i(BEAN_NAME, "Images cache size: " + cacheSize + "(" + (cacheSize / MB) + " MB)");
-    this.cache = new LruCache<String, Bitmap>(cacheSize) {
+    this.cache = new LruCache<VariantKey, Bitmap>(cacheSize) {
       @Override
-      protected int sizeOf(final String key, final Bitmap value) {
+      protected int sizeOf(final VariantKey key, final Bitmap value) {
         return Bitmaps.bitmapSize(value);
       };
+
+      @Override
+      protected void entryRemoved(final boolean evicted, final VariantKey key, final Bitmap oldValue, final Bitmap newValue) {
+        if (evicted) {
+          final BitmapsPool pool = bitmapsPool;
+          if (reuseEvictedBitmaps && pool != null) {
+            forgetVariant(key);
+            pool.put(oldValue);
+          } else if (weakTierEnabled) {
+            keepWeakly(key, oldValue);
+          } else {
+            forgetVariant(key);
+          }
+        } else if (newValue == null) {
+          forgetVariant(key);
+        }
+      }
     };
   }
 
+  @Override
+  public void onInitializationFinished(final BeansContainer beansContainer) {
+    this.bitmapsPool = beansContainer.getBean(BitmapsPool.BEAN_NAME, BitmapsPool.class);
+  }
+
+  /**
+   * Enable passing evicted bitmaps to {@link BitmapsPool}.
+   * Enable it only if cache is big enough to hold all the images displayed at once:
+   * a bitmap that is evicted while it's still displayed would be overwritten by another image.
+   * @param reuseEvictedBitmaps whether evicted bitmaps should be reused
+   */
+  public void setReuseEvictedBitmaps(final boolean reuseEvictedBitmaps) {
+    this.reuseEvictedBitmaps = reuseEvictedBitmaps;
+  }
+
+  /**
+   * Enable or disable the weak references tier. It's enabled by default.
+   * It has no effect if evicted bitmaps are reused (see {@link #setReuseEvictedBitmaps(boolean)}).
+   * @param weakTierEnabled whether evicted bitmaps should be kept with weak references
+   */
+  public void setWeakTierEnabled(final boolean weakTierEnabled) {
+    this.weakTierEnabled = weakTierEnabled;
+    if (!weakTierEnabled) {
+      synchronized (variants) {
+        for (VariantKey key : new ArrayList<VariantKey>(weakTier.keySet())) {
+          forgetWeakVariant(key);
+        }
+      }
+    }
+  }
+
+  /** @return how many times an image was found in the main tier */
+  public int getHitCount() {
+    synchronized (variants) {
+      return hitCount;
+    }
+  }
+
+  /** @return how many times an image was found in the weak references tier */
+  public int getWeakHitCount() {
+    synchronized (variants) {
+      return weakHitCount;
+    }
+  }
+
+  /** @return how many times an image was not found */
+  public int getMissCount() {
+    synchronized (variants) {
+      return missCount;
+    }
+  }
+
+  /** @return count of bitmaps in the weak references tier, some of them may be already collected */
+  public int getWeakTierCount() {
+    synchronized (variants) {
+      return weakTier.size();
+    }
+  }
+
+  private void keepWeakly(final VariantKey key, final Bitmap bitmap) {
+    synchronized (variants) {
+      expungeClearedReferences();
+      weakTier.put(key, new BitmapReference(key, bitmap, clearedReferences));
+    }
+  }
+
+  /** Must be called under lock. */
+  private void forgetWeakVariant(final VariantKey key) {
+    if (weakTier.remove(key) != null) {
+      final ArrayList<VariantKey> keys = variants.get(key.url);
+      if (keys != null) {
+        keys.remove(key);
+        if (keys.isEmpty()) {
+          variants.remove(key.url);
+        }
+      }
+    }
+  }
+
+  /** Must be called under lock. */
+  private void expungeClearedReferences() {
+    BitmapReference ref;
+    while ((ref = (BitmapReference) clearedReferences.poll()) != null) {
+      if (weakTier.get(ref.key) == ref) {
+        forgetWeakVariant(ref.key);
+      }
+    }
+  }
+
+  /**
+   * Take a bitmap from the weak tier.
+   * @param key variant key
+   * @return bitmap if it's still reachable
+   */
+  private Bitmap takeWeakly(final VariantKey key) {
+    synchronized (variants) {
+      final BitmapReference ref = weakTier.remove(key);
+      final Bitmap bitmap = ref != null ? ref.get() : null;
+      return bitmap != null && !bitmap.isRecycled() ? bitmap : null;
+    }
+  }
+
   @Override
   public void putElement(final String url, final Bitmap image) {
-    cache.put(url, image);
+    remove(url);
+    putVariant(url, image);
+  }
+
+  @Override
+  public void putVariant(final String url, final Bitmap image) {
+    final VariantKey key = new VariantKey(url, image.getWidth(), image.getHeight());
+    cache.put(key, image);
+    synchronized (variants) {
+      expungeClearedReferences();
+      weakTier.remove(key);
+      ArrayList<VariantKey> keys = variants.get(url);
+      if (keys == null) {
+        keys = new ArrayList<VariantKey>(2);
+        variants.put(url, keys);
+      }
+      if (!keys.contains(key)) {
+        keys.add(key);
+      }
+    }
+  }
+
+  private void forgetVariant(final VariantKey key) {
+    synchronized (variants) {
+      final ArrayList<VariantKey> keys = variants.get(key.url);
+      if (keys != null) {
+        keys.remove(key);
+        if (keys.isEmpty()) {
+          variants.remove(key.url);
+        }
+      }
+      weakTier.remove(key);
+    }
+  }
+
+  /**
+   * @param url image URL
+   * @param width required width, non-positive value means any width
+   * @param height required height, non-positive value means any height
+   * @return key of the smallest variant not less than required size or the biggest variant if there is no such one
+   */
+  private VariantKey selectVariant(final String url, final int width, final int height) {
+    synchronized (variants) {
+      final ArrayList<VariantKey> keys = variants.get(url);
+      if (keys == null) {
+        return null;
+      }
+      final boolean anySize = width <= 0 && height <= 0;
+      VariantKey biggest = null, adequate = null;
+      //noinspection ForLoopReplaceableByForEach
+      for (int i = 0; i < keys.size(); i++) {
+        final VariantKey key = keys.get(i);
+        if (biggest == null || key.area() > biggest.area()) {
+          biggest = key;
+        }
+        if (!anySize && (width <= 0 || key.width >= width) && (height <= 0 || key.height >= height)
+            && (adequate == null || key.area() < adequate.area())) {
+          adequate = key;
+        }
+      }
+      return adequate != null ? adequate : biggest;
+    }
+  }
+
+  @Override
+  public Bitmap getElement(final String url) {
+    return getElement(url, 0, 0);
   }
 
   @Override
-  public Bitmap getElement(final String url) { return cache.get(url); }
+  public Bitmap getElement(final String url, final int width, final int height) {
+    VariantKey key;
+    while ((key = selectVariant(url, width, height)) != null) {
+      final Bitmap result = cache.get(key);
+      if (result != null) {
+        synchronized (variants) {
+          hitCount++;
+        }
+        return result;
+      }
+      final Bitmap resurrected = takeWeakly(key);
+      if (resurrected != null) {
+        // move it back to the main tier
+        cache.put(key, resurrected);
+        synchronized (variants) {
+          weakHitCount++;
+        }
+        return resurrected;
+      }
+      // index is behind the cache
+      forgetVariant(key);
+    }
+    synchronized (variants) {
+      missCount++;
+    }
+    return null;
+  }
 
   @Override
   public boolean contains(final String url) {
-    return cache.get(url) != null;
+    // does not touch LRU order, stats and tiers
+    synchronized (variants) {
+      final ArrayList<VariantKey> keys = variants.get(url);
+      if (keys == null) {
+        return false;
+      }
+      //noinspection ForLoopReplaceableByForEach
+      for (int i = 0; i < keys.size(); i++) {
+        final BitmapReference ref = weakTier.get(keys.get(i));
+        if (ref == null) {
+          // main tier
+          return true;
+        }
+        final Bitmap bitmap = ref.get();
+        if (bitmap != null && !bitmap.isRecycled()) {
+          return true;
+        }
+      }
+      return false;
+    }
   }
 
   @Override
   public Bitmap remove(final String url) {
-    return cache.remove(url);
+    final ArrayList<VariantKey> keys;
+    synchronized (variants) {
+      keys = variants.remove(url);
+    }
+    if (keys == null) {
+      return null;
+    }
+    Bitmap result = null;
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0; i < keys.size(); i++) {
+      final VariantKey key = keys.get(i);
+      Bitmap removed = cache.remove(key);
+      if (removed == null) {
+        removed = takeWeakly(key);
+      }
+      if (removed != null && (result == null || removed.getWidth() * removed.getHeight() > result.getWidth() * result.getHeight())) {
+        result = removed;
+      }
+    }
+    return result;
   }
 
   @Override
   public void clear() {
     cache.evictAll();
+    synchronized (variants) {
+      variants.clear();
+      weakTier.clear();
+      while (clearedReferences.poll() != null) {
+        // drop cleared references
+      }
+    }
   }
 
   @Override
@@ -78,4 +366,52 @@ public class SupportLruImageMemoryCache implements ImageMemoryCache, Bean {
     Log.i(BEAN_NAME, "Images memory cache flushed");
   }
 
+  /** Weak tier reference. */
+  private static final class BitmapReference extends WeakReference<Bitmap> {
+    /** Variant key. */
+    final VariantKey key;
+
+    BitmapReference(final VariantKey key, final Bitmap bitmap, final ReferenceQueue<Bitmap> queue) {
+      super(bitmap, queue);
+      this.key = key;
+    }
+  }
+
+  /** Key of one image variant. */
+  private static final class VariantKey {
+    /** Image URL. */
+    final String url;
+    /** Bitmap size. */
+    final int width, height;
+
+    VariantKey(final String url, final int width, final int height) {
+      this.url = url;
+      this.width = width;
+      this.height = height;
+    }
+
+    int area() {
+      return width * height;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) { return true; }
+      if (!(o instanceof VariantKey)) { return false; }
+      final VariantKey other = (VariantKey) o;
+      return width == other.width && height == other.height && url.equals(other.url);
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      return (url.hashCode() * prime + width) * prime + height;
+    }
+
+    @Override
+    public String toString() {
+      return url + "!" + width + "x" + height;
+    }
+  }
+
 }
@@ -0,0 +1,86 @@
+package com.stanfy.enroscar.images;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link ImagePrefetcher}.
+ */
+@Config(emulateSdk = 18)
+public class ImagePrefetcherTest extends AbstractImagesTest {
+
+  /** Scheduled tasks. */
+  private final List<ImageTasksScheduler.Task<?>> scheduled = new ArrayList<ImageTasksScheduler.Task<?>>();
+
+  private ImagePrefetcher prefetcher;
+
+  @Before
+  public void createPrefetcher() {
+    prefetcher = new ImagePrefetcher(manager, new Executor() {
+      @Override
+      public void execute(final Runnable command) {
+        scheduled.add((ImageTasksScheduler.Task<?>) command);
+      }
+    }, 2);
+    final List<String> urls = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      urls.add("http://example.com/" + i + ".png");
+    }
+    prefetcher.setUrls(urls);
+  }
+
+  @Test
+  public void shouldPrefetchNextScreensWithPrefetchPriority() {
+    prefetcher.onScroll(10, 5, 1);
+    assertThat(scheduled).hasSize(10);
+    assertThat(prefetcher.getPendingCount()).isEqualTo(10);
+    for (ImageTasksScheduler.Task<?> task : scheduled) {
+      assertThat(task.getPriority()).isEqualTo(ImageTasksScheduler.PRIORITY_PREFETCH);
+    }
+
+    // the same range: nothing new
+    prefetcher.onScroll(10, 5, 0);
+    assertThat(scheduled).hasSize(10);
+  }
+
+  @Test
+  public void shouldCancelPrefetchesOutOfRange() {
+    prefetcher.onScroll(10, 5, 1);
+    prefetcher.onScroll(18, 5, 1);
+    // 23..32 are in range now, 23 and 24 were scheduled before
+    assertThat(scheduled).hasSize(18);
+    int cancelled = 0;
+    for (ImageTasksScheduler.Task<?> task : scheduled) {
+      if (task.isCancelled()) { cancelled++; }
+    }
+    assertThat(cancelled).isEqualTo(8);
+    assertThat(prefetcher.getPendingCount()).isEqualTo(10);
+  }
+
+  @Test
+  public void shouldPrefetchBackwardsWhenScrollingUp() {
+    prefetcher.onScroll(50, 5, -3);
+    assertThat(scheduled).hasSize(10);
+    prefetcher.onScroll(3, 5, 0);
+    // only 0..2 are above the first visible item
+    assertThat(prefetcher.getPendingCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void cancelShouldCancelAllPrefetches() {
+    prefetcher.onScroll(0, 5, 1);
+    prefetcher.cancel();
+    assertThat(prefetcher.getPendingCount()).isEqualTo(0);
+    for (ImageTasksScheduler.Task<?> task : scheduled) {
+      assertThat(task.isCancelled()).isTrue();
+    }
+  }
+
+}
@@ -99,6 +99,23 @@ public class ImageRequestTest extends AbstractImagesTest {
     assertThat(result.getBitmap()).hasHeight(TEST_BITMAP_SIZE);
   }
 
+  @Test
+  public void shouldNotDecodeBoundsIfHeaderIsSniffed() throws IOException {
+    final int size = TEST_BITMAP_SIZE * 10;
+    final byte[] pngHeader = {
+        (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 13, 'I', 'H', 'D', 'R',
+        0, 0, (byte) (size >> 8), (byte) size, 0, 0, (byte) (size >> 8), (byte) size
+    };
+    ImageRequest request = spy(new ImageRequest(manager, "data:image/png;base64,"
+        + Base64.encodeToString(pngHeader, Base64.DEFAULT), -1));
+    request.setRequiredHeight(TEST_BITMAP_SIZE);
+    request.setRequiredWidth(TEST_BITMAP_SIZE);
+    ImageResult result = request.readImage();
+    assertThat(result.getBitmap()).isNotNull();
+    assertThat(result.getOrientation()).isEqualTo(1);
+    verify(request, times(1)).doStreamDecode(any(InputStream.class), any(BitmapFactory.Options.class));
+  }
+
   @Test
   public void shouldIndicateWhenImageIsLoadedFromCache() throws Exception {
     putCachedContent(manager, defaultUrl);
@@ -106,6 +123,48 @@ public class ImageRequestTest extends AbstractImagesTest {
     assertThat(request.readImage().getType()).isSameAs(ImageSourceType.DISK);
   }
 
+  @Test
+  public void fetchStageShouldStoreNetworkImageToDisk() throws IOException {
+    ImageRequest request = spy(new ImageRequest(manager, defaultUrl, -1));
+    ImageRequest.FetchedImage image = request.fetchImage();
+    assertThat(image.type).isSameAs(ImageSourceType.NETWORK);
+    assertThat(image.input).isNotNull();
+    assertThat(manager.isPresentOnDisk(defaultUrl)).isTrue();
+    verify(request, times(0)).doStreamDecode(any(InputStream.class), any(BitmapFactory.Options.class));
+
+    ImageResult result = request.decodeImage(image);
+    assertThat(result.getType()).isSameAs(ImageSourceType.NETWORK);
+    assertThat(result.getBitmap()).isNotNull();
+    verify(request, times(1)).newUrlConnection();
+  }
+
+  @Test
+  public void fetchStageShouldKeepImagesThatAreNotCached() throws IOException {
+    final byte[] data = "fake image".getBytes(IoUtils.US_ASCII_NAME);
+    // data URLs are not cached
+    ImageRequest request = spy(new ImageRequest(manager, "data:image/gif;base64,"
+        + Base64.encodeToString(data, Base64.DEFAULT), -1));
+    ImageRequest.FetchedImage image = request.fetchImage();
+    assertThat(image.type).isSameAs(ImageSourceType.NETWORK);
+    assertThat(image.input).isNotNull();
+    assertThat(image.size()).isEqualTo(data.length);
+
+    ImageResult result = request.decodeImage(image);
+    assertThat(result.getBitmap()).isNotNull();
+    // image is not requested again
+    verify(request, times(1)).newUrlConnection();
+  }
+
+  @Test
+  public void fetchStageShouldSkipImagesOnDisk() throws Exception {
+    putCachedContent(manager, defaultUrl);
+    ImageRequest request = new ImageRequest(manager, defaultUrl, 1);
+    ImageRequest.FetchedImage image = request.fetchImage();
+    assertThat(image.type).isSameAs(ImageSourceType.DISK);
+    assertThat(image.input).isNull();
+    assertThat(request.decodeImage(image).getType()).isSameAs(ImageSourceType.DISK);
+  }
+
   @Test
   public void shouldScaleBitmaps() throws IOException {
     ImageRequest request = new ImageRequest(manager, defaultUrl, 1);
@@ -197,6 +256,15 @@ public class ImageRequestTest extends AbstractImagesTest {
     }));
   }
 
+  @Test
+  public void storeToDiskShouldUseEncodingPolicy() throws Exception {
+    manager.setDiskEncodingPolicy(ImageEncodingPolicy.LOSSLESS);
+    final ImageRequest request = new ImageRequest(manager, defaultUrl, 0.05f);
+    request.storeToDisk();
+    assertThat(manager.getEncodeStats(ImageEncodingPolicy.ENCODING_PNG).getTasksCount()).isEqualTo(1);
+    assertThat(manager.getEncodeStats(ImageEncodingPolicy.ENCODING_JPEG).getTasksCount()).isEqualTo(0);
+  }
+
   @Test
   public void storeToDiskShouldNotFullyDecodeIfScaleFactorIsOne() throws Exception {
     final ImageRequest request = spy(new ImageRequest(manager, defaultUrl, 1));
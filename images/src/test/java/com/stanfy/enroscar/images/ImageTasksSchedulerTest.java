@@ -0,0 +1,103 @@
+package com.stanfy.enroscar.images;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for ImageTasksScheduler.
+ */
+public class ImageTasksSchedulerTest {
+
+  /** Scheduler instance. */
+  private ImageTasksScheduler scheduler;
+
+  /** Blocks the only worker. */
+  private CountDownLatch workerLock;
+
+  /** Executed tasks. */
+  private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+  @Before
+  public void init() {
+    scheduler = new ImageTasksScheduler(1, true, 3, Executors.defaultThreadFactory());
+    workerLock = new CountDownLatch(1);
+    scheduler.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          workerLock.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+    });
+  }
+
+  @After
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  private ImageTasksScheduler.Task<Void> task(final String name, final int priority) {
+    return new ImageTasksScheduler.Task<Void>(new Runnable() {
+      @Override
+      public void run() {
+        executed.add(name);
+      }
+    }, null, priority);
+  }
+
+  private void runAll() throws InterruptedException {
+    workerLock.countDown();
+    scheduler.shutdown();
+    assertThat(scheduler.awaitTermination(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void shouldRunVisibleTasksFirstInLifoOrder() throws Exception {
+    scheduler.execute(task("background", ImageTasksScheduler.PRIORITY_BACKGROUND));
+    scheduler.execute(task("visible1", ImageTasksScheduler.PRIORITY_VISIBLE));
+    scheduler.execute(task("visible2", ImageTasksScheduler.PRIORITY_VISIBLE));
+    runAll();
+    assertThat(executed).containsExactly("visible2", "visible1", "background");
+  }
+
+  @Test
+  public void shouldDropOldestTaskWithLowestPriority() throws Exception {
+    ImageTasksScheduler.Task<Void> prefetch1 = task("prefetch1", ImageTasksScheduler.PRIORITY_PREFETCH);
+    scheduler.execute(prefetch1);
+    scheduler.execute(task("prefetch2", ImageTasksScheduler.PRIORITY_PREFETCH));
+    scheduler.execute(task("visible1", ImageTasksScheduler.PRIORITY_VISIBLE));
+    scheduler.execute(task("visible2", ImageTasksScheduler.PRIORITY_VISIBLE));
+    runAll();
+    assertThat(prefetch1.isCancelled()).isTrue();
+    assertThat(scheduler.getDroppedTasksCount()).isEqualTo(1);
+    assertThat(executed).containsExactly("visible2", "visible1", "prefetch2");
+  }
+
+  @Test
+  public void cancelledTasksShouldFreeQueueSlots() throws Exception {
+    ImageTasksScheduler.Task<Void> visible1 = task("visible1", ImageTasksScheduler.PRIORITY_VISIBLE);
+    scheduler.execute(visible1);
+    scheduler.execute(task("visible2", ImageTasksScheduler.PRIORITY_VISIBLE));
+    scheduler.execute(task("visible3", ImageTasksScheduler.PRIORITY_VISIBLE));
+    visible1.cancel(true);
+    assertThat(scheduler.getQueue()).hasSize(2);
+
+    scheduler.execute(task("visible4", ImageTasksScheduler.PRIORITY_VISIBLE));
+    runAll();
+    assertThat(scheduler.getDroppedTasksCount()).isZero();
+    assertThat(executed).containsExactly("visible4", "visible3", "visible2");
+  }
+
+}
@@ -13,9 +13,12 @@ import org.robolectric.Robolectric;
 import org.robolectric.annotation.Config;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -54,6 +57,26 @@ public class ImagesManagerTest extends AbstractImagesTest {
     assertThat(imagesManager.getMemCached("http://123.com", new Consumer(0, size))).isNull();
   }
 
+  @Test
+  public void getFromMemCacheShouldSelectSmallestSuitableVariant() {
+    ImagesManager imagesManager = BeansManager.get(Robolectric.application).getContainer().getBean(ImagesManager.class);
+    SupportLruImageMemoryCache memCache = BeansManager.get(Robolectric.application).getContainer().getBean(SupportLruImageMemoryCache.class);
+
+    memCache.putVariant("http://variants.com", Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888));
+    memCache.putVariant("http://variants.com", Bitmap.createBitmap(25, 25, Bitmap.Config.ARGB_8888));
+
+    Bitmap small = imagesManager.getMemCached("http://variants.com", new Consumer(20, 20));
+    assertThat(small).isNotNull();
+    assertThat(small.getWidth()).isEqualTo(25);
+
+    Bitmap big = imagesManager.getMemCached("http://variants.com", new Consumer(60, 60));
+    assertThat(big).isNotNull();
+    assertThat(big.getWidth()).isEqualTo(100);
+
+    memCache.putElement("http://variants.com", Bitmap.createBitmap(30, 30, Bitmap.Config.ARGB_8888));
+    assertThat(memCache.getElement("http://variants.com").getWidth()).isEqualTo(30);
+  }
+
   @Test
   public void calculateSampleFactorShouldRespectDynamicSize() {
     //CHECKSTYLE:OFF
@@ -115,4 +138,125 @@ public class ImagesManagerTest extends AbstractImagesTest {
     verify(request).storeToDisk();
   }
 
+  @Test
+  public void deferredDeliveriesShouldRunInOrderAfterSettleDelay() {
+    final List<Integer> delivered = new ArrayList<Integer>();
+    manager.deferDecoding(100);
+    assertThat(manager.isDecodingDeferred()).isTrue();
+    for (int i = 0; i < 3; i++) {
+      final int index = i;
+      manager.getDecodeDeferral().deliver(new Runnable() {
+        @Override
+        public void run() {
+          delivered.add(index);
+        }
+      });
+    }
+    assertThat(delivered).isEmpty();
+
+    Robolectric.runUiThreadTasksIncludingDelayedTasks();
+    assertThat(manager.isDecodingDeferred()).isFalse();
+    assertThat(delivered).containsExactly(0, 1, 2);
+  }
+
+  @Test
+  public void cancelledDeferredDecodesShouldBeDropped() throws Exception {
+    final AtomicInteger decoded = new AtomicInteger();
+    final Runnable decode = new Runnable() {
+      @Override
+      public void run() {
+        decoded.incrementAndGet();
+      }
+    };
+    final FutureTask<Void> cancelled = new FutureTask<Void>(decode, null);
+    manager.deferDecoding(1000);
+    manager.getDecodeDeferral().decode(cancelled, 10);
+    assertThat(manager.getDeferredDecodesCount()).isEqualTo(1);
+    cancelled.cancel(false);
+
+    manager.resumeDecoding();
+    final long deadline = System.currentTimeMillis() + 1000;
+    while (manager.getSavedDecodesCount() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(manager.getSavedDecodesCount()).isEqualTo(1);
+    assertThat(manager.getSavedDecodeBytes()).isEqualTo(10);
+    assertThat(decoded.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void oldestDeferredDecodesShouldBeCancelledWhenLimitIsReached() {
+    final List<FutureTask<Void>> decodes = new ArrayList<FutureTask<Void>>();
+    manager.deferDecoding(1000);
+    for (int i = 0; i < DecodeDeferral.MAX_DEFERRED_DECODES + 2; i++) {
+      final FutureTask<Void> decode = new FutureTask<Void>(new Runnable() {
+        @Override
+        public void run() {
+          // nothing
+        }
+      }, null);
+      decodes.add(decode);
+      manager.getDecodeDeferral().decode(decode, 10);
+    }
+
+    assertThat(manager.getDeferredDecodesCount()).isEqualTo(DecodeDeferral.MAX_DEFERRED_DECODES + 2);
+    assertThat(manager.getDroppedDecodesCount()).isEqualTo(2);
+    assertThat(decodes.get(0).isCancelled()).isTrue();
+    assertThat(decodes.get(1).isCancelled()).isTrue();
+    assertThat(decodes.get(2).isCancelled()).isFalse();
+    manager.resumeDecoding();
+  }
+
+  @Test
+  public void deliveriesShouldBeAppliedInOneBatchPerFrame() {
+    final DeliveryQueue queue = new DeliveryQueue(false);
+    final List<Integer> delivered = new ArrayList<Integer>();
+    for (int i = 0; i < 3; i++) {
+      final int index = i;
+      queue.enqueue(new Runnable() {
+        @Override
+        public void run() {
+          delivered.add(index);
+        }
+      });
+    }
+    assertThat(delivered).isEmpty();
+
+    Robolectric.runUiThreadTasksIncludingDelayedTasks();
+    assertThat(delivered).containsExactly(0, 1, 2);
+    assertThat(queue.getBatchesCount()).isEqualTo(1);
+    assertThat(queue.getStats().getTasksCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void deliveriesOverTimeLimitShouldBeLeftToNextFrame() {
+    final DeliveryQueue queue = new DeliveryQueue(false);
+    queue.setMaxBatchTime(1);
+    final List<Integer> delivered = new ArrayList<Integer>();
+    for (int i = 0; i < 3; i++) {
+      final int index = i;
+      queue.enqueue(new Runnable() {
+        @Override
+        public void run() {
+          delivered.add(index);
+          if (index == 0) {
+            try {
+              Thread.sleep(5);
+            } catch (final InterruptedException e) {
+              throw new AssertionError(e);
+            }
+          }
+        }
+      });
+    }
+
+    Robolectric.runUiThreadTasksIncludingDelayedTasks();
+    assertThat(delivered).containsExactly(0);
+    assertThat(queue.getOverBudgetBatchesCount()).isEqualTo(1);
+
+    Robolectric.runUiThreadTasksIncludingDelayedTasks();
+    assertThat(delivered).containsExactly(0, 1, 2);
+    assertThat(queue.getBatchesCount()).isEqualTo(2);
+  }
+
 }
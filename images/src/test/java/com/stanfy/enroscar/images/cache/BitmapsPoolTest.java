@@ -0,0 +1,110 @@
+package com.stanfy.enroscar.images.cache;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link BitmapsPool}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class BitmapsPoolTest {
+
+  /** Test bitmap side. */
+  private static final int SIZE = 10;
+  /** Size of a test bitmap in bytes. */
+  private static final int BITMAP_BYTES = SIZE * SIZE * 4;
+
+  /** Pool that holds two test bitmaps. */
+  private BitmapsPool pool;
+
+  @Before
+  public void createPool() {
+    pool = new BitmapsPool(Robolectric.application, BITMAP_BYTES * 2);
+  }
+
+  private static Bitmap bitmap(final int size) {
+    return Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+  }
+
+  @Test
+  public void shouldNotExceedMaxSize() {
+    assertThat(pool.put(bitmap(SIZE))).isTrue();
+    assertThat(pool.put(bitmap(SIZE))).isTrue();
+    assertThat(pool.put(bitmap(SIZE))).isTrue();
+    assertThat(pool.getCount()).isEqualTo(2);
+    assertThat(pool.getSize()).isEqualTo(BITMAP_BYTES * 2);
+
+    // bigger than the whole pool
+    assertThat(pool.put(bitmap(SIZE * 2))).isFalse();
+    assertThat(pool.getCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldNotAcceptRecycledBitmaps() {
+    final Bitmap bitmap = bitmap(SIZE);
+    bitmap.recycle();
+    assertThat(pool.put(bitmap)).isFalse();
+    assertThat(pool.put(null)).isFalse();
+    assertThat(pool.getCount()).isZero();
+  }
+
+  @Test
+  public void shouldEvictOldestBitmapsFirst() {
+    final Bitmap first = bitmap(SIZE), second = bitmap(SIZE), third = bitmap(SIZE);
+    pool.put(first);
+    pool.put(second);
+    pool.put(third);
+
+    assertThat(first.isRecycled()).isTrue();
+    assertThat(second.isRecycled()).isFalse();
+    // the oldest bitmap that fits goes first
+    assertThat(pool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888)).isSameAs(second);
+    assertThat(pool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888)).isSameAs(third);
+    assertThat(pool.getCount()).isZero();
+    assertThat(pool.getSize()).isZero();
+  }
+
+  @Test
+  public void getShouldRequireExactSizeAndConfigBeforeKitKat() {
+    final Bitmap bitmap = bitmap(SIZE);
+    pool.put(bitmap);
+
+    assertThat(pool.get(SIZE / 2, SIZE / 2, Bitmap.Config.ARGB_8888)).isNull();
+    assertThat(pool.get(SIZE, SIZE, Bitmap.Config.RGB_565)).isNull();
+    assertThat(pool.get(0, SIZE, Bitmap.Config.ARGB_8888)).isNull();
+    assertThat(pool.get(SIZE, SIZE, null)).isNull();
+    assertThat(pool.getMissCount()).isEqualTo(2);
+
+    assertThat(pool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888)).isSameAs(bitmap);
+    assertThat(pool.getHitCount()).isEqualTo(1);
+    assertThat(pool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888)).isNull();
+  }
+
+  @Test
+  public void canReuseShouldCheckSizeAndConfig() {
+    final Bitmap bitmap = bitmap(SIZE);
+    assertThat(BitmapsPool.canReuse(bitmap, SIZE, SIZE, Bitmap.Config.ARGB_8888)).isTrue();
+    assertThat(BitmapsPool.canReuse(bitmap, SIZE, SIZE - 1, Bitmap.Config.ARGB_8888)).isFalse();
+    assertThat(BitmapsPool.canReuse(bitmap, SIZE, SIZE, Bitmap.Config.RGB_565)).isFalse();
+  }
+
+  @Test
+  public void clearShouldRecycleBitmaps() {
+    final Bitmap bitmap = bitmap(SIZE);
+    pool.put(bitmap);
+    pool.clear();
+    assertThat(bitmap.isRecycled()).isTrue();
+    assertThat(pool.getCount()).isZero();
+    assertThat(pool.getSize()).isZero();
+  }
+
+}
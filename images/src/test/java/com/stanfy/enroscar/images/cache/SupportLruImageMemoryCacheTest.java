@@ -0,0 +1,140 @@
+package com.stanfy.enroscar.images.cache;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link SupportLruImageMemoryCache}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class SupportLruImageMemoryCacheTest {
+
+  /** Test bitmap side. */
+  private static final int SIZE = 10;
+  /** Size of a test bitmap in bytes. */
+  private static final int BITMAP_BYTES = SIZE * SIZE * 4;
+
+  /** Cache that holds two test bitmaps in the main tier. */
+  private SupportLruImageMemoryCache cache;
+
+  @Before
+  public void createCache() {
+    cache = new SupportLruImageMemoryCache(Robolectric.application, BITMAP_BYTES * 2);
+  }
+
+  private static Bitmap bitmap() {
+    return Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+  }
+
+  @Test
+  public void containsShouldNotChangeStats() {
+    cache.putElement("http://a", bitmap());
+    assertThat(cache.contains("http://a")).isTrue();
+    assertThat(cache.contains("http://b")).isFalse();
+    assertThat(cache.getHitCount()).isZero();
+    assertThat(cache.getMissCount()).isZero();
+  }
+
+  @Test
+  public void containsShouldNotTakeBitmapsFromWeakTier() {
+    final Bitmap evicted = bitmap();
+    cache.putElement("http://a", evicted);
+    cache.putElement("http://b", bitmap());
+    cache.putElement("http://c", bitmap());
+    assertThat(cache.getWeakTierCount()).isEqualTo(1);
+
+    assertThat(cache.contains("http://a")).isTrue();
+    assertThat(cache.getWeakTierCount()).isEqualTo(1);
+    assertThat(cache.getWeakHitCount()).isZero();
+    assertThat(evicted.isRecycled()).isFalse();
+  }
+
+  @Test
+  public void evictedBitmapShouldBeRecoveredFromWeakTier() {
+    final Bitmap evicted = bitmap();
+    cache.putElement("http://a", evicted);
+    cache.putElement("http://b", bitmap());
+    cache.putElement("http://c", bitmap());
+
+    assertThat(cache.getElement("http://a")).isSameAs(evicted);
+    assertThat(cache.getWeakHitCount()).isEqualTo(1);
+    // it's moved back to the main tier
+    assertThat(cache.getElement("http://a")).isSameAs(evicted);
+    assertThat(cache.getWeakHitCount()).isEqualTo(1);
+    assertThat(cache.getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void hitsShouldBeCountedPerTier() {
+    final Bitmap evicted = bitmap();
+    cache.putElement("http://a", evicted);
+    cache.putElement("http://b", bitmap());
+    cache.putElement("http://c", bitmap());
+
+    assertThat(cache.getElement("http://c")).isNotNull();
+    assertThat(cache.getElement("http://a")).isNotNull();
+    assertThat(cache.getElement("http://x")).isNull();
+
+    assertThat(cache.getHitCount()).isEqualTo(1);
+    assertThat(cache.getWeakHitCount()).isEqualTo(1);
+    assertThat(cache.getMissCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void recycledBitmapsShouldBeDroppedFromWeakTier() {
+    final Bitmap evicted = bitmap();
+    cache.putElement("http://a", evicted);
+    cache.putElement("http://b", bitmap());
+    cache.putElement("http://c", bitmap());
+    evicted.recycle();
+
+    assertThat(cache.contains("http://a")).isFalse();
+    assertThat(cache.getElement("http://a")).isNull();
+    assertThat(cache.getWeakHitCount()).isZero();
+    assertThat(cache.getMissCount()).isEqualTo(1);
+    assertThat(cache.getWeakTierCount()).isZero();
+  }
+
+  @Test
+  public void collectedBitmapsShouldBeDroppedFromWeakTier() throws InterruptedException {
+    cache.putElement("http://a", bitmap());
+    cache.putElement("http://b", bitmap());
+    cache.putElement("http://c", bitmap());
+    assertThat(cache.getWeakTierCount()).isEqualTo(1);
+
+    for (int i = 0; i < 10 && cache.contains("http://a"); i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertThat(cache.getElement("http://a")).isNull();
+    assertThat(cache.getWeakTierCount()).isZero();
+    assertThat(cache.getMissCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void disabledWeakTierShouldDropEvictedBitmaps() {
+    final Bitmap evicted = bitmap();
+    cache.putElement("http://a", evicted);
+    cache.putElement("http://b", bitmap());
+    cache.putElement("http://c", bitmap());
+
+    cache.setWeakTierEnabled(false);
+    assertThat(cache.getWeakTierCount()).isZero();
+    assertThat(cache.getElement("http://a")).isNull();
+
+    cache.putElement("http://d", bitmap());
+    assertThat(cache.getWeakTierCount()).isZero();
+    assertThat(cache.contains("http://b")).isFalse();
+  }
+
+}
@@ -0,0 +1,119 @@
+package com.stanfy.enroscar.io.benchmarks;
+
+import com.stanfy.enroscar.io.BuffersPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares streams returned by {@link BuffersPool#bufferize(InputStream)}
+ * and {@link BuffersPool#bufferizeUnsynchronized(InputStream)} with byte-wise and bulk reads/writes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BufferedStreamsBenchmark {
+
+  /** Size of the read data. */
+  private static final int DATA_SIZE = 256 * 1024;
+  /** Bulk read size. */
+  private static final int CHUNK_SIZE = 512;
+
+  /** Streams implementation. */
+  @Param({"synchronized", "unsynchronized"})
+  String implementation;
+
+  /** Whether single-owner streams check their owner thread. */
+  @Param({"false", "true"})
+  boolean checkStreamOwners;
+
+  /** Pool. */
+  private final BuffersPool pool = new BuffersPool();
+
+  /** Test data. */
+  private final byte[] data = new byte[DATA_SIZE];
+  /** Bulk reads buffer. */
+  private final byte[] chunk = new byte[CHUNK_SIZE];
+
+  /** Output that drops everything. */
+  private final OutputStream sink = new OutputStream() {
+    @Override
+    public void write(final int b) { }
+    @Override
+    public void write(final byte[] b, final int off, final int len) { }
+  };
+
+  @Setup
+  public void init() {
+    new Random(1).nextBytes(data);
+    pool.setCheckStreamOwners(checkStreamOwners);
+  }
+
+  private InputStream input() {
+    final InputStream source = new ByteArrayInputStream(data);
+    return "unsynchronized".equals(implementation)
+        ? pool.bufferizeUnsynchronized(source)
+        : pool.bufferize(source);
+  }
+
+  private OutputStream output() {
+    return "unsynchronized".equals(implementation)
+        ? pool.bufferizeUnsynchronized(sink)
+        : pool.bufferize(sink);
+  }
+
+  @Benchmark
+  public int byteWiseRead() throws IOException {
+    final InputStream input = input();
+    int sum = 0;
+    int b;
+    while ((b = input.read()) != -1) {
+      sum += b;
+    }
+    input.close();
+    return sum;
+  }
+
+  @Benchmark
+  public int bulkRead() throws IOException {
+    final InputStream input = input();
+    final byte[] chunk = this.chunk;
+    int total = 0;
+    int cnt;
+    while ((cnt = input.read(chunk, 0, chunk.length)) != -1) {
+      total += cnt;
+    }
+    input.close();
+    return total;
+  }
+
+  @Benchmark
+  public void byteWiseWrite() throws IOException {
+    final OutputStream output = output();
+    final byte[] data = this.data;
+    for (byte b : data) {
+      output.write(b);
+    }
+    output.close();
+  }
+
+}
@@ -0,0 +1,95 @@
+package com.stanfy.enroscar.io.benchmarks;
+
+import com.stanfy.enroscar.io.BuffersPool;
+import com.stanfy.enroscar.io.IoUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares get/release throughput of {@link BuffersPool} and the previous synchronized implementation
+ * with 1, 4 and 16 threads sharing one pool.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BuffersPoolBenchmark {
+
+  /** The same sizes images manager and response caches ask for. */
+  private static final int[] SIZES = {
+      IoUtils.BUFFER_SIZE_8K, IoUtils.BUFFER_SIZE_16K, IoUtils.BUFFER_SIZE_8K, 4096
+  };
+
+  /** Pool implementation. */
+  @Param({"enroscar", "synchronized"})
+  String implementation;
+
+  /** Current pool. */
+  private BuffersPool pool;
+  /** Baseline pool. */
+  private SynchronizedBuffersPool baseline;
+
+  @Setup
+  public void createPool() {
+    int[][] description = {{4, IoUtils.BUFFER_SIZE_16K}, {2, IoUtils.BUFFER_SIZE_8K}};
+    if ("synchronized".equals(implementation)) {
+      baseline = new SynchronizedBuffersPool(description);
+    } else {
+      pool = new BuffersPool(description);
+    }
+  }
+
+  private void getAndRelease(final Blackhole hole) {
+    final int[] sizes = SIZES;
+    final BuffersPool pool = this.pool;
+    if (pool != null) {
+      for (int size : sizes) {
+        byte[] buffer = pool.get(size);
+        hole.consume(buffer);
+        pool.release(buffer);
+      }
+    } else {
+      final SynchronizedBuffersPool baseline = this.baseline;
+      for (int size : sizes) {
+        byte[] buffer = baseline.get(size);
+        hole.consume(buffer);
+        baseline.release(buffer);
+      }
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void oneThread(final Blackhole hole) {
+    getAndRelease(hole);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void fourThreads(final Blackhole hole) {
+    getAndRelease(hole);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void sixteenThreads(final Blackhole hole) {
+    getAndRelease(hole);
+  }
+
+}
@@ -0,0 +1,101 @@
+package com.stanfy.enroscar.io.benchmarks;
+
+import com.stanfy.enroscar.io.Digests;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares cache key generation: the previous {@code Md5.getMd5} implementation
+ * (new digest per call, {@link BigInteger} hex conversion), {@link Digests#md5Hex(String)}
+ * and {@link Digests#murmur3Hex128(String)}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheKeyBenchmark {
+
+  /** Image URLs of typical lengths. */
+  private static final String[] URLS = {
+      "http://example.com/a.png",
+      "https://graph.facebook.com/100001234567890/picture?type=large&width=200&height=200",
+      "https://lh3.googleusercontent.com/-AbCdEfGhIjK/AAAAAAAAAAI/AAAAAAAAAAA/LmNoPqRsTuV/s120-c/photo.jpg",
+      "http://images.example.com/photos/2014/05/12/very_long_file_name_of_the_picture_thumbnail_640x480.jpg?size=large&quality=80&token=0123456789abcdef0123456789abcdef"
+  };
+
+  /** Hash implementation. */
+  @Param({"biginteger", "md5", "murmur3"})
+  String implementation;
+
+  private String hash(final String url) {
+    if ("md5".equals(implementation)) {
+      return Digests.md5Hex(url);
+    }
+    if ("murmur3".equals(implementation)) {
+      return Digests.murmur3Hex128(url);
+    }
+    return bigIntegerMd5(url);
+  }
+
+  /** The previous implementation. */
+  private static String bigIntegerMd5(final String text) {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("MD5");
+      final byte[] utf8Bytes = text.getBytes("UTF-8");
+      md.update(utf8Bytes, 0, utf8Bytes.length);
+      final byte[] md5hash = md.digest();
+      final int radix = 16;
+      final int length = 32;
+      final StringBuilder result = new StringBuilder(length).append(new BigInteger(1, md5hash).toString(radix));
+      final int zeroBeginLen = length - result.length();
+      if (zeroBeginLen > 0) {
+        final char[] zeroBegin = new char[zeroBeginLen];
+        Arrays.fill(zeroBegin, Character.forDigit(0, radix));
+        result.insert(0, zeroBegin);
+      }
+      return result.toString();
+    } catch (final NoSuchAlgorithmException | UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private int hashAll() {
+    int result = 0;
+    for (String url : URLS) {
+      result += hash(url).length();
+    }
+    return result;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int oneThread() {
+    return hashAll();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int fourThreads() {
+    return hashAll();
+  }
+
+}
@@ -0,0 +1,172 @@
+package com.stanfy.enroscar.io.benchmarks;
+
+import com.stanfy.enroscar.io.ImageHeaderParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Compares getting image dimensions with {@link ImageHeaderParser} and with a decoder reading only image bounds.
+ * <p>
+ *   {@code BitmapFactory} is not available on JVM, so ImageIO readers are used as the decoder:
+ *   like {@code inJustDecodeBounds} decoding they parse image headers up to the frame info.
+ *   Both methods read from a stream in 4K portions, as {@code ImageRequest} does.
+ * </p>
+ * <p>
+ *   Set {@code -Pcorpus=<dir>} to run over a directory of real images,
+ *   otherwise a generated corpus of JPEG, PNG and GIF images is used.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageHeaderBenchmark {
+
+  /** Read step. */
+  private static final int READ_STEP = 4096;
+  /** Sniffing limit. */
+  private static final int LIMIT = 65536;
+
+  /** Generated image sizes. */
+  private static final int[][] SIZES = {{64, 64}, {480, 320}, {1024, 768}};
+
+  /** Directory with images, empty string means generated corpus. */
+  @Param({""})
+  String corpus;
+
+  /** Images. */
+  private byte[][] images;
+  /** Current image. */
+  private int index;
+
+  /** Sniffer buffer. */
+  private final byte[] buffer = new byte[LIMIT];
+
+  @Setup(Level.Trial)
+  public void loadCorpus() throws IOException {
+    final List<byte[]> result = new ArrayList<byte[]>();
+    if (corpus.length() > 0) {
+      final File[] files = new File(corpus).listFiles();
+      if (files == null) { throw new IOException("Cannot list " + corpus); }
+      for (File file : files) {
+        if (file.isFile()) {
+          result.add(readFile(file));
+        }
+      }
+    } else {
+      for (String format : new String[] {"jpg", "png", "gif"}) {
+        for (int[] size : SIZES) {
+          result.add(generate(format, size[0], size[1]));
+        }
+      }
+    }
+    if (result.isEmpty()) { throw new IOException("Corpus is empty"); }
+    images = result.toArray(new byte[result.size()][]);
+
+    // check that both methods see the same dimensions
+    for (byte[] image : images) {
+      final long sniffed = sniff(image), decoded = decodeBounds(image);
+      if (sniffed != -1 && sniffed != decoded) {
+        throw new IllegalStateException("Dimensions mismatch: " + sniffed + " != " + decoded);
+      }
+    }
+  }
+
+  private static byte[] readFile(final File file) throws IOException {
+    final InputStream in = new FileInputStream(file);
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+      final byte[] buffer = new byte[READ_STEP];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static byte[] generate(final String format, final int width, final int height) throws IOException {
+    final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, x * y ^ (x << 8) ^ (y << 16));
+      }
+    }
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, format, out);
+    return out.toByteArray();
+  }
+
+  private byte[] next() {
+    final byte[] image = images[index];
+    index = (index + 1) % images.length;
+    return image;
+  }
+
+  /** @return width and height packed into long or -1 */
+  private long sniff(final byte[] image) throws IOException {
+    final ImageHeaderParser parser = new ImageHeaderParser();
+    final int status = parser.parse(new ByteArrayInputStream(image), buffer, LIMIT);
+    return status == ImageHeaderParser.RESULT_OK ? (long) parser.getWidth() << 32 | parser.getHeight() : -1;
+  }
+
+  /** @return width and height packed into long or -1 */
+  private static long decodeBounds(final byte[] image) throws IOException {
+    final ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(image));
+    try {
+      final Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) { return -1; }
+      final ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        return (long) reader.getWidth(0) << 32 | reader.getHeight(0);
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  @Benchmark
+  public long headerSniffer() throws IOException {
+    return sniff(next());
+  }
+
+  @Benchmark
+  public long decoderBounds() throws IOException {
+    return decodeBounds(next());
+  }
+
+}
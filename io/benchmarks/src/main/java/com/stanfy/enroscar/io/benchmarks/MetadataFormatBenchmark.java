@@ -0,0 +1,152 @@
+package com.stanfy.enroscar.io.benchmarks;
+
+import com.stanfy.enroscar.io.BuffersPool;
+import com.stanfy.enroscar.io.CompactDataInput;
+import com.stanfy.enroscar.io.CompactDataOutput;
+import com.stanfy.enroscar.io.IoUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the line-based text format of cache entry metadata with the binary one
+ * written by {@link CompactDataOutput}. Record fields are the same as in {@code CacheEntry}
+ * of the net module plus one integer extension field (like image type of images cache).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetadataFormatBenchmark {
+
+  /** Record fields. */
+  private static final String URI = "http://images.example.com/photos/2014/05/12/thumbnail_640x480.jpg?size=large",
+                              METHOD = "GET",
+                              ENCODING = "gzip",
+                              STATUS = "HTTP/1.1 200 OK";
+  /** Record fields. */
+  private static final long TIMESTAMP = 1400000000000L;
+  /** Extension field. */
+  private static final int IMAGE_TYPE = 3;
+
+  /** Format. */
+  @Param({"text", "binary"})
+  String format;
+
+  /** Pool. */
+  private final BuffersPool pool = new BuffersPool();
+
+  /** Encoded record. */
+  private byte[] record;
+
+  /** Output that drops everything. */
+  private final OutputStream sink = new OutputStream() {
+    @Override
+    public void write(final int b) { }
+    @Override
+    public void write(final byte[] b, final int off, final int len) { }
+  };
+
+  @Setup
+  public void init() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    write(out);
+    record = out.toByteArray();
+  }
+
+  private void write(final OutputStream out) throws IOException {
+    if ("binary".equals(format)) {
+      final CompactDataOutput data = new CompactDataOutput(pool);
+      data.writeByte(0).writeByte(1)
+          .writeString(URI).writeString(METHOD).writeVarLong(TIMESTAMP).writeString(ENCODING).writeString(STATUS)
+          .writeUnsignedVarInt(1).writeUnsignedVarInt(1).writeByte(1).writeVarInt(IMAGE_TYPE);
+      data.writeTo(out);
+      data.release();
+    } else {
+      final Writer writer = new OutputStreamWriter(pool.bufferize(out), IoUtils.UTF_8);
+      writer.write(URI + '\n');
+      writer.write(METHOD + '\n');
+      writer.write(new StringBuilder().append(TIMESTAMP).append('\n').toString());
+      writer.write(ENCODING + '\n');
+      writer.write(STATUS + '\n');
+      writer.write(new StringBuilder().append(IMAGE_TYPE).append('\n').toString());
+      writer.close();
+    }
+  }
+
+  private void read(final Blackhole hole) throws IOException {
+    final InputStream source = new ByteArrayInputStream(record);
+    if ("binary".equals(format)) {
+      final CompactDataInput in = CompactDataInput.readFully(source, pool);
+      in.readByte();
+      in.readByte();
+      hole.consume(in.readString());
+      hole.consume(in.readString());
+      hole.consume(in.readVarLong());
+      hole.consume(in.readString());
+      hole.consume(in.readString());
+      in.readUnsignedVarInt();
+      in.readUnsignedVarInt();
+      in.readByte();
+      hole.consume(in.readVarInt());
+      in.release();
+    } else {
+      final InputStream in = pool.bufferize(source);
+      hole.consume(readLine(in));
+      hole.consume(readLine(in));
+      hole.consume(Long.parseLong(readLine(in)));
+      hole.consume(readLine(in));
+      hole.consume(readLine(in));
+      hole.consume(Integer.parseInt(readLine(in)));
+      in.close();
+    }
+  }
+
+  /** The same as {@code CacheEntry.readString}. */
+  private static String readLine(final InputStream in) throws IOException {
+    final StringBuilder result = new StringBuilder(80);
+    while (true) {
+      final int c = in.read();
+      if (c == -1) {
+        throw new EOFException();
+      } else if (c == '\n') {
+        break;
+      }
+      result.append((char) c);
+    }
+    return result.toString();
+  }
+
+  @Benchmark
+  public void writeMetadata() throws IOException {
+    write(sink);
+  }
+
+  @Benchmark
+  public void readMetadata(final Blackhole hole) throws IOException {
+    read(hole);
+  }
+
+}
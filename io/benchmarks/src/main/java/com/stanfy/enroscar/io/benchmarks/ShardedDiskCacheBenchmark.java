@@ -0,0 +1,142 @@
+package com.stanfy.enroscar.io.benchmarks;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+import com.stanfy.enroscar.io.Digests;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of concurrent puts and gets to disk caches partitioned like in {@code BaseFileResponseCache}
+ * of the net module: N {@link DiskLruCache} instances in N subdirectories, keys are distributed by their hash.
+ * Run with {@code -t} option to check how throughput scales with shards count for different count of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ShardedDiskCacheBenchmark {
+
+  /** Count of distinct keys. */
+  private static final int KEYS_COUNT = 512;
+  /** Entry body size. */
+  private static final int BODY_SIZE = 4096;
+  /** Entry metadata size. */
+  private static final int METADATA_SIZE = 128;
+  /** Total max cache size. */
+  private static final long MAX_SIZE = 64 * 1024 * 1024;
+
+  /** Shards count. */
+  @Param({"1", "2", "4", "8"})
+  int shardsCount;
+
+  /** Shards. */
+  private DiskLruCache[] shards;
+  /** Cache directory. */
+  private File directory;
+
+  /** Keys. */
+  private final String[] keys = new String[KEYS_COUNT];
+
+  /** Entry body. */
+  private final byte[] body = new byte[BODY_SIZE];
+  /** Entry metadata. */
+  private final byte[] metadata = new byte[METADATA_SIZE];
+
+  @Setup(Level.Trial)
+  public void open() throws IOException {
+    directory = File.createTempFile("sharded-cache", "");
+    if (!directory.delete() || !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    shards = new DiskLruCache[shardsCount];
+    for (int i = 0; i < shardsCount; i++) {
+      shards[i] = DiskLruCache.open(new File(directory, String.valueOf(i)), 1, 2, MAX_SIZE / shardsCount);
+    }
+    for (int i = 0; i < KEYS_COUNT; i++) {
+      keys[i] = Digests.md5Hex("http://example.com/images/" + i + ".png");
+      put(keys[i]);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void close() throws IOException {
+    for (DiskLruCache shard : shards) {
+      shard.delete();
+    }
+    directory.delete();
+  }
+
+  /** The same as {@code BaseFileResponseCache.shardIndex}. */
+  private DiskLruCache shardFor(final String key) {
+    return shards[(key.hashCode() & Integer.MAX_VALUE) % shards.length];
+  }
+
+  private boolean put(final String key) throws IOException {
+    final DiskLruCache.Editor editor = shardFor(key).edit(key);
+    if (editor == null) {
+      // concurrent edit
+      return false;
+    }
+    OutputStream out = editor.newOutputStream(1);
+    out.write(metadata);
+    out.close();
+    out = editor.newOutputStream(0);
+    out.write(body);
+    out.close();
+    editor.commit();
+    return true;
+  }
+
+  private static String randomKey(final String[] keys) {
+    return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+  }
+
+  @Benchmark
+  public boolean putEntry() throws IOException {
+    return put(randomKey(keys));
+  }
+
+  @Benchmark
+  public int getEntry(final ReadBuffer buffer) throws IOException {
+    final String key = randomKey(keys);
+    final DiskLruCache.Snapshot snapshot = shardFor(key).get(key);
+    if (snapshot == null) { return 0; }
+    try {
+      final InputStream in = snapshot.getInputStream(0);
+      return in.read(buffer.data);
+    } finally {
+      snapshot.close();
+    }
+  }
+
+  /** Per thread read buffer. */
+  @State(Scope.Thread)
+  public static class ReadBuffer {
+    /** Data. */
+    final byte[] data = new byte[BODY_SIZE];
+  }
+
+}
@@ -0,0 +1,70 @@
+package com.stanfy.enroscar.io.benchmarks;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Previous implementation of {@code BuffersPool}: one monitor around a map of lists.
+ * Kept as a baseline for benchmarks.
+ */
+final class SynchronizedBuffersPool {
+
+  /** Buffers store. */
+  private final TreeMap<Integer, List<Object>> buffers = new TreeMap<Integer, List<Object>>();
+
+  /** Protects {@link #buffers}. */
+  private final Object lock = new Object();
+
+  /** Stats counter. */
+  private int usedBuffersCount, allocatedBuffersCount;
+
+  SynchronizedBuffersPool(final int[][] initDescription) {
+    for (int i = initDescription.length - 1; i >= 0; i--) {
+      int count = initDescription[i][0];
+      int amount = initDescription[i][1];
+      for (int k = count - 1; k >= 0; k--) {
+        allocatedBuffersCount++;
+        release(new byte[amount]);
+      }
+    }
+    usedBuffersCount = 0;
+  }
+
+  byte[] get(final int minCapacity) {
+    synchronized (lock) {
+      usedBuffersCount++;
+
+      final SortedMap<Integer, List<Object>> map = buffers.tailMap(minCapacity);
+      if (map.isEmpty()) {
+        allocatedBuffersCount++;
+        return new byte[minCapacity];
+      }
+
+      final List<Object> bList = map.get(map.firstKey());
+      if (bList == null || bList.isEmpty()) {
+        allocatedBuffersCount++;
+        return new byte[minCapacity];
+      }
+
+      return (byte[]) bList.remove(0);
+    }
+  }
+
+  void release(final byte[] buffer) {
+    if (buffer == null || buffer.length == 0) {
+      return;
+    }
+    synchronized (lock) {
+      List<Object> bList = buffers.get(buffer.length);
+      if (bList == null) {
+        bList = new LinkedList<Object>();
+        buffers.put(buffer.length, bList);
+      }
+      bList.add(buffer);
+      usedBuffersCount--;
+    }
+  }
+
+}
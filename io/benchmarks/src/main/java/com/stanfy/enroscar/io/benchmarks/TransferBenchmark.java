@@ -0,0 +1,104 @@
+package com.stanfy.enroscar.io.benchmarks;
+
+import com.stanfy.enroscar.io.BuffersPool;
+import com.stanfy.enroscar.io.DirectBuffersPool;
+import com.stanfy.enroscar.io.IoUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares copying a file with {@link IoUtils#transfer(java.io.InputStream, OutputStream, BuffersPool)}
+ * and with direct buffers leased from {@link DirectBuffersPool}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class TransferBenchmark {
+
+  /** 1 MB. */
+  private static final int MB = 1024 * 1024;
+
+  /** File size in megabytes. */
+  @Param({"1", "10", "100"})
+  int sizeMb;
+
+  /** Source file. */
+  private File source;
+  /** Destination file. */
+  private File destination;
+
+  /** Heap buffers pool. */
+  private final BuffersPool buffersPool = new BuffersPool();
+  /** Direct buffers pool. */
+  private final DirectBuffersPool directBuffersPool = new DirectBuffersPool();
+
+  @Setup(Level.Trial)
+  public void createFiles() throws IOException {
+    source = File.createTempFile("transfer-source", ".bin");
+    destination = File.createTempFile("transfer-destination", ".bin");
+
+    final byte[] chunk = new byte[MB];
+    new Random(1).nextBytes(chunk);
+    OutputStream output = new FileOutputStream(source);
+    try {
+      for (int i = 0; i < sizeMb; i++) {
+        output.write(chunk);
+      }
+    } finally {
+      output.close();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteFiles() {
+    source.delete();
+    destination.delete();
+  }
+
+  @Benchmark
+  public void streams() throws IOException {
+    OutputStream output = new FileOutputStream(destination);
+    try {
+      IoUtils.transfer(new FileInputStream(source), output, buffersPool);
+    } finally {
+      output.close();
+    }
+  }
+
+  @Benchmark
+  public long directChannels() throws IOException {
+    FileChannel output = new RandomAccessFile(destination, "rw").getChannel();
+    try {
+      output.truncate(0);
+      return IoUtils.transfer(new FileInputStream(source).getChannel(), output, directBuffersPool);
+    } finally {
+      output.close();
+    }
+  }
+
+}
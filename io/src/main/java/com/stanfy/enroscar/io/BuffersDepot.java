@@ -0,0 +1,97 @@
+package com.stanfy.enroscar.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Shared store of buffers that belong to one size class of {@link BuffersPool}
+ * (or to {@link DirectBuffersPool}).
+ * It is a bounded multi-producer/multi-consumer ring (see D. Vyukov's bounded MPMC queue):
+ * no locks are taken and nothing is allocated when a buffer is offered or polled.
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+final class BuffersDepot<T> {
+
+  /** Slots mask. */
+  private final int mask;
+
+  /** Buffers. */
+  private final AtomicReferenceArray<T> items;
+
+  /** Slot sequence numbers. */
+  private final AtomicLongArray sequences;
+
+  /** Producer and consumer positions. */
+  private final AtomicLong enqueuePosition = new AtomicLong(), dequeuePosition = new AtomicLong();
+
+  /**
+   * @param capacity depot capacity, rounded up to a power of two
+   */
+  BuffersDepot(final int capacity) {
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.items = new AtomicReferenceArray<T>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /** @return how many buffers this depot can hold */
+  int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * @param buffer buffer to store
+   * @return false if depot is full
+   */
+  boolean offer(final T buffer) {
+    long pos = enqueuePosition.get();
+    int index;
+    while (true) {
+      index = (int) pos & mask;
+      final long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (enqueuePosition.compareAndSet(pos, pos + 1)) {
+          break;
+        }
+      } else if (diff < 0) {
+        return false;
+      }
+      pos = enqueuePosition.get();
+    }
+    items.set(index, buffer);
+    sequences.lazySet(index, pos + 1);
+    return true;
+  }
+
+  /**
+   * @return stored buffer or null if depot is empty
+   */
+  T poll() {
+    long pos = dequeuePosition.get();
+    int index;
+    while (true) {
+      index = (int) pos & mask;
+      final long diff = sequences.get(index) - (pos + 1);
+      if (diff == 0) {
+        if (dequeuePosition.compareAndSet(pos, pos + 1)) {
+          break;
+        }
+      } else if (diff < 0) {
+        return null;
+      }
+      pos = dequeuePosition.get();
+    }
+    final T result = items.get(index);
+    items.set(index, null);
+    sequences.lazySet(index, pos + mask + 1);
+    return result;
+  }
+
+}
@@ -0,0 +1,51 @@
+package com.stanfy.enroscar.io;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A tiny per-thread stash of buffers of one size class.
+ * Only its owner thread puts buffers, but {@link BuffersPool} may take them out
+ * from any thread while trimming, that's why slots are atomic.
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+final class BuffersMagazine {
+
+  /** Slots. */
+  private final AtomicReferenceArray<byte[]> slots;
+
+  BuffersMagazine(final int capacity) {
+    this.slots = new AtomicReferenceArray<byte[]>(capacity);
+  }
+
+  /**
+   * @param buffer buffer to stash
+   * @return false if magazine is full
+   */
+  boolean push(final byte[] buffer) {
+    final AtomicReferenceArray<byte[]> slots = this.slots;
+    for (int i = slots.length() - 1; i >= 0; i--) {
+      if (slots.get(i) == null && slots.compareAndSet(i, null, buffer)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return stashed buffer or null
+   */
+  byte[] pop() {
+    final AtomicReferenceArray<byte[]> slots = this.slots;
+    final int length = slots.length();
+    for (int i = 0; i < length; i++) {
+      if (slots.get(i) != null) {
+        final byte[] result = slots.getAndSet(i, null);
+        if (result != null) {
+          return result;
+        }
+      }
+    }
+    return null;
+  }
+
+}
@@ -2,13 +2,31 @@ package com.stanfy.enroscar.io;
 
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * A pool of arrays that might be used to decode images or perform other IO operations.
+ * <p>
+ *   Buffers are grouped into power-of-two size classes. Each thread keeps a small magazine of recently
+ *   released buffers per class and falls back to a shared lock-free depot of the class,
+ *   so that concurrent users of the pool do not contend on a single monitor.
+ *   Magazines of threads that have died are drained back to the depots, so buffers cached by them are
+ *   neither lost for reuse nor left counted in the retention limits.
+ * </p>
+ * <p>
+ *   Retention is bounded: the pool keeps at most {@link #setMaxRetainedBytes(long)} bytes and
+ *   {@link #setMaxRetainedBuffersCount(int, int)} buffers of one size class, released buffers that do not fit
+ *   are left to GC. Retained buffers can be trimmed with {@link #trimToSize(long)} and {@link #trimIdle(long)},
+ *   or automatically when {@link #setMaxIdleTime(long)} is configured.
+ * </p>
  * @author Roman Mazur - Stanfy (http://www.stanfy.com)
  */
 public class BuffersPool {
@@ -18,40 +36,156 @@ public class BuffersPool {
       {4, IoUtils.BUFFER_SIZE_16K}, {2, IoUtils.BUFFER_SIZE_8K}
   };
 
-  /** Buffers store. */
-  private final TreeMap<Integer, List<Object>> buffers = new TreeMap<Integer, List<Object>>();
+  /** The smallest size class: 16 bytes. */
+  static final int MIN_CLASS_SHIFT = 4;
+  /** The biggest size class: 1 MB. Bigger buffers are not retained. */
+  static final int MAX_CLASS_SHIFT = 20;
+  /** Count of size classes. */
+  static final int CLASSES_COUNT = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+
+  /** How many bigger classes may be checked when the requested one is empty. */
+  private static final int LOOKUP_CLASSES = 2;
+
+  /** Requests bigger than this are not rounded up to their size class when a new buffer is allocated: 64 KB. */
+  static final int EXACT_SIZE_THRESHOLD = 1 << 16;
+
+  /** Default capacity of a shared depot. */
+  private static final int DEPOT_CAPACITY_DEFAULT = 32;
+  /** Capacity of a thread magazine. */
+  private static final int MAGAZINE_CAPACITY = 2;
+
+  /** Default limit of retained bytes: 1 MB. */
+  public static final long MAX_RETAINED_BYTES_DEFAULT = 1024 * 1024;
+  /** Default limit of retained buffers in one size class. */
+  public static final int MAX_RETAINED_BUFFERS_COUNT_DEFAULT = 16;
+
+  /** Shared depots, one per size class. */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private final BuffersDepot<byte[]>[] depots = new BuffersDepot[CLASSES_COUNT];
+
+  /** Per-thread magazines. */
+  private final ThreadLocal<BuffersMagazine[]> magazines = new ThreadLocal<BuffersMagazine[]>() {
+    @Override
+    protected BuffersMagazine[] initialValue() {
+      // a new thread is a good moment to collect buffers of the dead ones
+      drainDeadMagazines();
+      final BuffersMagazine[] result = new BuffersMagazine[CLASSES_COUNT];
+      for (int i = 0; i < CLASSES_COUNT; i++) {
+        result[i] = new BuffersMagazine(MAGAZINE_CAPACITY);
+      }
+      allMagazines.add(new ThreadMagazines(Thread.currentThread(), result));
+      return result;
+    }
+  };
+
+  /**
+   * Magazines of all the threads that used this pool. Required to flush them and to drain them when threads die.
+   * Magazines are referenced strongly, their threads are not.
+   */
+  private final ConcurrentLinkedQueue<ThreadMagazines> allMagazines = new ConcurrentLinkedQueue<ThreadMagazines>();
+
+  /** Count of retained buffers per size class. */
+  private final AtomicIntegerArray retainedCounts = new AtomicIntegerArray(CLASSES_COUNT);
+  /** Limits of retained buffers per size class. */
+  private final AtomicIntegerArray maxRetainedCounts = new AtomicIntegerArray(CLASSES_COUNT);
+  /** Last time a buffer was released to a size class. */
+  private final AtomicLongArray releaseTimes = new AtomicLongArray(CLASSES_COUNT);
+
+  /** Retained bytes. */
+  private final AtomicLong retainedBytes = new AtomicLong();
+  /** Limit of retained bytes. */
+  private volatile long maxRetainedBytes = MAX_RETAINED_BYTES_DEFAULT;
 
-  /** Protects {@link #buffers}. */
-  private final Object lock = new Object();
+  /** Retained buffers idle time after which they are trimmed automatically, 0 means never. */
+  private volatile long maxIdleTime;
+  /** Last automatic trimming time. */
+  private final AtomicLong lastTrimTime = new AtomicLong();
 
   /** Stats counter. */
-  private int usedBuffersCount, allocatedBuffersCount;
+  private final AtomicInteger usedBuffersCount = new AtomicInteger(),
+                              allocatedBuffersCount = new AtomicInteger(),
+                              hitCount = new AtomicInteger(),
+                              missCount = new AtomicInteger(),
+                              evictedBuffersCount = new AtomicInteger();
 
   /** Strict mode flag. */
   boolean strictMode = true;
+  /** Whether streams obtained with {@code bufferizeUnsynchronized} check their owner thread. */
+  volatile boolean checkStreamOwners;
 
   public BuffersPool() {
     this(DESCRIPTION_DEFAULT);
   }
 
   public BuffersPool(final int[][] initDescription) {
+    final int[] capacities = new int[CLASSES_COUNT];
+    long bytes = 0;
+    for (int[] description : initDescription) {
+      final int index = releaseClassIndex(description[1]);
+      if (index >= 0) {
+        capacities[index] += description[0];
+        bytes += (long) description[0] * description[1];
+      }
+    }
+    // preallocated buffers always fit the limits
+    maxRetainedBytes = Math.max(MAX_RETAINED_BYTES_DEFAULT, bytes);
+    for (int i = 0; i < CLASSES_COUNT; i++) {
+      depots[i] = new BuffersDepot<byte[]>(Math.max(DEPOT_CAPACITY_DEFAULT, capacities[i]));
+      maxRetainedCounts.set(i, Math.max(MAX_RETAINED_BUFFERS_COUNT_DEFAULT, capacities[i]));
+    }
+
     for (int i = initDescription.length - 1; i >= 0; i--) {
       int count = initDescription[i][0];
       int amount = initDescription[i][1];
+      final int index = releaseClassIndex(amount);
 
       for (int k = count - 1; k >= 0; k--) {
-        allocatedBuffersCount++;
-        release(allocate(amount));
+        allocatedBuffersCount.incrementAndGet();
+        // preallocated buffers go directly to depots in order to be visible for all the threads
+        final byte[] buffer = allocate(amount);
+        if (index >= 0 && retain(index, buffer) && !depots[index].offer(buffer)) {
+          forget(index, buffer);
+        }
+      }
+      if (index >= 0) {
+        releaseTimes.set(index, System.currentTimeMillis());
       }
 
     }
-    usedBuffersCount = 0;
   }
 
   private static byte[] allocate(final int size) {
     return new byte[size];
   }
 
+  /**
+   * @param minCapacity required capacity
+   * @return index of the smallest size class that can serve the request, or -1 if request is too big
+   */
+  static int requestClassIndex(final int minCapacity) {
+    if (minCapacity <= 1 << MIN_CLASS_SHIFT) {
+      return 0;
+    }
+    final int shift = Integer.SIZE - Integer.numberOfLeadingZeros(minCapacity - 1);
+    return shift > MAX_CLASS_SHIFT ? -1 : shift - MIN_CLASS_SHIFT;
+  }
+
+  /**
+   * @param length buffer length
+   * @return index of the biggest size class that can be served by a buffer with the given length,
+   *         or -1 if such a buffer should not be retained
+   */
+  static int releaseClassIndex(final int length) {
+    if (length <= 0) {
+      return -1;
+    }
+    final int shift = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(length);
+    if (shift < MIN_CLASS_SHIFT || shift > MAX_CLASS_SHIFT) {
+      return -1;
+    }
+    return shift - MIN_CLASS_SHIFT;
+  }
+
   /**
    * @return buffer with default width
    */
@@ -60,27 +194,85 @@ public class BuffersPool {
   }
 
   /**
+   * Requests are served with buffers of power-of-two size classes, so a new buffer may be up to twice longer
+   * than requested. Requests bigger than {@link #EXACT_SIZE_THRESHOLD} are allocated with exact size instead;
+   * such buffers are reused for requests that they can serve.
    * @param minCapacity minimal capacity of the buffer
    * @return buffer with length greater on equal than <code>minCapacity</code>
    */
   public byte[] get(final int minCapacity) {
-    synchronized (lock) {
-      usedBuffersCount++;
+    usedBuffersCount.incrementAndGet();
+
+    final int index = requestClassIndex(minCapacity);
+    if (index < 0) {
+      missCount.incrementAndGet();
+      allocatedBuffersCount.incrementAndGet();
+      return allocate(minCapacity);
+    }
 
-      final SortedMap<Integer, List<Object>> map = buffers.tailMap(minCapacity);
-      if (map.isEmpty()) {
-        allocatedBuffersCount++;
-        return allocate(minCapacity);
+    final BuffersMagazine[] local = magazines.get();
+    final int last = Math.min(index + LOOKUP_CLASSES, CLASSES_COUNT - 1);
+    for (int i = index; i <= last; i++) {
+      byte[] buffer = local[i].pop();
+      if (buffer == null) {
+        buffer = depots[i].poll();
+      }
+      if (buffer != null) {
+        forget(i, buffer);
+        hitCount.incrementAndGet();
+        return buffer;
       }
+    }
 
-      final List<Object> bList = map.get(map.firstKey());
-      if (bList == null || bList.isEmpty()) {
-        allocatedBuffersCount++;
-        return allocate(minCapacity);
+    // buffers may be stuck in magazines of dead threads
+    if (drainDeadMagazines()) {
+      for (int i = index; i <= last; i++) {
+        final byte[] buffer = depots[i].poll();
+        if (buffer != null) {
+          forget(i, buffer);
+          hitCount.incrementAndGet();
+          return buffer;
+        }
       }
+    }
 
-      return (byte[])bList.remove(0);
+    final int classSize = 1 << (index + MIN_CLASS_SHIFT);
+    final boolean exact = minCapacity > EXACT_SIZE_THRESHOLD && minCapacity != classSize;
+    if (exact) {
+      // exact buffers are released to the smaller class
+      final byte[] buffer = getExact(local, index - 1, minCapacity);
+      if (buffer != null) {
+        hitCount.incrementAndGet();
+        return buffer;
+      }
+    }
+
+    missCount.incrementAndGet();
+    allocatedBuffersCount.incrementAndGet();
+    return allocate(exact ? minCapacity : classSize);
+  }
+
+  /**
+   * @return retained buffer of the given class that is not shorter than {@code minCapacity}, or null
+   */
+  private byte[] getExact(final BuffersMagazine[] local, final int index, final int minCapacity) {
+    byte[] buffer = local[index].pop();
+    if (buffer == null) {
+      buffer = depots[index].poll();
+    }
+    if (buffer == null) {
+      return null;
     }
+    if (buffer.length >= minCapacity) {
+      forget(index, buffer);
+      return buffer;
+    }
+    // too short, give it back
+    if (!local[index].push(buffer) && !depots[index].offer(buffer)) {
+      forget(index, buffer);
+      evictedBuffersCount.incrementAndGet();
+    }
+    return null;
   }
 
   /**
@@ -97,17 +289,148 @@ public class BuffersPool {
       return;
     }
 
-    synchronized (lock) {
-      List<Object> bList = buffers.get(capacity);
-      if (bList == null) {
-        bList = new LinkedList<Object>();
-        buffers.put(capacity, bList);
+    usedBuffersCount.decrementAndGet();
+
+    final int index = releaseClassIndex(capacity);
+    if (index < 0) {
+      evictedBuffersCount.incrementAndGet();
+      return;
+    }
+    // limits may be occupied by buffers of dead threads
+    if (!retain(index, buffer) && !(drainDeadMagazines() && retain(index, buffer))) {
+      evictedBuffersCount.incrementAndGet();
+      return;
+    }
+    if (!magazines.get()[index].push(buffer) && !depots[index].offer(buffer)) {
+      forget(index, buffer);
+      evictedBuffersCount.incrementAndGet();
+    }
+
+    final long now = System.currentTimeMillis();
+    if (releaseTimes.get(index) != now) {
+      releaseTimes.set(index, now);
+    }
+    final long idleTime = maxIdleTime;
+    if (idleTime > 0) {
+      final long lastTrim = lastTrimTime.get();
+      if (now - lastTrim > idleTime / 2 && lastTrimTime.compareAndSet(lastTrim, now)) {
+        trimIdle(idleTime);
+      }
+    }
+  }
+
+  /**
+   * Account a buffer that is going to be retained.
+   * @return false if retaining the buffer would exceed the limits
+   */
+  private boolean retain(final int index, final byte[] buffer) {
+    if (retainedCounts.incrementAndGet(index) > maxRetainedCounts.get(index)) {
+      retainedCounts.decrementAndGet(index);
+      return false;
+    }
+    if (retainedBytes.addAndGet(buffer.length) > maxRetainedBytes) {
+      forget(index, buffer);
+      return false;
+    }
+    return true;
+  }
+
+  /** Account a buffer that is not retained anymore. */
+  private void forget(final int index, final byte[] buffer) {
+    retainedCounts.decrementAndGet(index);
+    retainedBytes.addAndGet(-buffer.length);
+  }
+
+  /**
+   * Move buffers cached by threads that have died to the depots, buffers that do not fit are dropped.
+   * @return true if magazines of at least one dead thread were found
+   */
+  private boolean drainDeadMagazines() {
+    boolean found = false;
+    final Iterator<ThreadMagazines> iterator = allMagazines.iterator();
+    while (iterator.hasNext()) {
+      final ThreadMagazines threadMagazines = iterator.next();
+      if (!threadMagazines.isDead()) {
+        continue;
+      }
+      found = true;
+      iterator.remove();
+      for (int i = 0; i < CLASSES_COUNT; i++) {
+        byte[] buffer;
+        while ((buffer = threadMagazines.magazines[i].pop()) != null) {
+          if (!depots[i].offer(buffer)) {
+            forget(i, buffer);
+            evictedBuffersCount.incrementAndGet();
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Drop one retained buffer of the given size class.
+   * @return false if there was nothing to drop
+   */
+  private boolean evictOne(final int index) {
+    byte[] buffer = depots[index].poll();
+    if (buffer == null) {
+      final Iterator<ThreadMagazines> iterator = allMagazines.iterator();
+      while (buffer == null && iterator.hasNext()) {
+        buffer = iterator.next().magazines[index].pop();
+      }
+    }
+    if (buffer == null) {
+      return false;
+    }
+    forget(index, buffer);
+    evictedBuffersCount.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Drop retained buffers starting from size classes that have not been released to for the longest time
+   * until retained bytes count is not greater than {@code maxBytes}.
+   * @param maxBytes how many bytes may stay retained
+   */
+  public void trimToSize(final long maxBytes) {
+    drainDeadMagazines();
+    final Integer[] order = new Integer[CLASSES_COUNT];
+    for (int i = 0; i < CLASSES_COUNT; i++) {
+      order[i] = i;
+    }
+    final long[] times = new long[CLASSES_COUNT];
+    for (int i = 0; i < CLASSES_COUNT; i++) {
+      times[i] = releaseTimes.get(i);
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer lhs, final Integer rhs) {
+        final long l = times[lhs], r = times[rhs];
+        return l < r ? -1 : (l == r ? 0 : 1);
       }
-      bList.add(buffer);
+    });
 
-      usedBuffersCount--;
+    for (int i = 0; i < CLASSES_COUNT && retainedBytes.get() > maxBytes; i++) {
+      final int index = order[i];
+      //noinspection StatementWithEmptyBody
+      while (retainedBytes.get() > maxBytes && evictOne(index));
     }
+  }
 
+  /**
+   * Drop all the buffers of size classes that have not been released to for longer than {@code maxIdleTime}.
+   * @param maxIdleTime idle time in milliseconds
+   */
+  public void trimIdle(final long maxIdleTime) {
+    drainDeadMagazines();
+    final long margin = System.currentTimeMillis() - maxIdleTime;
+    for (int i = 0; i < CLASSES_COUNT; i++) {
+      if (releaseTimes.get(i) < margin) {
+        //noinspection StatementWithEmptyBody
+        while (evictOne(i));
+      }
+    }
   }
 
 
@@ -120,33 +443,113 @@ public class BuffersPool {
     this.strictMode = strictMode;
   }
 
-  public int getAllocatedBuffersCount() {
-    synchronized (lock) {
-      return allocatedBuffersCount;
+  /**
+   * Debugging aid: when enabled, streams obtained with {@code bufferizeUnsynchronized} write a warning
+   * to {@link System#err} if they are used by a thread other than the previous one without synchronization.
+   * Disabled by default.
+   * @param checkStreamOwners owner checks enabled flag
+   */
+  public void setCheckStreamOwners(final boolean checkStreamOwners) {
+    this.checkStreamOwners = checkStreamOwners;
+  }
+
+  /**
+   * Set the limit of bytes retained by this pool. Released buffers that do not fit it are left to GC.
+   * Already retained buffers are trimmed if required.
+   * @param maxRetainedBytes max count of retained bytes
+   */
+  public void setMaxRetainedBytes(final long maxRetainedBytes) {
+    this.maxRetainedBytes = maxRetainedBytes;
+    trimToSize(maxRetainedBytes);
+  }
+
+  /**
+   * Set the limit of retained buffers for the size class that serves requests of {@code bufferSize} bytes.
+   * The limit cannot exceed the capacity of the class depot plus buffers cached by threads.
+   * @param bufferSize requested buffer size
+   * @param count max count of retained buffers
+   */
+  public void setMaxRetainedBuffersCount(final int bufferSize, final int count) {
+    final int index = requestClassIndex(bufferSize);
+    if (index < 0) {
+      throw new IllegalArgumentException("Buffers of size " + bufferSize + " are not retained");
     }
+    maxRetainedCounts.set(index, count);
+    //noinspection StatementWithEmptyBody
+    while (retainedCounts.get(index) > count && evictOne(index));
   }
 
-  public int getUsedBuffersCount() {
-    synchronized (lock) {
-      return usedBuffersCount;
+  /**
+   * Set the limit of retained buffers for every size class.
+   * @param count max count of retained buffers in one size class
+   */
+  public void setMaxRetainedBuffersCount(final int count) {
+    for (int i = 0; i < CLASSES_COUNT; i++) {
+      setMaxRetainedBuffersCount(1 << (i + MIN_CLASS_SHIFT), count);
     }
   }
 
+  /**
+   * Enable automatic trimming: retained buffers of size classes that have not been used for
+   * {@code maxIdleTime} milliseconds are dropped.
+   * @param maxIdleTime idle time in milliseconds, 0 disables automatic trimming
+   */
+  public void setMaxIdleTime(final long maxIdleTime) {
+    this.maxIdleTime = maxIdleTime;
+  }
+
+  public long getMaxRetainedBytes() {
+    return maxRetainedBytes;
+  }
+
+  public int getAllocatedBuffersCount() {
+    return allocatedBuffersCount.get();
+  }
+
+  public int getUsedBuffersCount() {
+    return usedBuffersCount.get();
+  }
+
+  /** @return how many times a request was served with a retained buffer */
+  public int getHitCount() {
+    return hitCount.get();
+  }
+
+  /** @return how many times a request caused a new allocation */
+  public int getMissCount() {
+    return missCount.get();
+  }
+
+  /** @return count of bytes currently retained by this pool */
+  public long getRetainedBytes() {
+    return retainedBytes.get();
+  }
+
+  /** @return count of buffers that were dropped because of limits or trimming */
+  public int getEvictedBuffersCount() {
+    return evictedBuffersCount.get();
+  }
+
+  /**
+   * @return count of size classes that currently retain at least one buffer
+   */
   int getBuffersMapSize() {
-    synchronized (lock) {
-      return buffers.size();
+    int result = 0;
+    for (int i = 0; i < CLASSES_COUNT; i++) {
+      if (retainedCounts.get(i) > 0) {
+        result++;
+      }
     }
+    return result;
   }
 
 
   /**
-   * Clear all the retained buffers to free resources.
+   * Clear all the retained buffers to free resources, including buffers cached by other threads.
    * May be used in low memory conditions.
    */
   public void flush() {
-    synchronized (lock) {
-      buffers.clear();
-    }
+    trimToSize(0);
   }
 
 
@@ -188,4 +591,63 @@ public class BuffersPool {
     return new PoolableBufferedOutputStream(output, bufferSize, this);
   }
 
+  /**
+   * Wrap input stream into a buffered implementation that must be used by one thread only.
+   * Unlike {@link #bufferize(InputStream)} result does not take locks on every read.
+   * @param input input stream to wrap
+   * @return buffered input stream
+   */
+  public InputStream bufferizeUnsynchronized(final InputStream input) {
+    return bufferizeUnsynchronized(input, IoUtils.BUFFER_SIZE_8K);
+  }
+
+  /**
+   * Wrap output stream into a buffered implementation that must be used by one thread only.
+   * Unlike {@link #bufferize(OutputStream)} result does not take locks on every write.
+   * @param output output stream to wrap
+   * @return buffered output stream
+   */
+  public OutputStream bufferizeUnsynchronized(final OutputStream output) {
+    return bufferizeUnsynchronized(output, IoUtils.BUFFER_SIZE_8K);
+  }
+
+  /**
+   * Wrap input stream into a buffered implementation that must be used by one thread only.
+   * Concurrent use can be detected with {@link #setCheckStreamOwners(boolean)}.
+   * @param input input stream to wrap
+   * @param bufferSize buffer size
+   * @return buffered input stream
+   */
+  public InputStream bufferizeUnsynchronized(final InputStream input, final int bufferSize) {
+    return new SingleOwnerBufferedInputStream(input, bufferSize, this);
+  }
+
+  /**
+   * Wrap output stream into a buffered implementation that must be used by one thread only.
+   * Concurrent use can be detected with {@link #setCheckStreamOwners(boolean)}.
+   * @param output output stream to wrap
+   * @param bufferSize buffer size
+   * @return buffered output stream
+   */
+  public OutputStream bufferizeUnsynchronized(final OutputStream output, final int bufferSize) {
+    return new SingleOwnerBufferedOutputStream(output, bufferSize, this);
+  }
+
+  /** Magazines of one thread. */
+  private static final class ThreadMagazines extends WeakReference<Thread> {
+    /** Magazines, one per size class. */
+    final BuffersMagazine[] magazines;
+
+    ThreadMagazines(final Thread thread, final BuffersMagazine[] magazines) {
+      super(thread);
+      this.magazines = magazines;
+    }
+
+    /** @return whether magazines owner has finished */
+    boolean isDead() {
+      final Thread thread = get();
+      return thread == null || !thread.isAlive();
+    }
+  }
+
 }
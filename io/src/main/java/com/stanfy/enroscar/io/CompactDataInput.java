@@ -0,0 +1,191 @@
+package com.stanfy.enroscar.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads records written with {@link CompactDataOutput}.
+ * <p>
+ *   Use {@link #readFully(InputStream, BuffersPool)} to read a small stream into one pooled buffer
+ *   and {@link #release()} to return it. Instances are not thread safe.
+ * </p>
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+public final class CompactDataInput {
+
+  /** Buffers pool, may be null. */
+  private final BuffersPool pool;
+
+  /** Data. */
+  private byte[] buffer;
+  /** Current position. */
+  private int position;
+  /** Data limit. */
+  private final int limit;
+
+  /**
+   * @param data data array
+   * @param offset data offset
+   * @param length data length
+   */
+  public CompactDataInput(final byte[] data, final int offset, final int length) {
+    this(null, data, offset, length);
+  }
+
+  private CompactDataInput(final BuffersPool pool, final byte[] data, final int offset, final int length) {
+    this.pool = pool;
+    this.buffer = data;
+    this.position = offset;
+    this.limit = offset + length;
+  }
+
+  /**
+   * Read the whole stream into a pooled buffer. Input stream is not closed.
+   * @param input input stream, there is no need to bufferize it
+   * @param pool buffers pool, if it's null buffers are allocated
+   * @return data input
+   * @throws IOException if error happens
+   */
+  public static CompactDataInput readFully(final InputStream input, final BuffersPool pool) throws IOException {
+    byte[] buffer = pool != null ? pool.get(CompactDataOutput.DEFAULT_CAPACITY) : new byte[CompactDataOutput.DEFAULT_CAPACITY];
+    int count = 0;
+    try {
+      int read;
+      while ((read = input.read(buffer, count, buffer.length - count)) != -1) {
+        count += read;
+        if (count == buffer.length) {
+          final byte[] newBuffer = pool != null ? pool.get(buffer.length << 1) : new byte[buffer.length << 1];
+          System.arraycopy(buffer, 0, newBuffer, 0, count);
+          if (pool != null) {
+            pool.release(buffer);
+          }
+          buffer = newBuffer;
+        }
+      }
+    } catch (final IOException e) {
+      if (pool != null) {
+        pool.release(buffer);
+      }
+      throw e;
+    }
+    return new CompactDataInput(pool, buffer, 0, count);
+  }
+
+  /** @return count of bytes that are not read yet */
+  public int remaining() {
+    return limit - position;
+  }
+
+  /**
+   * @return next byte without advancing position
+   * @throws EOFException if there is no more data
+   */
+  public int peekByte() throws EOFException {
+    if (position >= limit) {
+      throw new EOFException();
+    }
+    return buffer[position] & 0xFF;
+  }
+
+  /**
+   * @return next byte
+   * @throws EOFException if there is no more data
+   */
+  public int readByte() throws EOFException {
+    if (position >= limit) {
+      throw new EOFException();
+    }
+    return buffer[position++] & 0xFF;
+  }
+
+  /**
+   * @return integer written with {@link CompactDataOutput#writeUnsignedVarInt(int)}
+   * @throws IOException if data is malformed
+   */
+  public int readUnsignedVarInt() throws IOException {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final int b = readByte();
+      result |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  /**
+   * @return integer written with {@link CompactDataOutput#writeVarInt(int)}
+   * @throws IOException if data is malformed
+   */
+  public int readVarInt() throws IOException {
+    final int raw = readUnsignedVarInt();
+    return (raw >>> 1) ^ -(raw & 1);
+  }
+
+  /**
+   * @return long integer written with {@link CompactDataOutput#writeVarLong(long)}
+   * @throws IOException if data is malformed
+   */
+  public long readVarLong() throws IOException {
+    long raw = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = readByte();
+      raw |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return (raw >>> 1) ^ -(raw & 1);
+      }
+    }
+    throw new IOException("Malformed varlong");
+  }
+
+  /**
+   * @return string written with {@link CompactDataOutput#writeString(String)}, may be null
+   * @throws IOException if data is malformed
+   */
+  public String readString() throws IOException {
+    final int length = readUnsignedVarInt();
+    if (length == 0) {
+      return null;
+    }
+    final int utfLength = length - 1;
+    if (utfLength < 0 || utfLength > remaining()) {
+      throw new EOFException();
+    }
+    final String result = new String(buffer, position, utfLength, IoUtils.UTF_8);
+    position += utfLength;
+    return result;
+  }
+
+  /**
+   * @param count count of bytes to skip
+   * @throws EOFException if there is not enough data
+   */
+  public void skip(final int count) throws EOFException {
+    if (count > remaining()) {
+      throw new EOFException();
+    }
+    position += count;
+  }
+
+  /**
+   * Stream is valid until this input is released.
+   * @return stream of data that are not read yet
+   */
+  public InputStream asInputStream() {
+    return new ByteArrayInputStream(buffer, position, remaining());
+  }
+
+  /**
+   * Return the buffer to the pool. This input cannot be used after this call.
+   */
+  public void release() {
+    if (pool != null && buffer != null) {
+      pool.release(buffer);
+    }
+    buffer = null;
+  }
+
+}
@@ -0,0 +1,194 @@
+package com.stanfy.enroscar.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes compact binary records: variable length integers and length-prefixed UTF-8 strings.
+ * <p>
+ *   Data is accumulated in a buffer taken from {@link BuffersPool} and written to a stream at once
+ *   with {@link #writeTo(OutputStream)}. Call {@link #release()} when the output is not needed anymore.
+ *   Instances are not thread safe.
+ * </p>
+ * @see CompactDataInput
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+public final class CompactDataOutput {
+
+  /** Default initial capacity. */
+  public static final int DEFAULT_CAPACITY = 512;
+
+  /** Buffers pool, may be null. */
+  private final BuffersPool pool;
+
+  /** Buffer. */
+  private byte[] buffer;
+  /** Count of written bytes. */
+  private int count;
+
+  /**
+   * @param pool buffers pool, if it's null buffers are allocated
+   */
+  public CompactDataOutput(final BuffersPool pool) {
+    this(pool, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param pool buffers pool, if it's null buffers are allocated
+   * @param initialCapacity initial buffer capacity
+   */
+  public CompactDataOutput(final BuffersPool pool, final int initialCapacity) {
+    this.pool = pool;
+    this.buffer = pool != null ? pool.get(initialCapacity) : new byte[initialCapacity];
+  }
+
+  private void ensureCapacity(final int required) {
+    final int capacity = count + required;
+    if (capacity <= buffer.length) {
+      return;
+    }
+    final int newCapacity = Math.max(capacity, buffer.length << 1);
+    final byte[] newBuffer = pool != null ? pool.get(newCapacity) : new byte[newCapacity];
+    System.arraycopy(buffer, 0, newBuffer, 0, count);
+    if (pool != null) {
+      pool.release(buffer);
+    }
+    buffer = newBuffer;
+  }
+
+  /**
+   * @param value byte to write
+   * @return this instance for chaining
+   */
+  public CompactDataOutput writeByte(final int value) {
+    ensureCapacity(1);
+    buffer[count++] = (byte) value;
+    return this;
+  }
+
+  /**
+   * Write an integer that is not expected to be negative (negative values take 5 bytes).
+   * @param value integer value
+   * @return this instance for chaining
+   */
+  public CompactDataOutput writeUnsignedVarInt(final int value) {
+    ensureCapacity(5);
+    final byte[] buffer = this.buffer;
+    int v = value;
+    while ((v & ~0x7F) != 0) {
+      buffer[count++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    buffer[count++] = (byte) v;
+    return this;
+  }
+
+  /**
+   * Write a signed integer, small absolute values take less space.
+   * @param value integer value
+   * @return this instance for chaining
+   */
+  public CompactDataOutput writeVarInt(final int value) {
+    return writeUnsignedVarInt((value << 1) ^ (value >> 31));
+  }
+
+  /**
+   * Write a signed long integer, small absolute values take less space.
+   * @param value long value
+   * @return this instance for chaining
+   */
+  public CompactDataOutput writeVarLong(final long value) {
+    ensureCapacity(10);
+    final byte[] buffer = this.buffer;
+    long v = (value << 1) ^ (value >> 63);
+    while ((v & ~0x7FL) != 0) {
+      buffer[count++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    buffer[count++] = (byte) v;
+    return this;
+  }
+
+  /**
+   * Write a string as its UTF-8 length and bytes. Null value is supported.
+   * @param value string value, may be null
+   * @return this instance for chaining
+   */
+  public CompactDataOutput writeString(final String value) {
+    if (value == null) {
+      return writeUnsignedVarInt(0);
+    }
+
+    final int length = value.length();
+    int utfLength = 0;
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        utfLength++;
+      } else if (c < 0x800) {
+        utfLength += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        utfLength += 4;
+        i++;
+      } else {
+        utfLength += 3;
+      }
+    }
+
+    writeUnsignedVarInt(utfLength + 1);
+    ensureCapacity(utfLength);
+    final byte[] buffer = this.buffer;
+    int pos = count;
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[pos++] = (byte) (0xC0 | (c >> 6));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer[pos++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        buffer[pos++] = (byte) (0xE0 | (c >> 12));
+        buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    count = pos;
+    return this;
+  }
+
+  /** @return count of written bytes */
+  public int size() {
+    return count;
+  }
+
+  /** Forget written data. */
+  public void reset() {
+    count = 0;
+  }
+
+  /**
+   * @param output stream to write accumulated data to
+   * @throws IOException if error happens
+   */
+  public void writeTo(final OutputStream output) throws IOException {
+    output.write(buffer, 0, count);
+  }
+
+  /**
+   * Return the buffer to the pool. This output cannot be used after this call.
+   */
+  public void release() {
+    if (pool != null && buffer != null) {
+      pool.release(buffer);
+    }
+    buffer = null;
+    count = 0;
+  }
+
+}
@@ -0,0 +1,194 @@
+package com.stanfy.enroscar.io;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hex-encoded digests of strings that can be used as file names, e.g. as cache keys.
+ * <p>
+ *   Digest instances and work buffers are kept per thread, so the only allocation of a call
+ *   is the result string.
+ * </p>
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+public final class Digests {
+
+  /** Length of 128-bit digest in hex. */
+  public static final int HEX_128_LENGTH = 32;
+
+  /** Hex digits. */
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /** Initial size of the UTF-8 buffer. */
+  private static final int UTF8_BUFFER_SIZE = 256;
+
+  /** Murmur3 constants. */
+  private static final long C1 = 0x87c37b91114253d5L, C2 = 0x4cf5ad432745937fL;
+
+  /** Per thread state. */
+  private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+    @Override
+    protected State initialValue() {
+      return new State();
+    }
+  };
+
+  private Digests() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @param text input text
+   * @return 32 characters of MD5 digest of UTF-8 representation of the text
+   */
+  public static String md5Hex(final String text) {
+    final State state = STATE.get();
+    final int length = state.encode(text);
+    final MessageDigest md5 = state.md5();
+    md5.update(state.utf8, 0, length);
+    final byte[] digest = md5.digest();
+    final char[] hex = state.hex;
+    for (int i = 0; i < digest.length; i++) {
+      hex[i << 1] = HEX[(digest[i] >> 4) & 0xF];
+      hex[(i << 1) + 1] = HEX[digest[i] & 0xF];
+    }
+    return new String(hex, 0, HEX_128_LENGTH);
+  }
+
+  /**
+   * Non-cryptographic hash: much faster than MD5 and has the same length.
+   * @param text input text
+   * @return 32 characters of 128-bit MurmurHash3 (x64 variant) of UTF-8 representation of the text
+   */
+  public static String murmur3Hex128(final String text) {
+    final State state = STATE.get();
+    final int length = state.encode(text);
+    final byte[] data = state.utf8;
+
+    long h1 = 0, h2 = 0;
+    final int blocksEnd = length & ~15;
+    for (int i = 0; i < blocksEnd; i += 16) {
+      long k1 = getLong(data, i);
+      long k2 = getLong(data, i + 8);
+
+      k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+      h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+      k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+      h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    long k1 = 0, k2 = 0;
+    final int tail = length - blocksEnd;
+    for (int i = tail - 1; i >= 8; i--) {
+      k2 ^= (long) (data[blocksEnd + i] & 0xFF) << ((i - 8) << 3);
+    }
+    if (tail > 8) {
+      k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+    }
+    for (int i = Math.min(tail, 8) - 1; i >= 0; i--) {
+      k1 ^= (long) (data[blocksEnd + i] & 0xFF) << (i << 3);
+    }
+    if (tail > 0) {
+      k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+    }
+
+    h1 ^= length; h2 ^= length;
+    h1 += h2; h2 += h1;
+    h1 = fmix(h1); h2 = fmix(h2);
+    h1 += h2; h2 += h1;
+
+    final char[] hex = state.hex;
+    putHex(hex, 0, h1);
+    putHex(hex, 16, h2);
+    return new String(hex, 0, HEX_128_LENGTH);
+  }
+
+  private static long getLong(final byte[] data, final int offset) {
+    return (data[offset] & 0xFFL)
+        | (data[offset + 1] & 0xFFL) << 8
+        | (data[offset + 2] & 0xFFL) << 16
+        | (data[offset + 3] & 0xFFL) << 24
+        | (data[offset + 4] & 0xFFL) << 32
+        | (data[offset + 5] & 0xFFL) << 40
+        | (data[offset + 6] & 0xFFL) << 48
+        | (data[offset + 7] & 0xFFL) << 56;
+  }
+
+  private static long fmix(final long value) {
+    long k = value;
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  /** Write bytes of the value in little-endian order. */
+  private static void putHex(final char[] hex, final int offset, final long value) {
+    for (int i = 0; i < 8; i++) {
+      final int b = (int) (value >>> (i << 3)) & 0xFF;
+      hex[offset + (i << 1)] = HEX[b >> 4];
+      hex[offset + (i << 1) + 1] = HEX[b & 0xF];
+    }
+  }
+
+  /** Per thread digest state. */
+  private static final class State {
+    /** MD5 digest. */
+    private MessageDigest md5;
+    /** UTF-8 bytes. */
+    byte[] utf8 = new byte[UTF8_BUFFER_SIZE];
+    /** Hex chars. */
+    final char[] hex = new char[HEX_128_LENGTH];
+
+    MessageDigest md5() {
+      if (md5 == null) {
+        try {
+          md5 = MessageDigest.getInstance("MD5");
+        } catch (final NoSuchAlgorithmException e) {
+          throw new AssertionError(e);
+        }
+      }
+      return md5;
+    }
+
+    /**
+     * Put UTF-8 bytes of the text to {@link #utf8}.
+     * @return count of bytes
+     */
+    int encode(final String text) {
+      final int length = text.length();
+      if (utf8.length < length << 2) {
+        utf8 = new byte[length << 2];
+      }
+      final byte[] buffer = utf8;
+      int pos = 0;
+      for (int i = 0; i < length; i++) {
+        final char c = text.charAt(i);
+        if (c < 0x80) {
+          buffer[pos++] = (byte) c;
+        } else if (c < 0x800) {
+          buffer[pos++] = (byte) (0xC0 | (c >> 6));
+          buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+          final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+          buffer[pos++] = (byte) (0xF0 | (codePoint >> 18));
+          buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+          buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+          buffer[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+          // unpaired surrogate, String.getBytes replaces it with '?'
+          buffer[pos++] = '?';
+        } else {
+          buffer[pos++] = (byte) (0xE0 | (c >> 12));
+          buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+      return pos;
+    }
+  }
+
+}
@@ -0,0 +1,170 @@
+package com.stanfy.enroscar.io;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct {@link ByteBuffer}s for NIO channel operations.
+ * <p>
+ *   Direct memory is allocated with big arenas which are sliced into slabs of the same size.
+ *   Leased slabs are returned with {@link #release(ByteBuffer)}. When all the arenas are leased and
+ *   the arenas limit is reached, heap buffers are returned instead; they are not retained.
+ *   Releases of buffers that are not leased from this pool (or are released twice) are ignored.
+ * </p>
+ * @see IoUtils#transfer(java.nio.channels.ReadableByteChannel, java.nio.channels.WritableByteChannel, DirectBuffersPool)
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+public class DirectBuffersPool {
+
+  /** Default slab size: 64 KB. */
+  public static final int SLAB_SIZE_DEFAULT = 64 * 1024;
+  /** Default arena size: 1 MB. */
+  public static final int ARENA_SIZE_DEFAULT = 1024 * 1024;
+  /** Default limit of arenas. */
+  public static final int MAX_ARENAS_COUNT_DEFAULT = 4;
+
+  /** Slab size. */
+  private final int slabSize;
+  /** Slabs in one arena. */
+  private final int slabsPerArena;
+  /** Max count of arenas. */
+  private final int maxArenasCount;
+
+  /** Free slabs. */
+  private final BuffersDepot<ByteBuffer> slabs;
+
+  /** Leased slabs, compared by identity. Guarded by itself. */
+  private final Set<ByteBuffer> leased = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+
+  /** Protects arenas allocation. */
+  private final Object arenasLock = new Object();
+
+  /** Stats counter. */
+  private final AtomicInteger arenasCount = new AtomicInteger(),
+                              leasedCount = new AtomicInteger(),
+                              heapFallbacksCount = new AtomicInteger(),
+                              rejectedReleasesCount = new AtomicInteger();
+
+  public DirectBuffersPool() {
+    this(SLAB_SIZE_DEFAULT, ARENA_SIZE_DEFAULT, MAX_ARENAS_COUNT_DEFAULT);
+  }
+
+  /**
+   * @param slabSize size of one leased buffer
+   * @param arenaSize size of direct memory block allocated at once, must be a multiple of {@code slabSize}
+   * @param maxArenasCount max count of arenas that can be allocated
+   */
+  public DirectBuffersPool(final int slabSize, final int arenaSize, final int maxArenasCount) {
+    if (slabSize <= 0 || arenaSize < slabSize || arenaSize % slabSize != 0) {
+      throw new IllegalArgumentException("Arena size must be a positive multiple of slab size");
+    }
+    if (maxArenasCount <= 0) {
+      throw new IllegalArgumentException("Max arenas count must be positive");
+    }
+    this.slabSize = slabSize;
+    this.slabsPerArena = arenaSize / slabSize;
+    this.maxArenasCount = maxArenasCount;
+    this.slabs = new BuffersDepot<ByteBuffer>(slabsPerArena * maxArenasCount);
+  }
+
+  /** @return size of buffers returned by {@link #get()} */
+  public int getSlabSize() {
+    return slabSize;
+  }
+
+  /**
+   * @return cleared buffer with capacity equal to slab size; it is direct unless the pool is exhausted
+   */
+  public ByteBuffer get() {
+    ByteBuffer result = slabs.poll();
+    if (result == null) {
+      result = allocateArena();
+    }
+    if (result == null) {
+      heapFallbacksCount.incrementAndGet();
+      return ByteBuffer.allocate(slabSize);
+    }
+    synchronized (leased) {
+      leased.add(result);
+    }
+    leasedCount.incrementAndGet();
+    result.clear();
+    return result;
+  }
+
+  /**
+   * Return the buffer to the pool.
+   * @param buffer buffer obtained with {@link #get()}, may be null
+   */
+  public void release(final ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect()) {
+      return;
+    }
+    final boolean removed;
+    synchronized (leased) {
+      removed = leased.remove(buffer);
+    }
+    if (!removed) {
+      // foreign buffer or double release: it must not get to the free list
+      rejectedReleasesCount.incrementAndGet();
+      return;
+    }
+    leasedCount.decrementAndGet();
+    slabs.offer(buffer);
+  }
+
+  /**
+   * Allocate a new arena and put all but one its slabs to the free list.
+   * @return a slab from the new arena or from the free list, null if limit is reached
+   */
+  private ByteBuffer allocateArena() {
+    synchronized (arenasLock) {
+      // other thread could have allocated an arena
+      final ByteBuffer free = slabs.poll();
+      if (free != null) {
+        return free;
+      }
+      if (arenasCount.get() >= maxArenasCount) {
+        return null;
+      }
+
+      final ByteBuffer arena = ByteBuffer.allocateDirect(slabsPerArena * slabSize);
+      arenasCount.incrementAndGet();
+      ByteBuffer result = null;
+      for (int i = 0; i < slabsPerArena; i++) {
+        arena.limit((i + 1) * slabSize).position(i * slabSize);
+        final ByteBuffer slab = arena.slice();
+        if (result == null) {
+          result = slab;
+        } else {
+          slabs.offer(slab);
+        }
+      }
+      return result;
+    }
+  }
+
+  /** @return count of allocated direct memory arenas */
+  public int getArenasCount() {
+    return arenasCount.get();
+  }
+
+  /** @return count of direct buffers that are currently leased */
+  public int getLeasedCount() {
+    return leasedCount.get();
+  }
+
+  /** @return how many times a heap buffer was returned because the pool was exhausted */
+  public int getHeapFallbacksCount() {
+    return heapFallbacksCount.get();
+  }
+
+  /** @return count of ignored releases of direct buffers that were not leased from this pool */
+  public int getRejectedReleasesCount() {
+    return rejectedReleasesCount.get();
+  }
+
+}
@@ -0,0 +1,368 @@
+package com.stanfy.enroscar.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Extracts image format, dimensions and EXIF orientation from the first bytes of JPEG, PNG, GIF and WebP images
+ * without decoding them.
+ * <p>
+ *   Call {@link #parse(byte[], int)} with the image prefix. If it returns {@link #RESULT_NEED_MORE_DATA},
+ *   read more bytes and call it again with the longer prefix.
+ *   Or call {@link #parse(InputStream, byte[], long)} that reads the stream itself and skips JPEG segments
+ *   that precede the frame header, so the header is found even after big EXIF, XMP or ICC segments.
+ *   Instances are reusable and not thread safe.
+ * </p>
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+public final class ImageHeaderParser {
+
+  /** Parse result: header is parsed. */
+  public static final int RESULT_OK = 0;
+  /** Parse result: header is not complete. */
+  public static final int RESULT_NEED_MORE_DATA = 1;
+  /** Parse result: format is not supported or data is malformed. */
+  public static final int RESULT_UNKNOWN = 2;
+
+  /** Formats. */
+  public static final int FORMAT_UNKNOWN = 0, FORMAT_JPEG = 1, FORMAT_PNG = 2, FORMAT_GIF = 3, FORMAT_WEBP = 4;
+
+  /** Normal EXIF orientation: also used when orientation is not specified. */
+  public static final int ORIENTATION_NORMAL = 1;
+
+  /** MIME types by format. */
+  private static final String[] MIME_TYPES = {null, "image/jpeg", "image/png", "image/gif", "image/webp"};
+
+  /** JPEG markers. */
+  private static final int MARKER_SOI = 0xD8, MARKER_EOI = 0xD9, MARKER_SOS = 0xDA, MARKER_APP1 = 0xE1, MARKER_TEM = 0x01,
+                           MARKER_RST0 = 0xD0, MARKER_RST7 = 0xD7;
+  /** EXIF orientation tag. */
+  private static final int TAG_ORIENTATION = 0x0112;
+  /** Size of TIFF IFD entry. */
+  private static final int IFD_ENTRY_SIZE = 12;
+
+  /** Minimal header sizes. */
+  private static final int PNG_HEADER = 24, GIF_HEADER = 10, WEBP_CHUNK_HEADER = 16,
+                           WEBP_LOSSY_HEADER = 30, WEBP_LOSSLESS_HEADER = 25, WEBP_EXTENDED_HEADER = 30;
+  /** Size of the prefix that contains headers of all the formats except JPEG. */
+  public static final int MIN_BUFFER_SIZE = 32;
+  /** Size of JPEG frame header part that contains dimensions: precision, height, width. */
+  private static final int JPEG_FRAME_DIMENSIONS = 5;
+
+  /** Parsed format. */
+  private int format;
+  /** Parsed dimensions. */
+  private int width, height;
+  /** Parsed orientation. */
+  private int orientation;
+
+  /** @return parsed format, one of {@code FORMAT_*} constants */
+  public int getFormat() { return format; }
+
+  /** @return MIME type of the parsed format, null if format is unknown */
+  public String getMimeType() { return MIME_TYPES[format]; }
+
+  /** @return stored image width, orientation is not applied */
+  public int getWidth() { return width; }
+
+  /** @return stored image height, orientation is not applied */
+  public int getHeight() { return height; }
+
+  /** @return EXIF orientation (1-8), {@link #ORIENTATION_NORMAL} if it is not specified */
+  public int getOrientation() { return orientation; }
+
+  /**
+   * @param data image data prefix
+   * @param length length of available data
+   * @return one of {@code RESULT_*} constants
+   */
+  public int parse(final byte[] data, final int length) {
+    clear();
+    if (length < 2) { return RESULT_NEED_MORE_DATA; }
+
+    if (u8(data, 0) == 0xFF && u8(data, 1) == MARKER_SOI) {
+      return parseJpeg(data, length);
+    }
+    if (startsWith(data, length, 0, "\u0089PNG")) {
+      return parsePng(data, length);
+    }
+    if (startsWith(data, length, 0, "GIF8")) {
+      return parseGif(data, length);
+    }
+    if (startsWith(data, length, 0, "RIFF")) {
+      return parseWebp(data, length);
+    }
+    return length < 4 ? RESULT_NEED_MORE_DATA : RESULT_UNKNOWN;
+  }
+
+  /**
+   * Read image header from the stream. JPEG segments that cannot contain dimensions or orientation
+   * are skipped with {@link InputStream#skip(long)}. Stream position is not restored.
+   * @param in image stream
+   * @param buffer buffer for read data, at least {@link #MIN_BUFFER_SIZE} bytes;
+   *               JPEG EXIF segments that do not fit into it are skipped
+   * @param maxLength max count of bytes consumed from the stream
+   * @return {@link #RESULT_OK} or {@link #RESULT_UNKNOWN} if format is not supported, data is malformed
+   *         or header is not found within {@code maxLength} bytes
+   * @throws IOException if error happens
+   */
+  public int parse(final InputStream in, final byte[] buffer, final long maxLength) throws IOException {
+    if (buffer.length < MIN_BUFFER_SIZE) {
+      throw new IllegalArgumentException("Buffer is too small: " + buffer.length);
+    }
+    clear();
+    if (maxLength < 2 || readFully(in, buffer, 2) < 2) { return RESULT_UNKNOWN; }
+    if (u8(buffer, 0) == 0xFF && u8(buffer, 1) == MARKER_SOI) {
+      return parseJpeg(in, buffer, maxLength);
+    }
+    final int prefix = (int) Math.min(MIN_BUFFER_SIZE, maxLength);
+    final int result = parse(buffer, 2 + readFully(in, buffer, 2, prefix - 2));
+    return result == RESULT_NEED_MORE_DATA ? RESULT_UNKNOWN : result;
+  }
+
+  private void clear() {
+    format = FORMAT_UNKNOWN;
+    width = 0;
+    height = 0;
+    orientation = ORIENTATION_NORMAL;
+  }
+
+  private int parsePng(final byte[] data, final int length) {
+    if (length < PNG_HEADER) { return RESULT_NEED_MORE_DATA; }
+    if (!startsWith(data, length, 12, "IHDR")) { return RESULT_UNKNOWN; }
+    return result(FORMAT_PNG, s32be(data, 16), s32be(data, 20));
+  }
+
+  private int parseGif(final byte[] data, final int length) {
+    if (length < GIF_HEADER) { return RESULT_NEED_MORE_DATA; }
+    return result(FORMAT_GIF, u16le(data, 6), u16le(data, 8));
+  }
+
+  private int parseWebp(final byte[] data, final int length) {
+    if (length < WEBP_CHUNK_HEADER) { return RESULT_NEED_MORE_DATA; }
+    if (!startsWith(data, length, 8, "WEBP")) { return RESULT_UNKNOWN; }
+    if (startsWith(data, length, 12, "VP8 ")) {
+      if (length < WEBP_LOSSY_HEADER) { return RESULT_NEED_MORE_DATA; }
+      // lossy: 3 bytes of frame tag, 3 bytes of start code, then 14 bits of each dimension
+      if (u8(data, 23) != 0x9D || u8(data, 24) != 0x01 || u8(data, 25) != 0x2A) { return RESULT_UNKNOWN; }
+      return result(FORMAT_WEBP, u16le(data, 26) & 0x3FFF, u16le(data, 28) & 0x3FFF);
+    }
+    if (startsWith(data, length, 12, "VP8L")) {
+      if (length < WEBP_LOSSLESS_HEADER) { return RESULT_NEED_MORE_DATA; }
+      // lossless: signature byte, then 14 bits of each dimension minus one
+      if (u8(data, 20) != 0x2F) { return RESULT_UNKNOWN; }
+      final int bits = u8(data, 21) | u8(data, 22) << 8 | u8(data, 23) << 16 | u8(data, 24) << 24;
+      return result(FORMAT_WEBP, (bits & 0x3FFF) + 1, ((bits >> 14) & 0x3FFF) + 1);
+    }
+    if (startsWith(data, length, 12, "VP8X")) {
+      if (length < WEBP_EXTENDED_HEADER) { return RESULT_NEED_MORE_DATA; }
+      // extended: 24 bits of each canvas dimension minus one
+      return result(FORMAT_WEBP, u24le(data, 24) + 1, u24le(data, 27) + 1);
+    }
+    return RESULT_UNKNOWN;
+  }
+
+  private int parseJpeg(final byte[] data, final int length) {
+    int orientation = ORIENTATION_NORMAL;
+    int pos = 2;
+    while (true) {
+      // skip fill bytes
+      while (pos < length && u8(data, pos) == 0xFF && pos + 1 < length && u8(data, pos + 1) == 0xFF) {
+        pos++;
+      }
+      if (pos + 1 >= length) { return RESULT_NEED_MORE_DATA; }
+      if (u8(data, pos) != 0xFF) { return RESULT_UNKNOWN; }
+      final int marker = u8(data, pos + 1);
+      pos += 2;
+      if (marker == MARKER_TEM || (marker >= MARKER_RST0 && marker <= MARKER_RST7)) {
+        continue;
+      }
+      if (marker == MARKER_SOS || marker == MARKER_EOI) {
+        // image data started, but there was no frame header
+        return RESULT_UNKNOWN;
+      }
+      if (pos + 2 > length) { return RESULT_NEED_MORE_DATA; }
+      final int segmentLength = u16be(data, pos);
+      if (segmentLength < 2) { return RESULT_UNKNOWN; }
+
+      if (isStartOfFrame(marker)) {
+        // length, precision, height, width
+        if (pos + 7 > length) { return RESULT_NEED_MORE_DATA; }
+        final int result = result(FORMAT_JPEG, u16be(data, pos + 5), u16be(data, pos + 3));
+        this.orientation = orientation;
+        return result;
+      }
+      if (marker == MARKER_APP1) {
+        if (pos + segmentLength > length) { return RESULT_NEED_MORE_DATA; }
+        final int exifOrientation = parseExifOrientation(data, pos + 2, segmentLength - 2);
+        if (exifOrientation != 0) {
+          orientation = exifOrientation;
+        }
+      }
+      pos += segmentLength;
+    }
+  }
+
+  private int parseJpeg(final InputStream in, final byte[] buffer, final long maxLength) throws IOException {
+    int orientation = ORIENTATION_NORMAL;
+    long position = 2;
+    while (true) {
+      if (position + 2 > maxLength || in.read() != 0xFF) { return RESULT_UNKNOWN; }
+      position++;
+      // skip fill bytes
+      int marker;
+      do {
+        marker = in.read();
+        position++;
+      } while (marker == 0xFF && position < maxLength);
+      if (marker == -1 || marker == 0xFF) { return RESULT_UNKNOWN; }
+      if (marker == MARKER_TEM || (marker >= MARKER_RST0 && marker <= MARKER_RST7)) {
+        continue;
+      }
+      if (marker == MARKER_SOS || marker == MARKER_EOI) {
+        // image data started, but there was no frame header
+        return RESULT_UNKNOWN;
+      }
+      if (position + 2 > maxLength || readFully(in, buffer, 2) < 2) { return RESULT_UNKNOWN; }
+      position += 2;
+      final int segmentLength = u16be(buffer, 0);
+      if (segmentLength < 2) { return RESULT_UNKNOWN; }
+      final int dataLength = segmentLength - 2;
+
+      if (isStartOfFrame(marker)) {
+        if (position + JPEG_FRAME_DIMENSIONS > maxLength
+            || readFully(in, buffer, JPEG_FRAME_DIMENSIONS) < JPEG_FRAME_DIMENSIONS) {
+          return RESULT_UNKNOWN;
+        }
+        final int result = result(FORMAT_JPEG, u16be(buffer, 3), u16be(buffer, 1));
+        this.orientation = orientation;
+        return result;
+      }
+      if (position + dataLength > maxLength) { return RESULT_UNKNOWN; }
+      if (marker == MARKER_APP1 && dataLength <= buffer.length) {
+        if (readFully(in, buffer, dataLength) < dataLength) { return RESULT_UNKNOWN; }
+        final int exifOrientation = parseExifOrientation(buffer, 0, dataLength);
+        if (exifOrientation != 0) {
+          orientation = exifOrientation;
+        }
+      } else if (skipFully(in, dataLength) < dataLength) {
+        return RESULT_UNKNOWN;
+      }
+      position += dataLength;
+    }
+  }
+
+  private static int readFully(final InputStream in, final byte[] buffer, final int count) throws IOException {
+    return readFully(in, buffer, 0, count);
+  }
+
+  private static int readFully(final InputStream in, final byte[] buffer, final int offset, final int count)
+      throws IOException {
+    int total = 0;
+    while (total < count) {
+      final int read = in.read(buffer, offset + total, count - total);
+      if (read == -1) { break; }
+      total += read;
+    }
+    return total;
+  }
+
+  private static long skipFully(final InputStream in, final long count) throws IOException {
+    long remaining = count;
+    while (remaining > 0) {
+      final long skipped = in.skip(remaining);
+      if (skipped > 0) {
+        remaining -= skipped;
+      } else if (in.read() == -1) {
+        break;
+      } else {
+        remaining--;
+      }
+    }
+    return count - remaining;
+  }
+
+  private static boolean isStartOfFrame(final int marker) {
+    // SOF0-SOF15 except DHT (C4), JPG (C8) and DAC (CC)
+    return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+  }
+
+  /**
+   * @return orientation or 0 if it's not found
+   */
+  private static int parseExifOrientation(final byte[] data, final int offset, final int length) {
+    final int end = offset + length;
+    if (length < 14 || !startsWith(data, end, offset, "Exif\u0000\u0000")) { return 0; }
+    final int tiff = offset + 6;
+    final boolean littleEndian;
+    if (u8(data, tiff) == 'I' && u8(data, tiff + 1) == 'I') {
+      littleEndian = true;
+    } else if (u8(data, tiff) == 'M' && u8(data, tiff + 1) == 'M') {
+      littleEndian = false;
+    } else {
+      return 0;
+    }
+    final long ifdOffset = u32(data, tiff + 4, littleEndian);
+    if (ifdOffset < 8 || tiff + ifdOffset + 2 > end) { return 0; }
+    final int ifd = tiff + (int) ifdOffset;
+    final int count = u16(data, ifd, littleEndian);
+    for (int i = 0; i < count; i++) {
+      final int entry = ifd + 2 + i * IFD_ENTRY_SIZE;
+      if (entry + IFD_ENTRY_SIZE > end) { return 0; }
+      if (u16(data, entry, littleEndian) == TAG_ORIENTATION) {
+        final int value = u16(data, entry + 8, littleEndian);
+        return value >= 1 && value <= 8 ? value : 0;
+      }
+    }
+    return 0;
+  }
+
+  private int result(final int format, final int width, final int height) {
+    if (width <= 0 || height <= 0) { return RESULT_UNKNOWN; }
+    this.format = format;
+    this.width = width;
+    this.height = height;
+    return RESULT_OK;
+  }
+
+  private static boolean startsWith(final byte[] data, final int length, final int offset, final String prefix) {
+    final int count = prefix.length();
+    if (offset + count > length) { return false; }
+    for (int i = 0; i < count; i++) {
+      if (u8(data, offset + i) != prefix.charAt(i)) { return false; }
+    }
+    return true;
+  }
+
+  private static int u8(final byte[] data, final int offset) {
+    return data[offset] & 0xFF;
+  }
+
+  private static int u16be(final byte[] data, final int offset) {
+    return u8(data, offset) << 8 | u8(data, offset + 1);
+  }
+
+  private static int u16le(final byte[] data, final int offset) {
+    return u8(data, offset) | u8(data, offset + 1) << 8;
+  }
+
+  private static int u24le(final byte[] data, final int offset) {
+    return u8(data, offset) | u8(data, offset + 1) << 8 | u8(data, offset + 2) << 16;
+  }
+
+  private static int s32be(final byte[] data, final int offset) {
+    return u8(data, offset) << 24 | u8(data, offset + 1) << 16 | u8(data, offset + 2) << 8 | u8(data, offset + 3);
+  }
+
+  private static int u16(final byte[] data, final int offset, final boolean littleEndian) {
+    return littleEndian ? u16le(data, offset) : u16be(data, offset);
+  }
+
+  private static long u32(final byte[] data, final int offset, final boolean littleEndian) {
+    final long value = littleEndian
+        ? u16le(data, offset) | (long) u16le(data, offset + 2) << 16
+        : (long) u16be(data, offset) << 16 | u16be(data, offset + 2);
+    return value & 0xFFFFFFFFL;
+  }
+
+}
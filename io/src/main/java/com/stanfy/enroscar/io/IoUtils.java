@@ -3,10 +3,16 @@ package com.stanfy.enroscar.io;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
@@ -39,6 +45,9 @@ public final class IoUtils {
   /** 16K. */
   public static final int BUFFER_SIZE_16K = 16 * 1024;
 
+  /** Max count of bytes sent with one {@link FileChannel#transferTo(long, long, WritableByteChannel)} call. */
+  private static final long FILE_TRANSFER_CHUNK = 1024 * 1024;
+
   /** End of file code. */
   private static final int EOF = -1;
 
@@ -93,6 +102,12 @@ public final class IoUtils {
    * Transfers all the bytes from input to output stream.
    * If read/write operations are successful, output stream will be flushed.
    * Input stream is always closed after this method invocation.
+   * <p>
+   *   If both streams are backed by files (possibly wrapped with {@link PoolableBufferedInputStream},
+   *   {@link PoolableBufferedOutputStream}, {@link ProgressListenerInputStream} or
+   *   {@link ProgressListenerOutputStream}), bytes are moved with {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+   *   without copying them to the Java heap. Progress listeners are still notified.
+   * </p>
    *
    * @param input input stream
    * @param output output stream
@@ -100,6 +115,17 @@ public final class IoUtils {
    * @throws IOException if an error happens
    */
   public static void transfer(final InputStream input, final OutputStream output, final BuffersPool buffersPool) throws IOException {
+    try {
+      if (transferFiles(input, output)) {
+        output.flush();
+        closeQuietly(input);
+        return;
+      }
+    } catch (final IOException e) {
+      closeQuietly(input);
+      throw e;
+    }
+
     final InputStream in = buffersPool == null
         ? new BufferedInputStream(input, BUFFER_SIZE_8K)
         : new PoolableBufferedInputStream(input, BUFFER_SIZE_8K, buffersPool);
@@ -123,6 +149,67 @@ public final class IoUtils {
     }
   }
 
+  /**
+   * Transfer bytes between file streams using channels.
+   * @param input input stream
+   * @param output output stream
+   * @return true if all the bytes have been transferred, false if streams are not file based
+   *         or the transfer has stopped before the end of input file
+   * @throws IOException if an error happens
+   */
+  private static boolean transferFiles(final InputStream input, final OutputStream output) throws IOException {
+    InputStream source = input;
+    ProgressListenerInputStream inputProgress = null;
+    while (!(source instanceof FileInputStream)) {
+      if (source instanceof PoolableBufferedInputStream) {
+        source = ((PoolableBufferedInputStream) source).unbufferedSource();
+      } else if (source instanceof ProgressListenerInputStream && inputProgress == null) {
+        inputProgress = (ProgressListenerInputStream) source;
+        source = inputProgress.source();
+      } else {
+        return false;
+      }
+    }
+
+    OutputStream target = output;
+    ProgressListenerOutputStream outputProgress = null;
+    while (!(target instanceof FileOutputStream)) {
+      if (target instanceof PoolableBufferedOutputStream) {
+        target = ((PoolableBufferedOutputStream) target).flushBuffer();
+      } else if (target instanceof ProgressListenerOutputStream && outputProgress == null) {
+        outputProgress = (ProgressListenerOutputStream) target;
+        target = outputProgress.source();
+      } else {
+        return false;
+      }
+    }
+
+    final FileChannel in = ((FileInputStream) source).getChannel();
+    final FileChannel out = ((FileOutputStream) target).getChannel();
+    long position = in.position();
+    final long size = in.size();
+    if (position >= size) {
+      // nothing to send or size is unknown (e.g. special files)
+      return false;
+    }
+    while (position < size) {
+      final long count = in.transferTo(position, Math.min(size - position, FILE_TRANSFER_CHUNK), out);
+      if (count <= 0) {
+        // let the streams path continue from here
+        return false;
+      }
+      position += count;
+      in.position(position);
+      if (inputProgress != null) {
+        inputProgress.trackProgress(count);
+      }
+      if (outputProgress != null) {
+        outputProgress.trackProgress(count);
+      }
+    }
+    return true;
+  }
+
   /**
    * Consume the stream and close it.
    * This implementation calls {@link InputStream#read(byte[])} method and ignores any read bytes.
@@ -149,6 +236,73 @@ public final class IoUtils {
 
   }
 
+  /**
+   * Transfers all the bytes from input to output channel using a direct buffer, so that data do not go
+   * through the Java heap.
+   * Input channel is always closed after this method invocation, output channel is left open.
+   *
+   * @param input input channel
+   * @param output output channel
+   * @param buffersPool direct buffers pool, may be null
+   * @return count of transferred bytes
+   * @throws IOException if an error happens
+   */
+  public static long transfer(final ReadableByteChannel input, final WritableByteChannel output,
+                              final DirectBuffersPool buffersPool) throws IOException {
+    final ByteBuffer buffer = buffersPool == null
+        ? ByteBuffer.allocateDirect(BUFFER_SIZE_16K)
+        : buffersPool.get();
+
+    long total = 0;
+    try {
+      while (input.read(buffer) != EOF) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          total += output.write(buffer);
+        }
+        buffer.clear();
+      }
+      return total;
+    } finally {
+      closeQuietly(input);
+
+      if (buffersPool != null) {
+        buffersPool.release(buffer);
+      }
+    }
+  }
+
+  /**
+   * Consume the channel and close it.
+   * This implementation reads the channel into a direct buffer and ignores any read bytes.
+   *
+   * @param input input channel
+   * @param buffersPool direct buffers pool, may be null
+   * @return count of consumed bytes
+   * @throws IOException if I/O error happens
+   */
+  public static long consumeChannel(final ReadableByteChannel input, final DirectBuffersPool buffersPool) throws IOException {
+    final ByteBuffer buffer = buffersPool == null
+        ? ByteBuffer.allocateDirect(BUFFER_SIZE_16K)
+        : buffersPool.get();
+
+    long total = 0;
+    try {
+      int cnt;
+      while ((cnt = input.read(buffer)) != EOF) {
+        total += cnt;
+        buffer.clear();
+      }
+      return total;
+    } finally {
+      closeQuietly(input);
+
+      if (buffersPool != null) {
+        buffersPool.release(buffer);
+      }
+    }
+  }
+
   /**
    * Gets stream of uncompressed bytes for the {@link URLConnection} wrapping its input stream
    * according to what is defined in its content encoding.
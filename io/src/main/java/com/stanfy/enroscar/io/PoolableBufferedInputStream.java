@@ -7,13 +7,14 @@ import java.io.InputStream;
 
 /**
  * Source is based on BufferedInputStream.
+ * Public methods are synchronized, their unsynchronized versions are used by {@link SingleOwnerBufferedInputStream}.
  * @see BuffersPool
  * @author Roman Mazur - Stanfy (http://www.stanfy.com)
  */
 class PoolableBufferedInputStream extends FilterInputStream {
 
   /** Buffers pool. */
-  private final BuffersPool pool;
+  final BuffersPool pool;
 
   /** The buffer containing the current bytes read from the target InputStream. */
   private volatile byte[] buf;
@@ -70,6 +71,10 @@ class PoolableBufferedInputStream extends FilterInputStream {
    */
   @Override
   public synchronized int available() throws IOException {
+    return availableInternal();
+  }
+
+  final int availableInternal() throws IOException {
     final InputStream localIn = in; // 'in' could be invalidated by close()
     if (buf == null || localIn == null) { throw new IOException("Stream is closed"); }
     return count - pos + localIn.available();
@@ -144,6 +149,10 @@ class PoolableBufferedInputStream extends FilterInputStream {
    */
   @Override
   public synchronized void mark(final int readlimit) {
+    markInternal(readlimit);
+  }
+
+  final void markInternal(final int readlimit) {
     marklimit = readlimit;
     markpos = pos;
   }
@@ -174,6 +183,10 @@ class PoolableBufferedInputStream extends FilterInputStream {
    */
   @Override
   public synchronized int read() throws IOException {
+    return readInternal();
+  }
+
+  final int readInternal() throws IOException {
     // Use local refs since buf and in may be invalidated by an
     // unsynchronized close()
     byte[] localBuf = buf;
@@ -225,6 +238,10 @@ class PoolableBufferedInputStream extends FilterInputStream {
    */
   @Override
   public synchronized int read(final byte[] buffer, final int start, final int length) throws IOException {
+    return readInternal(buffer, start, length);
+  }
+
+  final int readInternal(final byte[] buffer, final int start, final int length) throws IOException {
     int offset = start;
     // Use local ref since buf may be invalidated by an unsynchronized
     // close()
@@ -317,6 +334,10 @@ class PoolableBufferedInputStream extends FilterInputStream {
    */
   @Override
   public synchronized void reset() throws IOException {
+    resetInternal();
+  }
+
+  final void resetInternal() throws IOException {
     // BEGIN android-changed
     /*
      * These exceptions get thrown in some "normalish" circumstances,
@@ -347,6 +368,10 @@ class PoolableBufferedInputStream extends FilterInputStream {
    */
   @Override
   public synchronized long skip(final long amount) throws IOException {
+    return skipInternal(amount);
+  }
+
+  final long skipInternal(final long amount) throws IOException {
     // Use local refs since buf and in may be invalidated by an
     // unsynchronized close()
     final byte[] localBuf = buf;
@@ -384,6 +409,14 @@ class PoolableBufferedInputStream extends FilterInputStream {
     return read + localIn.skip(amount - read);
   }
 
+  /**
+   * @return source stream if it can be read directly (there are no buffered bytes and mark is not set),
+   *         null otherwise
+   */
+  synchronized InputStream unbufferedSource() {
+    return pos >= count && markpos == -1 ? in : null;
+  }
+
   @Override
   protected void finalize() throws Throwable {
     super.finalize();
@@ -6,13 +6,14 @@ import java.io.OutputStream;
 
 /**
  * Source is based on BufferedOutputStream.
+ * Public methods are synchronized, their unsynchronized versions are used by {@link SingleOwnerBufferedOutputStream}.
  * @see BuffersPool
  * @author Roman Mazur - Stanfy (http://www.stanfy.com)
  */
 class PoolableBufferedOutputStream extends FilterOutputStream {
 
   /** Buffers pool. */
-  private final BuffersPool pool;
+  final BuffersPool pool;
 
   /**
    * The buffer containing the bytes to be written to the target stream.
@@ -69,6 +70,10 @@ class PoolableBufferedOutputStream extends FilterOutputStream {
    */
   @Override
   public synchronized void flush() throws IOException {
+    flushAll();
+  }
+
+  final void flushAll() throws IOException {
     checkNotClosed();
     flushInternal();
     out.flush();
@@ -107,6 +112,10 @@ class PoolableBufferedOutputStream extends FilterOutputStream {
    */
   @Override
   public synchronized void write(final byte[] buffer, final int offset, final int length) throws IOException {
+    writeInternal(buffer, offset, length);
+  }
+
+  final void writeInternal(final byte[] buffer, final int offset, final int length) throws IOException {
     checkNotClosed();
 
     if (buffer == null) {
@@ -162,6 +171,10 @@ class PoolableBufferedOutputStream extends FilterOutputStream {
    */
   @Override
   public synchronized void write(final int oneByte) throws IOException {
+    writeInternal(oneByte);
+  }
+
+  final void writeInternal(final int oneByte) throws IOException {
     checkNotClosed();
     if (count == buf.length) {
       out.write(buf, 0, count);
@@ -180,6 +193,17 @@ class PoolableBufferedOutputStream extends FilterOutputStream {
     }
   }
 
+  /**
+   * Write out buffered bytes so that the target stream can be written directly.
+   * @return target stream
+   * @throws IOException if an error occurs attempting to write buffered bytes
+   */
+  synchronized OutputStream flushBuffer() throws IOException {
+    checkNotClosed();
+    flushInternal();
+    return out;
+  }
+
   @Override
   protected void finalize() throws Throwable {
     super.finalize();
@@ -72,7 +72,12 @@ public class ProgressListenerInputStream extends FilterInputStream {
     listener.onInputClosed();
   }
 
-  private void trackProgress(final int increment) {
+  /** @return wrapped stream */
+  InputStream source() {
+    return in;
+  }
+
+  void trackProgress(final long increment) {
     counter += increment;
     final float p = (float)counter / totalLength;
     if (p - lastProgress >= throttle) {
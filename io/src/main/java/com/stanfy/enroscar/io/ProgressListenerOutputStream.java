@@ -71,7 +71,12 @@ public class ProgressListenerOutputStream extends FilterOutputStream {
     listener.onOutputClosed();
   }
 
-  private void trackProgress(final int increment) {
+  /** @return wrapped stream */
+  OutputStream source() {
+    return out;
+  }
+
+  void trackProgress(final long increment) {
     counter += increment;
     final float p = (float)counter / totalLength;
     if (p - lastProgress >= throttle) {
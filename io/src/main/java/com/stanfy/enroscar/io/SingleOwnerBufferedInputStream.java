@@ -0,0 +1,71 @@
+package com.stanfy.enroscar.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered input stream that is not thread safe: it must be read by one thread only.
+ * It does not take any locks which makes byte-wise reads much cheaper.
+ * When owner checks are enabled (see {@link BuffersPool#setCheckStreamOwners(boolean)}) reads from a thread
+ * other than the previous reader are reported to {@link System#err}.
+ * @see BuffersPool#bufferizeUnsynchronized(InputStream, int)
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+final class SingleOwnerBufferedInputStream extends PoolableBufferedInputStream {
+
+  /** Thread that reads this stream. */
+  private Thread owner;
+
+  public SingleOwnerBufferedInputStream(final InputStream in, final int size, final BuffersPool pool) {
+    super(in, size, pool);
+  }
+
+  private void checkOwner() {
+    if (!pool.checkStreamOwners) {
+      return;
+    }
+    final Thread current = Thread.currentThread();
+    if (owner != null && owner != current) {
+      System.err.println("WARNING: " + this + " is owned by " + owner + " but is used by " + current);
+    }
+    // stream may be handed off to another thread, it becomes the owner
+    owner = current;
+  }
+
+  @Override
+  public int available() throws IOException {
+    checkOwner();
+    return availableInternal();
+  }
+
+  @Override
+  public void mark(final int readlimit) {
+    checkOwner();
+    markInternal(readlimit);
+  }
+
+  @Override
+  public int read() throws IOException {
+    checkOwner();
+    return readInternal();
+  }
+
+  @Override
+  public int read(final byte[] buffer, final int start, final int length) throws IOException {
+    checkOwner();
+    return readInternal(buffer, start, length);
+  }
+
+  @Override
+  public void reset() throws IOException {
+    checkOwner();
+    resetInternal();
+  }
+
+  @Override
+  public long skip(final long amount) throws IOException {
+    checkOwner();
+    return skipInternal(amount);
+  }
+
+}
@@ -0,0 +1,53 @@
+package com.stanfy.enroscar.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered output stream that is not thread safe: it must be written by one thread only.
+ * It does not take any locks which makes byte-wise writes much cheaper.
+ * When owner checks are enabled (see {@link BuffersPool#setCheckStreamOwners(boolean)}) writes from a thread
+ * other than the previous writer are reported to {@link System#err}.
+ * @see BuffersPool#bufferizeUnsynchronized(OutputStream, int)
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+final class SingleOwnerBufferedOutputStream extends PoolableBufferedOutputStream {
+
+  /** Thread that writes to this stream. */
+  private Thread owner;
+
+  public SingleOwnerBufferedOutputStream(final OutputStream out, final int size, final BuffersPool pool) {
+    super(out, size, pool);
+  }
+
+  private void checkOwner() {
+    if (!pool.checkStreamOwners) {
+      return;
+    }
+    final Thread current = Thread.currentThread();
+    if (owner != null && owner != current) {
+      System.err.println("WARNING: " + this + " is owned by " + owner + " but is used by " + current);
+    }
+    // stream may be handed off to another thread, it becomes the owner
+    owner = current;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    checkOwner();
+    flushAll();
+  }
+
+  @Override
+  public void write(final byte[] buffer, final int offset, final int length) throws IOException {
+    checkOwner();
+    writeInternal(buffer, offset, length);
+  }
+
+  @Override
+  public void write(final int oneByte) throws IOException {
+    checkOwner();
+    writeInternal(oneByte);
+  }
+
+}
@@ -8,8 +8,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -24,6 +26,9 @@ public class BuffersPoolTest {
   /** Size of the biggest buffer available in pool after initialization. */
   private int maxAvailableSize;
 
+  /** More buffers than a thread magazine can hold. */
+  private static final int MAGAZINE_OVERFLOW = 8;
+
   /** Random. */
   private final Random r = new Random();
 
@@ -105,6 +110,162 @@ public class BuffersPoolTest {
     assertThat(buffersPool.getUsedBuffersCount()).isZero();
   }
 
+  @Test
+  public void shouldRoundRequestsUpToSizeClasses() {
+    assertThat(buffersPool.get(maxAvailableSize + 1)).hasSize(maxAvailableSize * 2);
+    assertThat(buffersPool.get(1)).hasSize(1 << BuffersPool.MIN_CLASS_SHIFT);
+    final int huge = (1 << BuffersPool.MAX_CLASS_SHIFT) + 1;
+    assertThat(buffersPool.get(huge)).hasSize(huge);
+  }
+
+  @Test
+  public void largeRequestsShouldBeAllocatedWithExactSize() {
+    final int size = BuffersPool.EXACT_SIZE_THRESHOLD + 100;
+    final byte[] buffer = buffersPool.get(size);
+    assertThat(buffer).hasSize(size);
+    assertThat(buffersPool.get(BuffersPool.EXACT_SIZE_THRESHOLD * 2)).hasSize(BuffersPool.EXACT_SIZE_THRESHOLD * 2);
+
+    buffersPool.release(buffer);
+    assertThat(buffersPool.get(size + 1)).hasSize(size + 1);
+    assertThat(buffersPool.get(size)).isSameAs(buffer);
+  }
+
+  @Test
+  public void shouldReuseBuffersReleasedByOtherThreads() throws Exception {
+    final int size = maxAvailableSize * 4;
+    final byte[][] buffers = new byte[MAGAZINE_OVERFLOW][];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = buffersPool.get(size);
+    }
+    final int allocationsCount = buffersPool.getAllocatedBuffersCount();
+
+    Thread releaser = new Thread() {
+      @Override
+      public void run() {
+        for (byte[] buffer : buffers) {
+          buffersPool.release(buffer);
+        }
+      }
+    };
+    releaser.start();
+    releaser.join();
+
+    final byte[] reused = buffersPool.get(size);
+    boolean found = false;
+    for (byte[] buffer : buffers) {
+      found |= buffer == reused;
+    }
+    assertThat(found).isTrue();
+    assertThat(buffersPool.getAllocatedBuffersCount()).isEqualTo(allocationsCount);
+  }
+
+  @Test
+  public void flushShouldClearBuffersRetainedByOtherThreads() throws Exception {
+    Thread user = new Thread() {
+      @Override
+      public void run() {
+        buffersPool.release(buffersPool.get(maxAvailableSize * 4));
+      }
+    };
+    user.start();
+    user.join();
+    assertThat(buffersPool.getBuffersMapSize()).isGreaterThan(0);
+
+    buffersPool.flush();
+    assertThat(buffersPool.getBuffersMapSize()).isZero();
+  }
+
+  @Test
+  public void buffersCachedByFinishedThreadsShouldBeReused() throws Exception {
+    final int size = IoUtils.BUFFER_SIZE_16K;
+    final BuffersPool pool = new BuffersPool();
+    final long retained = pool.getRetainedBytes();
+    for (int i = 0; i < 40; i++) {
+      Thread user = new Thread() {
+        @Override
+        public void run() {
+          byte[] buffer1 = pool.get(size), buffer2 = pool.get(size);
+          pool.release(buffer1);
+          pool.release(buffer2);
+        }
+      };
+      user.start();
+      user.join();
+    }
+
+    // every thread takes buffers left by the previous one
+    assertThat(pool.getMissCount()).isZero();
+    assertThat(pool.getEvictedBuffersCount()).isZero();
+    assertThat(pool.getRetainedBytes()).isEqualTo(retained);
+
+    pool.release(pool.get(size));
+    assertThat(pool.getHitCount()).isEqualTo(81);
+
+    pool.flush();
+    assertThat(pool.getRetainedBytes()).isZero();
+    assertThat(pool.getBuffersMapSize()).isZero();
+  }
+
+  @Test
+  public void flushShouldClearBuffersCachedByIdleThreads() throws Exception {
+    final CountDownLatch released = new CountDownLatch(1), flushed = new CountDownLatch(1);
+    Thread user = new Thread() {
+      @Override
+      public void run() {
+        buffersPool.release(buffersPool.get(maxAvailableSize * 4));
+        released.countDown();
+        try {
+          flushed.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    user.start();
+    released.await();
+    assertThat(buffersPool.getRetainedBytes()).isGreaterThanOrEqualTo(maxAvailableSize * 4);
+
+    buffersPool.flush();
+    assertThat(buffersPool.getRetainedBytes()).isZero();
+    flushed.countDown();
+    user.join();
+  }
+
+  @Test
+  public void shouldRespectRetentionLimits() {
+    final int size = maxAvailableSize * 4;
+    buffersPool.setMaxRetainedBuffersCount(size, 1);
+    long retained = buffersPool.getRetainedBytes();
+
+    byte[] buffer1 = buffersPool.get(size), buffer2 = buffersPool.get(size);
+    assertThat(buffersPool.getMissCount()).isEqualTo(2);
+    buffersPool.release(buffer1);
+    buffersPool.release(buffer2);
+    assertThat(buffersPool.getEvictedBuffersCount()).isEqualTo(1);
+    assertThat(buffersPool.getRetainedBytes()).isEqualTo(retained + size);
+
+    buffersPool.get(size);
+    assertThat(buffersPool.getHitCount()).isEqualTo(1);
+    assertThat(buffersPool.getRetainedBytes()).isEqualTo(retained);
+
+    buffersPool.setMaxRetainedBytes(maxAvailableSize);
+    assertThat(buffersPool.getRetainedBytes()).isLessThanOrEqualTo(maxAvailableSize);
+    buffersPool.release(new byte[maxAvailableSize * 2]);
+    assertThat(buffersPool.getRetainedBytes()).isLessThanOrEqualTo(maxAvailableSize);
+  }
+
+  @Test
+  public void trimShouldDropRetainedBuffers() throws Exception {
+    buffersPool.trimToSize(maxAvailableSize / 2);
+    assertThat(buffersPool.getRetainedBytes()).isLessThanOrEqualTo(maxAvailableSize / 2);
+    assertThat(buffersPool.getEvictedBuffersCount()).isGreaterThan(0);
+
+    buffersPool.release(new byte[maxAvailableSize]);
+    Thread.sleep(2);
+    buffersPool.trimIdle(1);
+    assertThat(buffersPool.getRetainedBytes()).isZero();
+  }
+
   @Test
   public void bufferizeShouldWrapInputStream() throws IOException {
     ByteArrayInputStream input = new ByteArrayInputStream("test".getBytes());
@@ -132,6 +293,57 @@ public class BuffersPoolTest {
     verify(buffersPool).release(any(byte[].class));
   }
 
+  @Test
+  public void unsynchronizedStreamsShouldBufferData() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OutputStream bufferedOutput = buffersPool.bufferizeUnsynchronized(output, 16);
+    for (int i = 0; i < 100; i++) {
+      bufferedOutput.write(i);
+    }
+    bufferedOutput.close();
+    assertThat(output.size()).isEqualTo(100);
+
+    InputStream bufferedInput = buffersPool.bufferizeUnsynchronized(new ByteArrayInputStream(output.toByteArray()), 16);
+    assertThat(bufferedInput.markSupported()).isTrue();
+    for (int i = 0; i < 100; i++) {
+      assertThat(bufferedInput.read()).isEqualTo(i);
+    }
+    assertThat(bufferedInput.read()).isEqualTo(-1);
+    bufferedInput.close();
+  }
+
+  @Test
+  public void unsynchronizedStreamShouldReportForeignThreadWhenOwnersAreChecked() throws Exception {
+    buffersPool.setCheckStreamOwners(true);
+    final InputStream input = buffersPool.bufferizeUnsynchronized(new ByteArrayInputStream(new byte[] {1, 2}));
+    assertThat(input.read()).isEqualTo(1);
+
+    final PrintStream err = System.err;
+    final ByteArrayOutputStream warnings = new ByteArrayOutputStream();
+    System.setErr(new PrintStream(warnings, true));
+    final Object[] result = new Object[1];
+    try {
+      Thread other = new Thread() {
+        @Override
+        public void run() {
+          try {
+            result[0] = input.read();
+          } catch (Throwable e) {
+            result[0] = e;
+          }
+        }
+      };
+      other.start();
+      other.join();
+    } finally {
+      System.setErr(err);
+    }
+    input.close();
+
+    // hand-off is reported but not prevented
+    assertThat(result[0]).isEqualTo(2);
+    assertThat(warnings.toString()).contains("WARNING");
+  }
 
   @Test
   public void threadsTest() throws Exception {
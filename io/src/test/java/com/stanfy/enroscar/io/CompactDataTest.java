@@ -0,0 +1,65 @@
+package com.stanfy.enroscar.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link CompactDataOutput} and {@link CompactDataInput}.
+ */
+public class CompactDataTest {
+
+  @Test
+  public void shouldReadWrittenValues() throws Exception {
+    BuffersPool pool = new BuffersPool();
+    String text = "caf\u00e9 \u4e16 \ud83d\ude00";
+
+    CompactDataOutput out = new CompactDataOutput(pool, 4);
+    out.writeByte(7)
+        .writeUnsignedVarInt(300)
+        .writeVarInt(-1)
+        .writeVarInt(Integer.MIN_VALUE)
+        .writeVarLong(Long.MAX_VALUE)
+        .writeString(null)
+        .writeString(text);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    out.writeTo(bytes);
+    out.release();
+
+    CompactDataInput in = CompactDataInput.readFully(new ByteArrayInputStream(bytes.toByteArray()), pool);
+    assertThat(in.readByte()).isEqualTo(7);
+    assertThat(in.readUnsignedVarInt()).isEqualTo(300);
+    assertThat(in.readVarInt()).isEqualTo(-1);
+    assertThat(in.readVarInt()).isEqualTo(Integer.MIN_VALUE);
+    assertThat(in.readVarLong()).isEqualTo(Long.MAX_VALUE);
+    assertThat(in.readString()).isNull();
+    assertThat(in.readString()).isEqualTo(text);
+    assertThat(in.remaining()).isZero();
+    in.release();
+
+    assertThat(pool.getUsedBuffersCount()).isZero();
+  }
+
+  @Test
+  public void smallValuesShouldTakeOneByte() {
+    CompactDataOutput out = new CompactDataOutput(null);
+    out.writeVarInt(-64).writeVarLong(63).writeUnsignedVarInt(127);
+    assertThat(out.size()).isEqualTo(3);
+  }
+
+  @Test(expected = EOFException.class)
+  public void truncatedDataShouldBeReported() throws Exception {
+    CompactDataOutput out = new CompactDataOutput(null);
+    out.writeString("truncated");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    out.writeTo(bytes);
+
+    byte[] data = bytes.toByteArray();
+    new CompactDataInput(data, 0, data.length - 1).readString();
+  }
+
+}
@@ -0,0 +1,28 @@
+package com.stanfy.enroscar.io;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link Digests}.
+ */
+public class DigestsTest {
+
+  @Test
+  public void md5ShouldBePadded() {
+    assertThat(Digests.md5Hex("")).isEqualTo("d41d8cd98f00b204e9800998ecf8427e");
+    assertThat(Digests.md5Hex("hello")).isEqualTo("5d41402abc4b2a76b9719d911017c592");
+  }
+
+  @Test
+  public void murmur3ShouldMatchReferenceImplementation() {
+    assertThat(Digests.murmur3Hex128("")).isEqualTo("00000000000000000000000000000000");
+    assertThat(Digests.murmur3Hex128("hello")).isEqualTo("029bbd41b3a7d8cb191dae486a901e5b");
+    // 16 bytes block + tail
+    assertThat(Digests.murmur3Hex128("http://images.example.com/a/b/c.jpg?w=100"))
+        .isEqualTo("4e7ccecd06001c9dbd9c4bc2fcf9777d");
+    assertThat(Digests.murmur3Hex128("\u00e9")).isEqualTo("e863d411a47a18c93f7ecadf6bc7657e");
+  }
+
+}
@@ -0,0 +1,93 @@
+package com.stanfy.enroscar.io;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link DirectBuffersPool}.
+ */
+public class DirectBuffersPoolTest {
+
+  /** Slab size. */
+  private static final int SLAB_SIZE = 1024;
+  /** Slabs per arena. */
+  private static final int SLABS_COUNT = 4;
+
+  /** Pool instance. */
+  private DirectBuffersPool pool;
+
+  @Before
+  public void createPool() {
+    pool = new DirectBuffersPool(SLAB_SIZE, SLAB_SIZE * SLABS_COUNT, 1);
+  }
+
+  @Test
+  public void shouldSliceArenas() {
+    ByteBuffer buffer = pool.get();
+    assertThat(buffer.isDirect()).isTrue();
+    assertThat(buffer.capacity()).isEqualTo(SLAB_SIZE);
+    assertThat(buffer.remaining()).isEqualTo(SLAB_SIZE);
+    assertThat(pool.getArenasCount()).isEqualTo(1);
+    assertThat(pool.getLeasedCount()).isEqualTo(1);
+
+    pool.release(buffer);
+    assertThat(pool.getLeasedCount()).isZero();
+  }
+
+  @Test
+  public void shouldFallbackToHeapWhenExhausted() {
+    ByteBuffer[] buffers = new ByteBuffer[SLABS_COUNT];
+    for (int i = 0; i < SLABS_COUNT; i++) {
+      buffers[i] = pool.get();
+      assertThat(buffers[i].isDirect()).isTrue();
+    }
+
+    ByteBuffer extra = pool.get();
+    assertThat(extra.isDirect()).isFalse();
+    assertThat(pool.getHeapFallbacksCount()).isEqualTo(1);
+    pool.release(extra);
+    assertThat(pool.getLeasedCount()).isEqualTo(SLABS_COUNT);
+
+    for (ByteBuffer buffer : buffers) {
+      pool.release(buffer);
+    }
+    assertThat(pool.get().isDirect()).isTrue();
+    assertThat(pool.getArenasCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void doubleAndForeignReleasesShouldBeRejected() {
+    ByteBuffer buffer = pool.get();
+    pool.release(buffer);
+    pool.release(buffer);
+    pool.release(ByteBuffer.allocateDirect(SLAB_SIZE));
+    assertThat(pool.getRejectedReleasesCount()).isEqualTo(2);
+    assertThat(pool.getLeasedCount()).isZero();
+
+    // every slab is leased once
+    ByteBuffer[] buffers = new ByteBuffer[SLABS_COUNT];
+    for (int i = 0; i < SLABS_COUNT; i++) {
+      buffers[i] = pool.get();
+      assertThat(buffers[i].isDirect()).isTrue();
+      for (int k = 0; k < i; k++) {
+        assertThat(buffers[i]).isNotSameAs(buffers[k]);
+      }
+    }
+    assertThat(pool.get().isDirect()).isFalse();
+  }
+
+  @Test
+  public void releasedBufferShouldBeCleared() {
+    ByteBuffer buffer = pool.get();
+    buffer.put((byte) 1).flip();
+    pool.release(buffer);
+    for (int i = 0; i < SLABS_COUNT; i++) {
+      assertThat(pool.get().remaining()).isEqualTo(SLAB_SIZE);
+    }
+  }
+
+}
@@ -0,0 +1,231 @@
+package com.stanfy.enroscar.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.stanfy.enroscar.io.ImageHeaderParser.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link ImageHeaderParser}.
+ */
+public class ImageHeaderParserTest {
+
+  private final ImageHeaderParser parser = new ImageHeaderParser();
+
+  private static byte[] bytes(final int... values) {
+    final byte[] result = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = (byte) values[i];
+    }
+    return result;
+  }
+
+  private static byte[] concat(final byte[]... parts) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] part : parts) {
+      out.write(part, 0, part.length);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] ascii(final String value) {
+    final byte[] result = new byte[value.length()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (byte) value.charAt(i);
+    }
+    return result;
+  }
+
+  private void assertParsed(final byte[] data, final int format, final int width, final int height) {
+    assertThat(parser.parse(data, data.length)).isEqualTo(RESULT_OK);
+    assertThat(parser.getFormat()).isEqualTo(format);
+    assertThat(parser.getWidth()).isEqualTo(width);
+    assertThat(parser.getHeight()).isEqualTo(height);
+  }
+
+  private void assertNeedsMoreData(final byte[] data) {
+    for (int length = 0; length < data.length; length++) {
+      assertThat(parser.parse(data, length)).isEqualTo(RESULT_NEED_MORE_DATA);
+    }
+  }
+
+  @Test
+  public void shouldParsePng() {
+    final byte[] png = concat(
+        bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 13),
+        ascii("IHDR"),
+        bytes(0, 0, 0x01, 0x2C, 0, 0, 0, 0xC8)
+    );
+    assertNeedsMoreData(png);
+    assertParsed(png, FORMAT_PNG, 300, 200);
+    assertThat(parser.getMimeType()).isEqualTo("image/png");
+  }
+
+  @Test
+  public void shouldParseGif() {
+    final byte[] gif = concat(ascii("GIF89a"), bytes(0x40, 0x01, 0xF0, 0x00));
+    assertNeedsMoreData(gif);
+    assertParsed(gif, FORMAT_GIF, 320, 240);
+    assertThat(parser.getMimeType()).isEqualTo("image/gif");
+  }
+
+  @Test
+  public void shouldParseWebp() {
+    final byte[] riff = concat(ascii("RIFF"), bytes(0, 0, 0, 0), ascii("WEBP"));
+    final byte[] lossy = concat(riff, ascii("VP8 "), bytes(0, 0, 0, 0, 0, 0, 0, 0x9D, 0x01, 0x2A, 0x80, 0x02, 0xE0, 0x01));
+    assertNeedsMoreData(lossy);
+    assertParsed(lossy, FORMAT_WEBP, 640, 480);
+
+    // 100 - 1 = 0x63 in the first 14 bits, 50 - 1 = 0x31 in the next 14 bits
+    final int bits = 0x63 | 0x31 << 14;
+    final byte[] lossless = concat(riff, ascii("VP8L"), bytes(0, 0, 0, 0, 0x2F,
+        bits & 0xFF, (bits >> 8) & 0xFF, (bits >> 16) & 0xFF, (bits >> 24) & 0xFF));
+    assertNeedsMoreData(lossless);
+    assertParsed(lossless, FORMAT_WEBP, 100, 50);
+
+    final byte[] extended = concat(riff, ascii("VP8X"), bytes(0, 0, 0, 0, 0, 0, 0, 0, 0xFF, 0x0F, 0, 0x01, 0, 0x01));
+    assertParsed(extended, FORMAT_WEBP, 4096, 65538);
+    assertThat(parser.getMimeType()).isEqualTo("image/webp");
+  }
+
+  @Test
+  public void shouldParseJpegWithExifOrientation() {
+    final byte[] exif = concat(
+        bytes(0xFF, 0xE1, 0, 42),
+        ascii("Exif"), bytes(0, 0),
+        // TIFF header, IFD0 at offset 8
+        ascii("MM"), bytes(0, 0x2A, 0, 0, 0, 8),
+        // 2 entries: some tag and orientation
+        bytes(0, 2),
+        bytes(0x01, 0x0F, 0, 2, 0, 0, 0, 1, 0, 0, 0, 0),
+        bytes(0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0)
+    );
+    final byte[] jpeg = concat(
+        bytes(0xFF, 0xD8),
+        bytes(0xFF, 0xE0, 0, 4, 0, 0),
+        exif,
+        // fill byte before marker, frame header is cut after dimensions
+        bytes(0xFF, 0xFF, 0xC2, 0, 11, 8, 0x02, 0x58, 0x03, 0x20)
+    );
+    assertNeedsMoreData(jpeg);
+    assertParsed(jpeg, FORMAT_JPEG, 800, 600);
+    assertThat(parser.getOrientation()).isEqualTo(6);
+    assertThat(parser.getMimeType()).isEqualTo("image/jpeg");
+  }
+
+  @Test
+  public void shouldReadLittleEndianExif() {
+    final byte[] jpeg = concat(
+        bytes(0xFF, 0xD8, 0xFF, 0xE1, 0, 30),
+        ascii("Exif"), bytes(0, 0),
+        ascii("II"), bytes(0x2A, 0, 8, 0, 0, 0),
+        bytes(1, 0),
+        bytes(0x12, 0x01, 3, 0, 1, 0, 0, 0, 8, 0, 0, 0),
+        bytes(0xFF, 0xC0, 0, 11, 8, 0, 10, 0, 20, 3)
+    );
+    assertParsed(jpeg, FORMAT_JPEG, 20, 10);
+    assertThat(parser.getOrientation()).isEqualTo(8);
+  }
+
+  @Test
+  public void jpegWithoutExifShouldHaveNormalOrientation() {
+    final byte[] jpeg = bytes(0xFF, 0xD8, 0xFF, 0xC0, 0, 11, 8, 0, 1, 0, 2, 3);
+    assertParsed(jpeg, FORMAT_JPEG, 2, 1);
+    assertThat(parser.getOrientation()).isEqualTo(ORIENTATION_NORMAL);
+  }
+
+  private static byte[] segment(final int marker, final int length) {
+    final byte[] result = new byte[length + 2];
+    Arrays.fill(result, (byte) 0x42);
+    result[0] = (byte) 0xFF;
+    result[1] = (byte) marker;
+    result[2] = (byte) (length >> 8);
+    result[3] = (byte) length;
+    return result;
+  }
+
+  @Test
+  public void streamParserShouldSkipBigSegments() throws IOException {
+    final byte[] exif = concat(
+        bytes(0xFF, 0xE1, 0, 30),
+        ascii("Exif"), bytes(0, 0),
+        ascii("II"), bytes(0x2A, 0, 8, 0, 0, 0),
+        bytes(1, 0),
+        bytes(0x12, 0x01, 3, 0, 1, 0, 0, 0, 3, 0, 0, 0)
+    );
+    final byte[] jpeg = concat(
+        bytes(0xFF, 0xD8),
+        exif,
+        // ICC profile and XMP segments take more than 64K together
+        segment(0xE2, 60000),
+        segment(0xE2, 60000),
+        segment(0xE1, 65000),
+        bytes(0xFF, 0xC0, 0, 11, 8, 0x02, 0x58, 0x03, 0x20, 3),
+        new byte[100000]
+    );
+    final CountingInputStream in = new CountingInputStream(jpeg);
+
+    assertThat(parser.parse(in, new byte[1024], 512 * 1024)).isEqualTo(RESULT_OK);
+    assertThat(parser.getFormat()).isEqualTo(FORMAT_JPEG);
+    assertThat(parser.getWidth()).isEqualTo(800);
+    assertThat(parser.getHeight()).isEqualTo(600);
+    assertThat(parser.getOrientation()).isEqualTo(3);
+    // segments are skipped, image data is not touched
+    assertThat(in.readCount).isLessThan(1024);
+    assertThat(in.available()).isGreaterThanOrEqualTo(100000);
+
+    assertThat(parser.parse(new ByteArrayInputStream(jpeg), new byte[1024], 64 * 1024)).isEqualTo(RESULT_UNKNOWN);
+  }
+
+  @Test
+  public void streamParserShouldParseOtherFormats() throws IOException {
+    final byte[] gif = concat(ascii("GIF89a"), bytes(0x40, 0x01, 0xF0, 0x00));
+    assertThat(parser.parse(new ByteArrayInputStream(gif), new byte[MIN_BUFFER_SIZE], 1024)).isEqualTo(RESULT_OK);
+    assertThat(parser.getWidth()).isEqualTo(320);
+    assertThat(parser.getHeight()).isEqualTo(240);
+
+    final byte[] truncated = bytes(0xFF, 0xD8, 0xFF, 0xE0, 0, 100, 0, 0);
+    assertThat(parser.parse(new ByteArrayInputStream(truncated), new byte[MIN_BUFFER_SIZE], 1024))
+        .isEqualTo(RESULT_UNKNOWN);
+  }
+
+  @Test
+  public void shouldRejectUnknownData() {
+    final byte[] jpegWithoutFrame = bytes(0xFF, 0xD8, 0xFF, 0xDA, 0, 2);
+    assertThat(parser.parse(jpegWithoutFrame, jpegWithoutFrame.length)).isEqualTo(RESULT_UNKNOWN);
+    final byte[] text = ascii("<html>");
+    assertThat(parser.parse(text, text.length)).isEqualTo(RESULT_UNKNOWN);
+    assertThat(parser.getFormat()).isEqualTo(FORMAT_UNKNOWN);
+    assertThat(parser.getMimeType()).isNull();
+  }
+
+  /** Counts bytes that are read, not skipped. */
+  private static final class CountingInputStream extends ByteArrayInputStream {
+    /** Count of read bytes. */
+    int readCount;
+
+    CountingInputStream(final byte[] data) {
+      super(data);
+    }
+
+    @Override
+    public synchronized int read() {
+      final int result = super.read();
+      if (result != -1) { readCount++; }
+      return result;
+    }
+
+    @Override
+    public synchronized int read(final byte[] b, final int off, final int len) {
+      final int result = super.read(b, off, len);
+      if (result > 0) { readCount += result; }
+      return result;
+    }
+  }
+
+}
@@ -4,20 +4,26 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-
+import java.nio.channels.Channels;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 /**
  * Tests for IoUtils.
@@ -100,4 +106,79 @@ public class IoUtilsTest {
     assertBuffersPoolUsed(2);
   }
 
+  private File createTestFile(final int size) throws IOException {
+    File file = File.createTempFile("io-utils", ".test");
+    file.deleteOnExit();
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) i;
+    }
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private static void assertSameContent(final File expected, final File actual) throws IOException {
+    ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream(), actualBytes = new ByteArrayOutputStream();
+    IoUtils.transfer(new FileInputStream(expected), expectedBytes, null);
+    IoUtils.transfer(new FileInputStream(actual), actualBytes, null);
+    assertThat(actualBytes.toByteArray()).isEqualTo(expectedBytes.toByteArray());
+  }
+
+  @Test
+  public void transferBetweenFilesShouldNotUseBuffersPool() throws Exception {
+    File source = createTestFile(100000);
+    File target = File.createTempFile("io-utils", ".target");
+    target.deleteOnExit();
+
+    IoUtils.transfer(new FileInputStream(source), new FileOutputStream(target), buffersPool);
+
+    verifyZeroInteractions(buffersPool);
+    assertSameContent(source, target);
+  }
+
+  @Test
+  public void transferBetweenWrappedFilesShouldReportProgress() throws Exception {
+    final int size = 100000;
+    File source = createTestFile(size);
+    File target = File.createTempFile("io-utils", ".target");
+    target.deleteOnExit();
+
+    ProgressListenerInputStream.ProgressListener inputListener = mock(ProgressListenerInputStream.ProgressListener.class);
+    ProgressListenerOutputStream.ProgressListener outputListener = mock(ProgressListenerOutputStream.ProgressListener.class);
+    InputStream input = new ProgressListenerInputStream(new FileInputStream(source), inputListener, size);
+    OutputStream output = new PoolableBufferedOutputStream(
+        new ProgressListenerOutputStream(new FileOutputStream(target), outputListener, size), new BuffersPool());
+
+    IoUtils.transfer(input, output, buffersPool);
+    output.close();
+
+    verify(inputListener).onInputProgress(eq((long) size), eq((long) size), eq(1f));
+    verify(inputListener).onInputClosed();
+    verify(outputListener).onOutputProgress(eq((long) size), eq((long) size), eq(1f));
+    verifyZeroInteractions(buffersPool);
+    assertSameContent(source, target);
+  }
+
+  @Test
+  public void channelTransferShouldCopyAllBytesAndCloseInput() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    DirectBuffersPool pool = new DirectBuffersPool();
+    long count = IoUtils.transfer(Channels.newChannel(testInput), Channels.newChannel(output), pool);
+    assertThat(count).isEqualTo("test data".length());
+    assertThat(new String(output.toByteArray(), IoUtils.UTF_8_NAME)).isEqualTo("test data");
+    assertThat(pool.getLeasedCount()).isZero();
+    assertInputClosed();
+  }
+
+  @Test
+  public void consumeChannelShouldCloseTheChannel() throws Exception {
+    assertThat(IoUtils.consumeChannel(Channels.newChannel(testInput), null)).isEqualTo("test data".length());
+    assertInputClosed();
+  }
+
 }
@@ -0,0 +1,40 @@
+package com.stanfy.enroscar.net;
+
+import android.util.Log;
+
+import com.stanfy.enroscar.beans.BeansContainer;
+import com.stanfy.enroscar.beans.EnroscarBean;
+import com.stanfy.enroscar.beans.FlushableBean;
+import com.stanfy.enroscar.io.BuffersPool;
+
+/**
+ * Buffers pool bean that drops its retained buffers in low memory conditions.
+ * It is registered with the same name as a plain {@link BuffersPool} so that
+ * {@code getBean(BuffersPool.class.getName(), BuffersPool.class)} resolves it.
+ */
+@EnroscarBean(FlushableBuffersPool.BEAN_NAME)
+public class FlushableBuffersPool extends BuffersPool implements FlushableBean {
+
+  /** Bean name, equal to {@code BuffersPool.class.getName()}. */
+  public static final String BEAN_NAME = "com.stanfy.enroscar.io.BuffersPool";
+
+  /** Logging tag. */
+  private static final String TAG = "BuffersPool";
+
+  public FlushableBuffersPool() {
+    super();
+  }
+
+  public FlushableBuffersPool(final int[][] initDescription) {
+    super(initDescription);
+  }
+
+  @Override
+  public void flushResources(final BeansContainer beansContainer) {
+    final long retained = getRetainedBytes();
+    flush();
+    Log.i(TAG, "Buffers pool flushed: " + retained + " bytes released, "
+        + getEvictedBuffersCount() + " buffers evicted in total");
+  }
+
+}
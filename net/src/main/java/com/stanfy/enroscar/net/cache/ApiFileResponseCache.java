@@ -1,5 +1,34 @@
 package com.stanfy.enroscar.net.cache;
 
+import android.util.Log;
+
+import com.stanfy.enroscar.io.IoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.CacheRequest;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>File-based cache for remote API responses.</p>
@@ -34,13 +63,40 @@ package com.stanfy.enroscar.net.cache;
  *   rd.setCacheName("MyApiResponseCache");
  *
  * </pre>
+ * <p>
+ *   Responses validators ({@code ETag} and {@code Last-Modified} headers) are stored with cache entries.
+ *   If stale-while-revalidate mode is enabled with {@link #setStaleWhileRevalidate(long)}, outdated entries
+ *   that have validators are returned immediately and revalidated in background with a conditional request.
+ *   Revalidation request carries headers of the request that has got the outdated entry
+ *   (e. g. {@code Authorization}, {@code Accept}, {@code Cookie}).
+ *   On {@code 304 Not Modified} only entry timestamp is renewed, on {@code 200 OK} the new response is cached,
+ *   any other response is counted as a revalidation error.
+ * </p>
  */
 public abstract class ApiFileResponseCache extends BaseFileResponseCache {
 
+  /** Timeout for revalidation requests in milliseconds. */
+  private static final int REVALIDATION_TIMEOUT = 30000;
+
+  /** Max age of entries that can be returned while they are revalidated, 0 means disabled. */
+  private volatile long maxStaleAge;
+
+  /** Keys of entries that are being revalidated. */
+  private final Set<String> revalidations = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /** Statistics. */
+  private final AtomicInteger staleHitCount = new AtomicInteger(0),
+                              notModifiedCount = new AtomicInteger(0),
+                              refreshedCount = new AtomicInteger(0),
+                              revalidationErrorCount = new AtomicInteger(0);
+
+  /** Compiled time rules. */
+  private volatile CacheTimeRules compiledTimeRules;
+
   @Override
   protected CacheEntry createCacheEntry() {
-    final CacheEntry entry = new CacheEntry();
-    entry.setTimeRules(getTimeRules());
+    final ApiCacheEntry entry = new ApiCacheEntry();
+    entry.setTimeRules(getCompiledTimeRules());
     return entry;
   }
 
@@ -49,4 +105,253 @@ public abstract class ApiFileResponseCache extends BaseFileResponseCache {
    */
   protected abstract CacheTimeRule[] getTimeRules();
 
+  /**
+   * Rules are compiled once from {@link #getTimeRules()}.
+   * Use this instance to get statistics of rules usage.
+   * @return compiled time rules, null if {@link #getTimeRules()} returns null
+   */
+  public CacheTimeRules getCompiledTimeRules() {
+    CacheTimeRules rules = compiledTimeRules;
+    if (rules == null) {
+      final CacheTimeRule[] source = getTimeRules();
+      if (source == null) { return null; }
+      rules = new CacheTimeRules(source);
+      compiledTimeRules = rules;
+    }
+    return rules;
+  }
+
+  /**
+   * Enable stale-while-revalidate mode.
+   * @param maxStaleAge entries older than this value (in milliseconds) are never returned when they are outdated,
+   *                    0 disables the mode
+   */
+  public void setStaleWhileRevalidate(final long maxStaleAge) {
+    if (maxStaleAge < 0) { throw new IllegalArgumentException("Negative max stale age " + maxStaleAge); }
+    this.maxStaleAge = maxStaleAge;
+  }
+
+  /** @return count of outdated entries returned while they were revalidated */
+  public int getStaleHitCount() { return staleHitCount.get(); }
+  /** @return count of revalidations that ended with 304 response */
+  public int getNotModifiedCount() { return notModifiedCount.get(); }
+  /** @return count of revalidations that brought a new response */
+  public int getRefreshedCount() { return refreshedCount.get(); }
+  /** @return count of failed revalidations */
+  public int getRevalidationErrorCount() { return revalidationErrorCount.get(); }
+
+  @Override
+  protected boolean canServeStale(final CacheEntry entry) {
+    final long maxAge = maxStaleAge;
+    return maxAge > 0
+        && entry instanceof ApiCacheEntry && ((ApiCacheEntry) entry).hasValidators()
+        && System.currentTimeMillis() - entry.getTimestamp() < maxAge;
+  }
+
+  @Override
+  protected void onStaleEntryServed(final CacheEntry entry, final CacheEntry requestInfo) {
+    staleHitCount.incrementAndGet();
+    final String key = entry.getCacheKey();
+    if (!revalidations.add(key)) {
+      return;
+    }
+    final Map<String, List<String>> requestHeaders = requestInfo instanceof ApiCacheEntry
+        ? ((ApiCacheEntry) requestInfo).requestHeaders
+        : Collections.<String, List<String>>emptyMap();
+    getRevalidationExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          revalidate((ApiCacheEntry) entry, requestHeaders);
+        } catch (final IOException e) {
+          revalidationErrorCount.incrementAndGet();
+          Log.w(TAG, "Cannot revalidate " + entry.getUri(), e);
+        } finally {
+          revalidations.remove(key);
+        }
+      }
+    });
+  }
+
+  /**
+   * @return executor for background revalidation requests
+   */
+  protected Executor getRevalidationExecutor() { return RevalidationExecutor.INSTANCE; }
+
+  /**
+   * Perform a conditional request. Called from a working thread.
+   * Indexed entry is shared, so a copy is updated and published only after it's written.
+   * @param entry outdated entry
+   * @param requestHeaders headers of the request that has got the outdated entry
+   * @throws IOException if error happens or response is neither 200 nor 304
+   */
+  private void revalidate(final ApiCacheEntry entry, final Map<String, List<String>> requestHeaders)
+      throws IOException {
+    final URLConnection connection = new URL(entry.getUri()).openConnection();
+    if (!(connection instanceof HttpURLConnection)) { return; }
+    final HttpURLConnection http = (HttpURLConnection) connection;
+    try {
+      // the response must not be taken from this cache
+      http.setUseCaches(false);
+      http.setConnectTimeout(REVALIDATION_TIMEOUT);
+      http.setReadTimeout(REVALIDATION_TIMEOUT);
+      for (final Map.Entry<String, List<String>> header : requestHeaders.entrySet()) {
+        for (final String value : header.getValue()) {
+          http.addRequestProperty(header.getKey(), value);
+        }
+      }
+      if (entry.etag != null) {
+        http.setRequestProperty("If-None-Match", entry.etag);
+      }
+      if (entry.lastModified != null) {
+        http.setRequestProperty("If-Modified-Since", entry.lastModified);
+      }
+
+      final int code = http.getResponseCode();
+      if (DEBUG) { Log.d(TAG, "Revalidation of " + entry.getUri() + ": " + code); }
+      if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        final ApiCacheEntry update = copyOf(entry);
+        update.renewTimestamp();
+        update.updateValidators(http);
+        if (!updateMetadata(update)) {
+          throw new IOException("Cannot update metadata of " + entry.getUri());
+        }
+        notModifiedCount.incrementAndGet();
+      } else if (code == HttpURLConnection.HTTP_OK) {
+        final CacheRequest request = put(new URI(entry.getUri()), http);
+        if (request != null) {
+          final InputStream input = http.getInputStream();
+          try {
+            IoUtils.transfer(input, request.getBody(), getBuffersPool());
+            request.getBody().close();
+            refreshedCount.incrementAndGet();
+          } catch (final IOException e) {
+            request.abort();
+            throw e;
+          }
+        }
+      } else {
+        throw new IOException("Unexpected revalidation response " + code + " for " + entry.getUri());
+      }
+    } catch (final URISyntaxException e) {
+      throw new IOException("Bad URI " + entry.getUri());
+    } finally {
+      http.disconnect();
+    }
+  }
+
+  private ApiCacheEntry copyOf(final ApiCacheEntry entry) throws IOException {
+    final ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+    entry.writeTo(metadata, getBuffersPool());
+    final ApiCacheEntry copy = (ApiCacheEntry) newCacheEntry();
+    copy.readFrom(new ByteArrayInputStream(metadata.toByteArray()), getBuffersPool());
+    return copy;
+  }
+
+  /** Cache entry that keeps response validators. */
+  public static class ApiCacheEntry extends CacheEntry {
+    /** Metadata field tags. */
+    private static final int FIELD_ETAG = 1, FIELD_LAST_MODIFIED = 2;
+
+    /** Request headers that are not forwarded to revalidation requests (lower case). */
+    private static final Set<String> SKIPPED_REQUEST_HEADERS = new HashSet<String>(Arrays.asList(
+        "host", "connection", "content-length", "transfer-encoding", "accept-encoding",
+        "if-none-match", "if-modified-since", "if-match", "if-unmodified-since", "if-range"
+    ));
+
+    /** Validators. */
+    String etag, lastModified;
+
+    /** Headers of the request described by this entry, they are not stored. */
+    Map<String, List<String>> requestHeaders = Collections.emptyMap();
+
+    @Override
+    public void set(final URI uri, final String requestMethod, final Map<String, List<String>> headers) {
+      super.set(uri, requestMethod, headers);
+      setRequestHeaders(headers);
+    }
+
+    @Override
+    public void setFrom(final URLConnection conn) {
+      super.setFrom(conn);
+      try {
+        setRequestHeaders(conn.getRequestProperties());
+      } catch (final IllegalStateException e) {
+        // already connected, headers are not available
+        setRequestHeaders(null);
+      }
+    }
+
+    private void setRequestHeaders(final Map<String, List<String>> headers) {
+      if (headers == null || headers.isEmpty()) {
+        requestHeaders = Collections.emptyMap();
+        return;
+      }
+      final Map<String, List<String>> result = new LinkedHashMap<String, List<String>>();
+      for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+        final String name = header.getKey();
+        if (name != null && header.getValue() != null
+            && !SKIPPED_REQUEST_HEADERS.contains(name.toLowerCase(Locale.US))) {
+          result.put(name, header.getValue());
+        }
+      }
+      requestHeaders = result;
+    }
+
+    @Override
+    public void setResponseData(final URLConnection conn) {
+      super.setResponseData(conn);
+      etag = conn.getHeaderField("ETag");
+      lastModified = conn.getHeaderField("Last-Modified");
+    }
+
+    void updateValidators(final URLConnection conn) {
+      final String newEtag = conn.getHeaderField("ETag");
+      if (newEtag != null) { etag = newEtag; }
+      final String newLastModified = conn.getHeaderField("Last-Modified");
+      if (newLastModified != null) { lastModified = newLastModified; }
+    }
+
+    public String getEtag() { return etag; }
+    public String getLastModified() { return lastModified; }
+
+    public boolean hasValidators() { return etag != null || lastModified != null; }
+
+    @Override
+    protected void writeMetaData(final MetadataFields fields) {
+      if (etag != null) { fields.putString(FIELD_ETAG, etag); }
+      if (lastModified != null) { fields.putString(FIELD_LAST_MODIFIED, lastModified); }
+    }
+
+    @Override
+    protected void readMetaData(final MetadataFields fields) {
+      etag = fields.getString(FIELD_ETAG);
+      lastModified = fields.getString(FIELD_LAST_MODIFIED);
+    }
+  }
+
+  /** Executor for revalidation requests shared by all the caches. */
+  private static final class RevalidationExecutor {
+    /** Max count of concurrent revalidations. */
+    private static final int THREADS_COUNT = 2;
+    /** Idle threads timeout in seconds. */
+    private static final int KEEP_ALIVE = 10;
+
+    /** Instance. */
+    static final ThreadPoolExecutor INSTANCE = new ThreadPoolExecutor(THREADS_COUNT, THREADS_COUNT,
+        KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          /** Counter. */
+          private final AtomicInteger counter = new AtomicInteger();
+          @Override
+          public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "Cache revalidation #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    static {
+      INSTANCE.allowCoreThreadTimeOut(true);
+    }
+  }
+
 }
@@ -1,6 +1,7 @@
 package com.stanfy.enroscar.net.cache;
 
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.jakewharton.disklrucache.DiskLruCache;
@@ -14,6 +15,7 @@ import com.stanfy.enroscar.net.cache.CacheEntry.CacheEntryListener;
 import com.stanfy.enroscar.net.cache.CacheEntry.CacheEntryRequest;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -23,14 +25,35 @@ import java.net.CacheResponse;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base class for cache implementations based on file system.
+ * <p>
+ *   Cache is installed asynchronously. Reads and writes issued before installation is finished
+ *   bypass the cache instead of waiting for it (see {@link #setWaitForInstallation(boolean)}).
+ * </p>
+ * <p>
+ *   Cache can be split into several independent disk caches (shards) with {@link #setShardsCount(int)}.
+ *   Each shard lives in its own subdirectory of the working directory, has its own journal, lock and index
+ *   and gets an equal part of the max size. Keys are distributed among shards by their hash,
+ *   so concurrent operations with different entries are rarely serialized.
+ * </p>
+ * <p>
+ *   Entries are evicted by the cache itself according to {@link #setEvictionPolicy(EvictionPolicy)},
+ *   LRU is used by default. Entries can be protected from eviction with {@link #pin(String)}.
+ *   Disk caches evict entries on their own only when the max size is exceeded {@value #DISK_SIZE_LIMIT_FACTOR} times,
+ *   this protects from uncontrolled growth when there are too many pinned entries.
+ *   Other policies can be evaluated on the real load with {@link #setComparedEvictionPolicies(EvictionPolicy...)}.
+ * </p>
  * @author Roman Mazur (Stanfy - http://stanfy.com)
  */
 public abstract class BaseFileResponseCache extends BaseSizeRestrictedCache
@@ -49,19 +72,46 @@ public abstract class BaseFileResponseCache extends BaseSizeRestrictedCache
   /** Application version. */
   private static final int VERSION = 20120718;
 
-  /** Disk cache instance. */
-  private DiskLruCache diskCache;
+  /** Disk caches evict entries themselves only when their size exceeds max size this times. */
+  public static final int DISK_SIZE_LIMIT_FACTOR = 2;
+
+  /** Count of shards. */
+  private int shardsCount = 1;
+  /** Disk cache shards. */
+  private Shard[] shards;
 
   /** Buffers pool. */
   private BuffersPool buffersPool;
 
+  /** Eviction policy. */
+  private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+  /** Eviction statistics. */
+  private EvictionStats evictionStats = new EvictionStats(EvictionPolicy.LRU);
+  /** Keys of pinned entries. */
+  private final Set<String> pinnedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /** Simulated queues of compared policies. Guarded by itself. */
+  private final ArrayList<EvictionQueue> comparedQueues = new ArrayList<EvictionQueue>();
+  /** Statistics of compared policies. */
+  private volatile List<EvictionStats> comparedStats = Collections.emptyList();
+
   /** Sync point for cache installation. */
   private final CountDownLatch initSync = new CountDownLatch(1);
+
+  /** Hash function for cache keys. */
+  private CacheKeyHash cacheKeyHash = CacheKeyHash.MD5;
+
+  /** Whether operations should wait for cache installation. */
+  private volatile boolean waitForInstallation;
+
+  /** Installation time in milliseconds, -1 if cache is not installed yet. */
+  private volatile long installTime = -1;
   
   /** Statistics. */
   private final AtomicInteger writeSuccessCount = new AtomicInteger(0),
                               writeAbortCount = new AtomicInteger(0),
-                              hitCount = new AtomicInteger(0);
+                              hitCount = new AtomicInteger(0),
+                              bypassCount = new AtomicInteger(0);
 
   /**
    * Setup cache. This operation causes disk reads.
@@ -73,10 +123,297 @@ public abstract class BaseFileResponseCache extends BaseSizeRestrictedCache
       throw new IllegalStateException("Buffers pool is not resolved");
     }
     
-    diskCache = DiskLruCache.open(ensureWorkingDirectory(), version, ENTRIES_COUNT, getMaxSize());
+    final File workingDirectory = ensureWorkingDirectory();
+    final int count = shardsCount;
+    final long shardMaxSize = getMaxSize() / count;
+    final Shard[] shards = new Shard[count];
+    for (int i = 0; i < count; i++) {
+      final File directory = count == 1 ? workingDirectory : new File(workingDirectory, String.valueOf(i));
+      final DiskLruCache diskCache = DiskLruCache.open(directory, version, ENTRIES_COUNT,
+          shardMaxSize * DISK_SIZE_LIMIT_FACTOR);
+      shards[i] = new Shard(diskCache, new EvictionQueue(shardMaxSize, evictionPolicy, evictionStats));
+      buildIndex(shards[i]);
+    }
+    this.shards = shards;
     onCacheInstalled();
   }
 
+  /**
+   * Read metadata of all the clean entries of the shard.
+   * Files are read directly in order to avoid journal writes for every entry.
+   */
+  private void buildIndex(final Shard shard) {
+    final File directory = shard.diskCache.getDirectory();
+    final String metadataSuffix = "." + ENTRY_METADATA;
+    final String[] names = directory.list();
+    if (names == null) { return; }
+    final ArrayList<CacheEntry> entries = new ArrayList<CacheEntry>(names.length / ENTRIES_COUNT);
+    for (final String name : names) {
+      if (!name.endsWith(metadataSuffix)) { continue; }
+      final String key = name.substring(0, name.length() - metadataSuffix.length());
+      final CacheEntry entry = newCacheEntry();
+      InputStream input = null;
+      try {
+        input = new FileInputStream(new File(directory, name));
+        entry.readFrom(input, buffersPool);
+      } catch (final IOException e) {
+        IoUtils.closeQuietly(input);
+        Log.w(TAG, "Cannot index cache entry " + key, e);
+        continue;
+      }
+      if (entry.isTextFormat()) {
+        writeMetadata(shard, key, entry);
+      }
+      entries.add(entry);
+    }
+
+    // access order is unknown, creation order is the best guess
+    Collections.sort(entries, new Comparator<CacheEntry>() {
+      @Override
+      public int compare(final CacheEntry lhs, final CacheEntry rhs) {
+        final long l = lhs.getTimestamp(), r = rhs.getTimestamp();
+        return l < r ? -1 : (l == r ? 0 : 1);
+      }
+    });
+    for (final CacheEntry entry : entries) {
+      putToIndex(shard, entry.getCacheKey(), entry, false);
+    }
+    if (DEBUG) { Log.d(TAG, "Indexed " + entries.size() + " entries in " + directory); }
+  }
+
+  /**
+   * Rewrite metadata of an existing entry. Entry body is not touched.
+   * @param shard shard the entry belongs to
+   * @param key cache key
+   * @param entry entry metadata
+   * @return true if metadata is written
+   */
+  private boolean writeMetadata(final Shard shard, final String key, final CacheEntry entry) {
+    DiskLruCache.Editor editor = null;
+    try {
+      editor = shard.diskCache.edit(key);
+      if (editor == null) { return false; }
+      entry.writeTo(editor.newOutputStream(ENTRY_METADATA), buffersPool);
+      editor.commit();
+      return true;
+    } catch (final IOException e) {
+      Log.w(TAG, "Cannot write metadata of " + key, e);
+      if (editor != null) {
+        try {
+          editor.abort();
+        } catch (final IOException ignored) {
+          Log.w(TAG, "Cannot abort editor", ignored);
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Rewrite metadata of a cached entry, e. g. after its revalidation. Entry body is not touched.
+   * @param entry entry metadata
+   * @return true if metadata is written
+   */
+  protected boolean updateMetadata(final CacheEntry entry) {
+    if (!checkDiskCache(false)) { return false; }
+    final String key = entry.getCacheKey();
+    final Shard shard = shardFor(key);
+    if (!writeMetadata(shard, key, entry)) { return false; }
+    putToIndex(shard, key, entry, false);
+    flush(shard);
+    return true;
+  }
+
+  /**
+   * Put entry to the index and evict entries if cache size is exceeded.
+   * @param written whether entry has just been written after a cache miss
+   */
+  private void putToIndex(final Shard shard, final String key, final CacheEntry entry, final boolean written) {
+    final File directory = shard.diskCache.getDirectory();
+    final long size = new File(directory, key + "." + ENTRY_BODY).length()
+        + new File(directory, key + "." + ENTRY_METADATA).length();
+    final List<String> evicted;
+    synchronized (shard.index) {
+      shard.index.put(key, entry, size, written);
+      evicted = shard.index.trim(pinnedKeys);
+    }
+    for (final String evictedKey : evicted) {
+      try {
+        shard.diskCache.remove(evictedKey);
+      } catch (final IOException e) {
+        Log.w(TAG, "Cannot evict cache entry " + evictedKey, e);
+      }
+    }
+    if (written) {
+      simulateAccess(key, entry, size);
+    }
+  }
+
+  /**
+   * @param access whether entry is used: it's moved to the end of LRU queue and its hit is counted
+   */
+  private CacheEntry getFromIndex(final Shard shard, final String key, final boolean access) {
+    final EvictionQueue.Record record;
+    synchronized (shard.index) {
+      record = shard.index.get(key, access);
+    }
+    if (record == null) { return null; }
+    if (access) {
+      simulateAccess(key, record.entry, record.size);
+    }
+    return record.entry;
+  }
+
+  private static void removeFromIndex(final Shard shard, final String key) {
+    synchronized (shard.index) {
+      shard.index.remove(key);
+    }
+  }
+
+  /** @return count of entries in the in-memory index */
+  public int getIndexedCount() {
+    final Shard[] shards = this.shards;
+    if (shards == null) { return 0; }
+    int result = 0;
+    for (final Shard shard : shards) {
+      synchronized (shard.index) {
+        result += shard.index.count();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param limit max count of URIs to return
+   * @return URIs of cached entries that were hit at least once, the most frequently hit first
+   */
+  public List<String> getMostHitUris(final int limit) {
+    final Shard[] shards = this.shards;
+    if (shards == null || limit <= 0) { return Collections.emptyList(); }
+    // hits are copied since records are updated concurrently
+    final ArrayList<long[]> hits = new ArrayList<long[]>();
+    final ArrayList<String> uris = new ArrayList<String>();
+    for (final Shard shard : shards) {
+      synchronized (shard.index) {
+        for (final EvictionQueue.Record record : shard.index.records()) {
+          if (record.hits > 0) {
+            hits.add(new long[] {record.hits, uris.size()});
+            uris.add(record.entry.getUri());
+          }
+        }
+      }
+    }
+    Collections.sort(hits, new Comparator<long[]>() {
+      @Override
+      public int compare(final long[] lhs, final long[] rhs) {
+        return lhs[0] > rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+      }
+    });
+    final int count = Math.min(limit, hits.size());
+    final ArrayList<String> result = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(uris.get((int) hits.get(i)[1]));
+    }
+    return result;
+  }
+
+  /**
+   * Set eviction policy. Must be called before the cache is installed.
+   * @param policy eviction policy
+   */
+  protected void setEvictionPolicy(final EvictionPolicy policy) {
+    if (policy == null) { throw new IllegalArgumentException("Eviction policy cannot be null"); }
+    this.evictionPolicy = policy;
+    this.evictionStats = new EvictionStats(policy);
+  }
+
+  public EvictionPolicy getEvictionPolicy() { return evictionPolicy; }
+
+  /** @return statistics of the current eviction policy */
+  public EvictionStats getEvictionStats() { return evictionStats; }
+
+  /**
+   * Evaluate other eviction policies on the real cache load. For each policy cache index is simulated in memory
+   * with the same max size and pinned entries (shards are not simulated). Must be called before the cache is installed.
+   * @param policies policies to compare with the current one
+   */
+  protected void setComparedEvictionPolicies(final EvictionPolicy... policies) {
+    final ArrayList<EvictionStats> stats = new ArrayList<EvictionStats>(policies.length);
+    synchronized (comparedQueues) {
+      comparedQueues.clear();
+      for (final EvictionPolicy policy : policies) {
+        final EvictionStats policyStats = new EvictionStats(policy);
+        stats.add(policyStats);
+        comparedQueues.add(new EvictionQueue(getMaxSize(), policy, policyStats));
+      }
+    }
+    comparedStats = Collections.unmodifiableList(stats);
+  }
+
+  /** @return statistics of policies set with {@link #setComparedEvictionPolicies(EvictionPolicy...)} */
+  public List<EvictionStats> getComparedEvictionStats() { return comparedStats; }
+
+  private void simulateAccess(final String key, final CacheEntry entry, final long size) {
+    if (comparedStats.isEmpty()) { return; }
+    synchronized (comparedQueues) {
+      for (final EvictionQueue queue : comparedQueues) {
+        queue.simulateAccess(key, entry, size, pinnedKeys);
+      }
+    }
+  }
+
+  /**
+   * Protect the entry from eviction. Pins are not persisted.
+   * Entry can still be deleted with {@link #deleteGetEntry(String)}.
+   * @param url entry URL
+   * @return true if URL is valid
+   */
+  public boolean pin(final String url) {
+    final CacheEntry entry = createGetEntry(url);
+    if (entry == null) { return false; }
+    pinnedKeys.add(entry.getCacheKey());
+    return true;
+  }
+
+  /**
+   * @param url entry URL
+   * @return true if entry was pinned
+   */
+  public boolean unpin(final String url) {
+    final CacheEntry entry = createGetEntry(url);
+    return entry != null && pinnedKeys.remove(entry.getCacheKey());
+  }
+
+  /**
+   * @param url entry URL
+   * @return whether the entry is pinned
+   */
+  public boolean isPinned(final String url) {
+    final CacheEntry entry = createGetEntry(url);
+    return entry != null && pinnedKeys.contains(entry.getCacheKey());
+  }
+
+  /**
+   * Split the cache into several disk caches. Must be called before the cache is installed.
+   * Changing it for an existing cache makes all its entries unreachable.
+   * @param shardsCount count of shards, 1 means that entries are stored directly in the working directory
+   */
+  protected void setShardsCount(final int shardsCount) {
+    if (shardsCount <= 0) { throw new IllegalArgumentException("Bad shards count " + shardsCount); }
+    this.shardsCount = shardsCount;
+  }
+
+  public int getShardsCount() { return shardsCount; }
+
+  private int shardIndex(final String key) {
+    final int count = shardsCount;
+    return count == 1 ? 0 : (key.hashCode() & Integer.MAX_VALUE) % count;
+  }
+
+  private Shard shardFor(final String key) {
+    return shards[shardIndex(key)];
+  }
+
   // this method is synchronized in order to avoid concurrent calls to mkdir
   private synchronized File ensureWorkingDirectory() throws IOException {
     File directory = getWorkingDirectory();
@@ -106,54 +443,84 @@ public abstract class BaseFileResponseCache extends BaseSizeRestrictedCache
   }
   
   public void delete() throws IOException {
-    if (DEBUG) { Log.d(TAG, "Delete cache workingDirectory=" + diskCache.getDirectory()); }
-    diskCache.delete();
-  }
-
-  public DiskLruCache getDiskCache() { return diskCache; }
-
-  private DiskLruCache.Snapshot readCacheInfo(final CacheEntry requestInfo, final CacheEntry entry) {
-    if (!checkDiskCache()) { return null; }
-
-    final String key = requestInfo.getCacheKey();
-
-    DiskLruCache.Snapshot snapshot;
-    InputStream bufferedStream = null;
-    try {
-      snapshot = diskCache.get(key);
-      if (snapshot == null) {
-        return null;
+    if (DEBUG) { Log.d(TAG, "Delete cache workingDirectory=" + getWorkingDirectory()); }
+    for (final Shard shard : shards) {
+      shard.diskCache.delete();
+      synchronized (shard.index) {
+        shard.index.clear();
       }
-      bufferedStream = buffersPool.bufferize(snapshot.getInputStream(ENTRY_METADATA));
-      entry.readFrom(bufferedStream);
-    } catch (final IOException e) {
-      IoUtils.closeQuietly(bufferedStream);
-      // Give up because the cache cannot be read.
-      return null;
     }
-    return snapshot;
   }
 
+  /**
+   * @return disk cache instance, the first shard if there are several of them
+   */
+  public DiskLruCache getDiskCache() {
+    final Shard[] shards = this.shards;
+    return shards != null ? shards[0].diskCache : null;
+  }
+
+  protected BuffersPool getBuffersPool() { return buffersPool; }
+
   /**
    * Read cache for the specified cache entry.
+   * Entry metadata is taken from the index, disk is touched only if entry can be used.
    * @param requestInfo request info (cache key)
    * @return cache response instance
    */
   protected CacheResponse get(final CacheEntry requestInfo) {
     if (!checkDiskCache()) { return null; }
-    final CacheEntry entry = newCacheEntry();
-    final DiskLruCache.Snapshot snapshot = readCacheInfo(requestInfo, entry);
-    if (snapshot == null) { return null; }
+    final String key = requestInfo.getCacheKey();
+    final Shard shard = shardFor(key);
+    final CacheEntry entry = getFromIndex(shard, key, false);
+    if (entry == null || !entry.matches(requestInfo)) {
+      return null;
+    }
+    final boolean fresh = entry.canBeUsed();
+    if (!fresh && !canServeStale(entry)) {
+      return null;
+    }
 
-    if (!entry.matches(requestInfo) || !entry.canBeUsed()) {
-      snapshot.close();
+    final DiskLruCache.Snapshot snapshot;
+    try {
+      snapshot = shard.diskCache.get(key);
+    } catch (final IOException e) {
+      // Give up because the cache cannot be read.
+      return null;
+    }
+    if (snapshot == null) {
+      // evicted by disk cache
+      removeFromIndex(shard, key);
       return null;
     }
+    // disk cache has moved this entry to the end of its queue
+    final CacheEntry actualEntry = getFromIndex(shard, key, true);
 
     hitCount.incrementAndGet();
+    final CacheEntry result = actualEntry != null ? actualEntry : entry;
+    if (!fresh) {
+      onStaleEntryServed(result, requestInfo);
+    }
 
     final InputStream body = newBodyInputStream(snapshot);
-    return entry.newCacheResponse(body);
+    return result.newCacheResponse(body);
+  }
+
+  /**
+   * @param entry cache entry that is outdated according to time rules
+   * @return whether this entry can be returned anyway (then {@link #onStaleEntryServed(CacheEntry, CacheEntry)} is called)
+   */
+  protected boolean canServeStale(final CacheEntry entry) {
+    return false;
+  }
+
+  /**
+   * Called when an outdated entry is returned from this cache.
+   * @param entry cache entry, it's shared and must not be modified
+   * @param requestInfo entry describing the request that has got the outdated entry
+   */
+  protected void onStaleEntryServed(final CacheEntry entry, final CacheEntry requestInfo) {
+    // nothing
   }
 
   @Override
@@ -184,6 +551,7 @@ public abstract class BaseFileResponseCache extends BaseSizeRestrictedCache
   protected final CacheEntry newCacheEntry() {
     final CacheEntry result = createCacheEntry();
     result.setListener(this);
+    result.setKeyHash(cacheKeyHash);
     return result;
   }
 
@@ -216,12 +584,12 @@ public abstract class BaseFileResponseCache extends BaseSizeRestrictedCache
     DiskLruCache.Editor editor = null;
     OutputStream metaOut = null;
     try {
-      editor = diskCache.edit(key);
+      editor = shardFor(key).diskCache.edit(key);
       if (editor == null) {
         return null;
       }
-      metaOut = buffersPool.bufferize(editor.newOutputStream(ENTRY_METADATA));
-      cacheEntry.writeTo(metaOut);
+      metaOut = editor.newOutputStream(ENTRY_METADATA);
+      cacheEntry.writeTo(metaOut, buffersPool);
       return cacheEntry.newCacheRequest(buffersPool.bufferize(editor.newOutputStream(ENTRY_BODY)), editor);
     } catch (final IOException e) {
       Log.w(TAG, "Cannot write cache entry", e);
@@ -240,15 +608,60 @@ public abstract class BaseFileResponseCache extends BaseSizeRestrictedCache
 
   }
 
+  /**
+   * Set hash function used to derive cache keys. Must be called before the cache is installed.
+   * Changing it for an existing cache makes all its entries unreachable.
+   * @param cacheKeyHash hash function
+   */
+  protected void setCacheKeyHash(final CacheKeyHash cacheKeyHash) {
+    this.cacheKeyHash = cacheKeyHash;
+  }
+
+  public CacheKeyHash getCacheKeyHash() { return cacheKeyHash; }
+
+  /**
+   * By default cache operations issued before installation is finished bypass the cache.
+   * @param waitForInstallation whether operations should block until cache is installed instead
+   */
+  public void setWaitForInstallation(final boolean waitForInstallation) {
+    this.waitForInstallation = waitForInstallation;
+  }
+
+  /** @return whether cache installation is finished (successfully or not) */
+  public boolean isInstallationFinished() {
+    return initSync.getCount() == 0;
+  }
+
+  /** @return time spent on cache installation in milliseconds, -1 if it's not installed yet */
+  public long getInstallTime() { return installTime; }
+
+  /** @return count of operations that bypassed the cache because it was not installed yet */
+  public int getBypassCount() { return bypassCount.get(); }
+
   private boolean checkDiskCache() {
+    return checkDiskCache(true);
+  }
+
+  /**
+   * @param canBypass whether operation can be skipped if cache is not installed yet
+   * @return whether disk cache can be used
+   */
+  private boolean checkDiskCache(final boolean canBypass) {
+    if (canBypass && !waitForInstallation && !isInstallationFinished()) {
+      bypassCount.incrementAndGet();
+      if (DEBUG) { Log.d(TAG, "Cache " + this + " is not installed yet, bypass it"); }
+      return false;
+    }
+
     try {
       initSync.await();
     } catch (InterruptedException e) {
       Log.i(TAG, "Init sync waiting was interrupted for cache " + this);
     }
     
-    if (diskCache == null || diskCache.isClosed()) {
-      Log.e(TAG, "File cache is being used but not properly installed, diskCache = " + diskCache);
+    final Shard[] shards = this.shards;
+    if (shards == null || shards[0].diskCache.isClosed()) {
+      Log.e(TAG, "File cache is being used but not properly installed, cache = " + this);
       return false;
     }
     return true;
@@ -268,33 +681,79 @@ public abstract class BaseFileResponseCache extends BaseSizeRestrictedCache
 
   @Override
   public boolean deleteGetEntry(final String url) throws IOException {
-    if (!checkDiskCache()) { return false; }
+    // removal cannot be skipped
+    if (!checkDiskCache(false)) { return false; }
     final CacheEntry cacheEntry = createGetEntry(url);
     if (cacheEntry == null) { return false; }
-    return diskCache.remove(cacheEntry.getCacheKey());
+    final String key = cacheEntry.getCacheKey();
+    final Shard shard = shardFor(key);
+    removeFromIndex(shard, key);
+    return shard.diskCache.remove(key);
   }
 
+  /**
+   * Entry is looked up in the index first and then confirmed by the disk cache
+   * that might have evicted its files. Stale index entries are dropped.
+   * @param url content URL
+   * @return true if the entry for specified URL exists in cache
+   */
   @Override
   public boolean contains(final String url) {
-    final CacheEntry requestInfo = createGetEntry(url);
-    if (requestInfo == null) { return false; }
+    final CacheEntry entry = getIndexedEntry(url);
+    if (entry == null) { return false; }
+    final String key = entry.getCacheKey();
+    final Shard shard = shardFor(key);
+    final DiskLruCache.Snapshot snapshot;
+    try {
+      snapshot = shard.diskCache.get(key);
+    } catch (final IOException e) {
+      Log.w(TAG, "Cannot read cache entry " + key, e);
+      return false;
+    }
+    if (snapshot == null) {
+      // evicted by disk cache
+      removeFromIndex(shard, key);
+      return false;
+    }
+    snapshot.close();
+    return true;
+  }
 
-    final CacheEntry entry = newCacheEntry();
-    final DiskLruCache.Snapshot snapshot = readCacheInfo(requestInfo, entry);
-    if (snapshot == null) { return false; }
-    IoUtils.closeQuietly(snapshot);
+  /**
+   * Access to the entry is not counted.
+   * @param url entry URL
+   * @return metadata of the cached GET entry or null if it's not cached
+   */
+  protected CacheEntry getIndexedEntry(final String url) {
+    if (!checkDiskCache()) { return null; }
+    final CacheEntry requestInfo = createGetEntry(url);
+    if (requestInfo == null) { return null; }
 
-    return entry.matches(requestInfo);
+    final String key = requestInfo.getCacheKey();
+    final CacheEntry entry = getFromIndex(shardFor(key), key, false);
+    return entry != null && entry.matches(requestInfo) ? entry : null;
   }
 
   @Override
   public String getLocalPath(final String url) {
     final CacheEntry requestInfo = createGetEntry(url);
     if (requestInfo == null) { return null; }
-    File f = new File(getWorkingDirectory(), requestInfo.getCacheKey() + "." + ENTRY_BODY);
+    final String key = requestInfo.getCacheKey();
+    final File directory = shardsCount == 1
+        ? getWorkingDirectory()
+        : new File(getWorkingDirectory(), String.valueOf(shardIndex(key)));
+    File f = new File(directory, key + "." + ENTRY_BODY);
     return f.getAbsolutePath();
   }
 
+  private static void flush(final Shard shard) {
+    try {
+      shard.diskCache.flush();
+    } catch (final IOException e) {
+      Log.w(TAG, "Cannot flush disk cache", e);
+    }
+  }
+
   @Override
   public void onCacheEntryWriteAbort(final CacheEntryRequest request) {
     writeAbortCount.incrementAndGet();
@@ -302,11 +761,11 @@ public abstract class BaseFileResponseCache extends BaseSizeRestrictedCache
   @Override
   public void onCacheEntryWriteSuccess(final CacheEntryRequest request) {
     writeSuccessCount.incrementAndGet();
-    try {
-      diskCache.flush();
-    } catch (final IOException e) {
-      Log.w(TAG, "Cannot flush disk cache", e);
-    }
+    final CacheEntry entry = request.getCacheEntry();
+    final String key = entry.getCacheKey();
+    final Shard shard = shardFor(key);
+    putToIndex(shard, key, entry, true);
+    flush(shard);
   }
 
   public int getWriteSuccessCount() { return writeSuccessCount.get(); }
@@ -327,7 +786,10 @@ public abstract class BaseFileResponseCache extends BaseSizeRestrictedCache
           if (DEBUG) {
             Log.i(TAG, "Install new file cache workingDirectory=" + getWorkingDirectory() + ", version=" + VERSION + ", maxSize=" + getMaxSize());
           }
+          final long startTime = SystemClock.elapsedRealtime();
           install(VERSION);
+          installTime = SystemClock.elapsedRealtime() - startTime;
+          if (DEBUG) { Log.i(TAG, "File cache " + BaseFileResponseCache.this + " installed in " + installTime + "ms"); }
         } catch (final IOException e) {
           // We do not throw fatal exception: it's a cache app should be able to work without it
           Log.e(TAG, "Cannot install file cache " + BaseFileResponseCache.this + ". It must be configuration error.", e);
@@ -347,12 +809,31 @@ public abstract class BaseFileResponseCache extends BaseSizeRestrictedCache
       if (DEBUG) {
         Log.i(TAG, "Close file cache workingDirectory=" + getWorkingDirectory());
       }
-      diskCache.close();
+      final Shard[] shards = this.shards;
+      if (shards != null) {
+        for (final Shard shard : shards) {
+          shard.diskCache.close();
+        }
+      }
     } catch (final IOException e) {
       Log.e(TAG, "Cannot close file cache", e);
     }
   }
 
+  /** Independent part of the cache. */
+  private static final class Shard {
+    /** Disk cache instance. */
+    final DiskLruCache diskCache;
+
+    /** In-memory index of cache entries: cache key to entry metadata. Eviction is driven by it. */
+    final EvictionQueue index;
+
+    Shard(final DiskLruCache diskCache, final EvictionQueue index) {
+      this.diskCache = diskCache;
+      this.index = index;
+    }
+  }
+
   @Override
   public String toString() {
     return getClass().getName() + "@" + hashCode() + "[dir=" + getWorkingDirectory() + ", maxSize=" + getMaxSize() + "]";
@@ -8,16 +8,20 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.jakewharton.disklrucache.DiskLruCache.Editor;
+import com.stanfy.enroscar.io.BuffersPool;
+import com.stanfy.enroscar.io.CompactDataInput;
+import com.stanfy.enroscar.io.CompactDataOutput;
 import com.stanfy.enroscar.io.IoUtils;
 import com.stanfy.enroscar.net.UrlConnectionWrapper;
 import com.stanfy.enroscar.utils.Time;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.net.CacheRequest;
 import java.net.CacheResponse;
@@ -36,12 +40,29 @@ import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeMap;
 
-/** Cache entry. */
+/**
+ * Cache entry.
+ * <p>
+ *   Metadata is stored in a binary format: a zero marker byte, format version, then variable length integers
+ *   and length-prefixed UTF-8 strings followed by {@link MetadataFields} of subclasses.
+ *   Entries written in the old line-based text format can be read as well.
+ *   Output of the deprecated {@link #writeMetaData(Writer)} is kept in a single extension field
+ *   and is given back to {@link #readMetaData(InputStream)}, so old subclasses keep working.
+ * </p>
+ */
 public class CacheEntry {
 
   /** Logging tag. */
   private static final String TAG = "CacheEntry";
 
+  /** Value of matched time rule index that is not looked up yet. */
+  private static final int RULE_UNKNOWN = -2;
+
+  /** First byte of binary metadata. Text metadata starts with URI which cannot contain zero bytes. */
+  private static final int BINARY_FORMAT_MARKER = 0;
+  /** Binary metadata format version. */
+  private static final int BINARY_FORMAT_VERSION = 1;
+
   /** This comparator is required to add null keys to the {@link TreeMap}. */
   private static final Comparator<String> STRINGS_COMPARATOR = new Comparator<String>() {
     @Override
@@ -83,10 +104,29 @@ public class CacheEntry {
   private CacheEntryListener listener;
 
   /** Time rules. */
-  private CacheTimeRule[] timeRules;
+  private CacheTimeRules timeRules;
+  /** Index of the matched time rule, {@link #RULE_UNKNOWN} if it's not looked up yet. */
+  private int matchedRule = RULE_UNKNOWN;
+
+  /** Whether metadata was read in the text format. */
+  private boolean textFormat;
+
+  /** Hash function for cache key. */
+  private CacheKeyHash keyHash = CacheKeyHash.MD5;
+  /** Memoized cache key. */
+  private String cacheKey;
 
+  /**
+   * Rules are compiled on each call, use {@link #setTimeRules(CacheTimeRules)} when entries are created often.
+   * @param timeRules time rules
+   */
   public void setTimeRules(final CacheTimeRule[] timeRules) {
+    setTimeRules(timeRules != null ? new CacheTimeRules(timeRules) : null);
+  }
+
+  public void setTimeRules(final CacheTimeRules timeRules) {
     this.timeRules = timeRules;
+    this.matchedRule = RULE_UNKNOWN;
   }
 
   void renewTimestamp() {
@@ -99,7 +139,7 @@ public class CacheEntry {
   }
 
   public void set(final URI uri, final String requestMethod, final Map<String, List<String>> headers) {
-    this.uri = uri.toString();
+    setUri(uri.toString());
     this.requestMethod = requestMethod;
     renewTimestamp();
   }
@@ -107,7 +147,7 @@ public class CacheEntry {
   public void setFrom(final URLConnection conn) {
     final URLConnection connection = UrlConnectionWrapper.unwrap(conn);
     try {
-      this.uri = connection.getURL().toURI().toString();
+      setUri(connection.getURL().toURI().toString());
       if (connection instanceof HttpURLConnection) {
         this.requestMethod = ((HttpURLConnection) connection).getRequestMethod();
       }
@@ -142,13 +182,33 @@ public class CacheEntry {
   /**
    * @param uri URI for this cache entry
    */
-  protected void setUri(final String uri) { this.uri = uri; }
+  protected void setUri(final String uri) {
+    this.uri = uri;
+    this.cacheKey = null;
+    this.matchedRule = RULE_UNKNOWN;
+  }
   /**
    * @param requestMethod request method for this cache entry
    */
   protected void setRequestMethod(final String requestMethod) { this.requestMethod = requestMethod; }
 
-  public String getCacheKey() { return Md5.getMd5(uri); }
+  /**
+   * @param keyHash hash function for cache key
+   */
+  void setKeyHash(final CacheKeyHash keyHash) {
+    this.keyHash = keyHash;
+    this.cacheKey = null;
+  }
+
+  /** @return cache key derived from URI, it's calculated once */
+  public String getCacheKey() {
+    String result = cacheKey;
+    if (result == null) {
+      result = keyHash.hash(uri);
+      cacheKey = result;
+    }
+    return result;
+  }
 
   public boolean canBeCached() {
     return !TextUtils.isEmpty(uri) && !TextUtils.isEmpty(requestMethod) && uri.startsWith("http") && isRequestMethodCacheable();
@@ -162,47 +222,157 @@ public class CacheEntry {
     return "GET".equalsIgnoreCase(requestMethod);
   }
   
+  /**
+   * Read metadata from the stream and close it.
+   * @param in input stream
+   * @throws IOException if error happens
+   */
   public final void readFrom(final InputStream in) throws IOException {
+    readFrom(in, null);
+  }
+
+  /**
+   * Read metadata from the stream and close it. Both binary and text formats are supported.
+   * @param in input stream, there is no need to bufferize it
+   * @param buffersPool pool for the read buffer, may be null
+   * @throws IOException if error happens
+   */
+  public final void readFrom(final InputStream in, final BuffersPool buffersPool) throws IOException {
+    CompactDataInput data = null;
     try {
-      uri = readString(in);
-      requestMethod = readString(in);
-      timestamp = readLong(in);
-      encoding = readString(in);
-      statusLine = readString(in);
-      if (encoding.length() == 0) {
-        this.encoding = null;
+      data = CompactDataInput.readFully(in, buffersPool);
+      if (data.peekByte() == BINARY_FORMAT_MARKER) {
+        data.readByte();
+        readBinary(data);
+      } else {
+        readText(data.asInputStream());
       }
-      readMetaData(in);
     } finally {
-      in.close();
+      if (data != null) {
+        data.release();
+      }
+      IoUtils.closeQuietly(in);
+    }
+  }
+
+  private void readBinary(final CompactDataInput in) throws IOException {
+    final int version = in.readByte();
+    if (version != BINARY_FORMAT_VERSION) {
+      throw new IOException("Unsupported metadata format version " + version);
+    }
+    setUri(in.readString());
+    requestMethod = in.readString();
+    timestamp = in.readVarLong();
+    encoding = in.readString();
+    statusLine = in.readString();
+    if (uri == null || requestMethod == null) {
+      throw new IOException("Bad metadata: uri=" + uri + ", method=" + requestMethod);
+    }
+    final MetadataFields fields = new MetadataFields();
+    fields.readFrom(in);
+    readMetaData(fields);
+    final String legacyText = fields.getLegacyText();
+    if (legacyText != null) {
+      readMetaData(new ByteArrayInputStream(legacyText.getBytes(IoUtils.UTF_8_NAME)));
     }
+    textFormat = false;
   }
 
+  private void readText(final InputStream in) throws IOException {
+    setUri(readString(in));
+    requestMethod = readString(in);
+    timestamp = readLong(in);
+    encoding = readString(in);
+    statusLine = readString(in);
+    if (encoding.length() == 0) {
+      this.encoding = null;
+    }
+    readMetaData(in);
+    textFormat = true;
+  }
+
+  /** @return whether metadata was read in the old text format and should be rewritten */
+  boolean isTextFormat() { return textFormat; }
+
   /**
-   * Read some special metadata about this cache entry.
+   * Read some special metadata about this cache entry written by {@link #writeMetaData(Writer)}
+   * or stored in the old text format.
+   * Use {@link #readString(InputStream)}, {@link #readInt(InputStream)}, {@link #readLong(InputStream)}.
    * @param in cache entry input stream
    * @throws IOException if error happens
+   * @deprecated override {@link #readMetaData(MetadataFields)} instead,
+   *             this method is still called for entries in the old text format
    */
+  @Deprecated
   protected void readMetaData(final InputStream in) throws IOException {
     // nothing
   }
 
+  /**
+   * Read some special metadata about this cache entry.
+   * @param fields fields written by {@link #writeMetaData(MetadataFields)}
+   */
+  protected void readMetaData(final MetadataFields fields) {
+    // nothing
+  }
+
+  /**
+   * Write metadata to the stream and close it.
+   * @param out output stream
+   * @throws IOException if error happens
+   */
   public final void writeTo(final OutputStream out) throws IOException {
-    final Writer writer = new OutputStreamWriter(out, IoUtils.UTF_8);
-    writeString(writer, uri);
-    writeString(writer, requestMethod);
-    writeLong(writer, timestamp);
-    writeString(writer, encoding);
-    writeString(writer, statusLine);
-    writeMetaData(writer);
-    writer.close();
+    writeTo(out, null);
+  }
+
+  /**
+   * Write metadata in binary format to the stream and close it.
+   * @param out output stream, there is no need to bufferize it
+   * @param buffersPool pool for the write buffer, may be null
+   * @throws IOException if error happens
+   */
+  public final void writeTo(final OutputStream out, final BuffersPool buffersPool) throws IOException {
+    final CompactDataOutput data = new CompactDataOutput(buffersPool);
+    try {
+      data.writeByte(BINARY_FORMAT_MARKER)
+          .writeByte(BINARY_FORMAT_VERSION)
+          .writeString(uri)
+          .writeString(requestMethod)
+          .writeVarLong(timestamp)
+          .writeString(encoding)
+          .writeString(statusLine);
+      final MetadataFields fields = new MetadataFields();
+      writeMetaData(fields);
+      final StringWriter legacyText = new StringWriter();
+      writeMetaData(legacyText);
+      if (legacyText.getBuffer().length() > 0) {
+        fields.putLegacyText(legacyText.toString());
+      }
+      fields.writeTo(data);
+      data.writeTo(out);
+      out.close();
+    } finally {
+      data.release();
+      IoUtils.closeQuietly(out);
+    }
   }
 
   /**
    * Write some special metadata for this entry.
+   * @param fields fields container
+   */
+  protected void writeMetaData(final MetadataFields fields) {
+    // nothing
+  }
+
+  /**
+   * Write some special metadata for this entry as text lines.
+   * Use {@link #writeString(Writer, String)}, {@link #writeInt(Writer, int)}, {@link #writeLong(Writer, long)}.
    * @param writer writer for this cache entry
    * @throws IOException if error happens
+   * @deprecated override {@link #writeMetaData(MetadataFields)} instead
    */
+  @Deprecated
   protected void writeMetaData(final Writer writer) throws IOException {
     // nothing
   }
@@ -239,7 +409,9 @@ public class CacheEntry {
    * @param writer output writer
    * @param value integer value
    * @throws IOException if error happens
+   * @deprecated use {@link MetadataFields#putInt(int, int)}
    */
+  @Deprecated
   protected static void writeInt(final Writer writer, final int value) throws IOException {
     writer.write(new StringBuilder().append(value).append('\n').toString());
   }
@@ -248,7 +420,9 @@ public class CacheEntry {
    * @param writer output writer
    * @param value integer value
    * @throws IOException if error happens
+   * @deprecated use {@link MetadataFields#putLong(int, long)}
    */
+  @Deprecated
   protected static void writeLong(final Writer writer, final long value) throws IOException {
     writer.write(new StringBuilder().append(value).append('\n').toString());
   }
@@ -284,7 +458,9 @@ public class CacheEntry {
    * @param writer output writer
    * @param line line to write (if null just a new empty line is inserted)
    * @throws IOException if error happens
+   * @deprecated use {@link MetadataFields#putString(int, String)}
    */
+  @Deprecated
   protected final void writeString(final Writer writer, final String line) throws IOException {
     if (line != null) {
       writer.write(line + '\n');
@@ -298,11 +474,15 @@ public class CacheEntry {
   }
 
   public boolean canBeUsed() {
+    final CacheTimeRules timeRules = this.timeRules;
     if (timeRules == null) { return true; }
-    for (final CacheTimeRule rule : timeRules) {
-      if (rule.matches(this)) { return rule.isActual(timestamp); }
+    int rule = matchedRule;
+    if (rule == RULE_UNKNOWN) {
+      // URI does not change, so the rule is looked up once per entry
+      rule = timeRules.find(this);
+      matchedRule = rule;
     }
-    return true;
+    return timeRules.isActual(rule, timestamp);
   }
 
   public CacheResponse newCacheResponse(final InputStream in) { return new CacheEntryResponse(in); }
@@ -402,6 +582,9 @@ public class CacheEntry {
     @Override
     public OutputStream getBody() throws IOException { return body; }
 
+    /** @return cache entry this request writes */
+    CacheEntry getCacheEntry() { return CacheEntry.this; }
+
     @Override
     public void abort() {
       synchronized (CacheEntryRequest.this) {
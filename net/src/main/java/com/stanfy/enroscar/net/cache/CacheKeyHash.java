@@ -0,0 +1,37 @@
+package com.stanfy.enroscar.net.cache;
+
+import com.stanfy.enroscar.io.Digests;
+
+/**
+ * Hash function used to derive cache keys (file names) from request URIs.
+ * Both functions produce 32 hex characters.
+ * @see BaseFileResponseCache#setCacheKeyHash(CacheKeyHash)
+ */
+public enum CacheKeyHash {
+
+  /** MD5, the default one. Caches created by previous versions use it. */
+  MD5 {
+    @Override
+    public String hash(final String text) {
+      return Md5.getMd5(text);
+    }
+  },
+
+  /**
+   * 128-bit MurmurHash3. It's several times faster than MD5 but produces different keys,
+   * so use it for new caches only: entries of an existing cache become unreachable.
+   */
+  MURMUR3_128 {
+    @Override
+    public String hash(final String text) {
+      return Digests.murmur3Hex128(text);
+    }
+  };
+
+  /**
+   * @param text input text
+   * @return hex-encoded hash
+   */
+  public abstract String hash(String text);
+
+}
@@ -82,6 +82,8 @@ public abstract class CacheTimeRule {
       return regex.pattern();
     }
 
+    Pattern getPattern() { return regex; }
+
   }
 
 }
@@ -0,0 +1,275 @@
+package com.stanfy.enroscar.net.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled set of {@link CacheTimeRule}s.
+ * <p>
+ *   Literal prefixes of pattern based rules (usually scheme, host and path) are put to a trie.
+ *   Looking a rule up walks the URI through the trie once and checks only the rules whose prefix
+ *   matches the URI in the order they were defined. Rules that are fully literal are checked
+ *   with string comparison, the regular expression is used only if the pattern has other constructs.
+ *   Rules that are not pattern based are checked for every URI.
+ * </p>
+ * <p>
+ *   The first matched rule wins as with a plain array of rules. Instances are thread safe.
+ * </p>
+ * @author Roman Mazur (Stanfy - http://stanfy.com)
+ */
+public final class CacheTimeRules {
+
+  /** Result of {@link #find(CacheEntry)} when no rule matches. */
+  static final int NO_RULE = -1;
+
+  /** Rule kinds. */
+  private static final int KIND_CUSTOM = 0, KIND_LITERAL = 1, KIND_PATTERN = 2;
+
+  /** Regular expression special characters. */
+  private static final String SPECIAL_CHARS = "\\^$.|?*+()[]{}";
+
+  /** Rules. */
+  private final CacheTimeRule[] rules;
+  /** Rule kinds. */
+  private final int[] kinds;
+  /** Literal values of fully literal rules. */
+  private final String[] literals;
+  /** Patterns of pattern based rules. */
+  private final Pattern[] patterns;
+
+  /** Trie root. */
+  private final Node root = new Node();
+
+  /** Statistics. */
+  private final AtomicIntegerArray hitCounts;
+  /** Statistics. */
+  private final AtomicInteger missCount = new AtomicInteger(0);
+
+  public CacheTimeRules(final CacheTimeRule[] rules) {
+    final int count = rules.length;
+    this.rules = rules.clone();
+    this.kinds = new int[count];
+    this.literals = new String[count];
+    this.patterns = new Pattern[count];
+    this.hitCounts = new AtomicIntegerArray(count);
+
+    final List<Node> terminals = new ArrayList<Node>();
+    for (int i = 0; i < count; i++) {
+      final CacheTimeRule rule = rules[i];
+      String prefix = "";
+      if (isPlainPatternRule(rule)) {
+        final Pattern pattern = ((CacheTimeRule.PatternBasedCacheTimeRule) rule).getPattern();
+        final String regex = pattern.pattern();
+        prefix = literalPrefix(regex);
+        if (prefix.length() == regex.length() && regex.indexOf('|') == -1) {
+          kinds[i] = KIND_LITERAL;
+          literals[i] = prefix;
+        } else {
+          kinds[i] = KIND_PATTERN;
+          patterns[i] = pattern;
+        }
+      } else {
+        kinds[i] = KIND_CUSTOM;
+      }
+
+      final Node node = root.add(prefix);
+      node.addRule(i);
+      if (!terminals.contains(node)) {
+        terminals.add(node);
+      }
+    }
+
+    // each terminal node gets candidates of all its terminal ancestors
+    for (Node node : terminals) {
+      node.collectCandidates();
+    }
+  }
+
+  /**
+   * Only rules that do not override matching can be optimized.
+   */
+  private static boolean isPlainPatternRule(final CacheTimeRule rule) {
+    if (!(rule instanceof CacheTimeRule.PatternBasedCacheTimeRule)) { return false; }
+    try {
+      return rule.getClass().getMethod("matches", CacheEntry.class).getDeclaringClass()
+          == CacheTimeRule.PatternBasedCacheTimeRule.class;
+    } catch (final NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param regex regular expression
+   * @return literal string that every string matched by the expression must start with
+   */
+  static String literalPrefix(final String regex) {
+    if (regex.indexOf('|') != -1) { return ""; }
+    final StringBuilder prefix = new StringBuilder(regex.length());
+    final int length = regex.length();
+    int i = 0;
+    while (i < length) {
+      char c = regex.charAt(i);
+      int next = i + 1;
+      if (c == '\\') {
+        if (next >= length) { break; }
+        c = regex.charAt(next);
+        // escaped letters and digits are character classes, references or quotations
+        if (Character.isLetterOrDigit(c)) { break; }
+        next++;
+      } else if (SPECIAL_CHARS.indexOf(c) != -1) {
+        break;
+      }
+      if (next < length) {
+        final char quantifier = regex.charAt(next);
+        if (quantifier == '?' || quantifier == '*' || quantifier == '{') {
+          // the character is optional
+          break;
+        }
+        if (quantifier == '+') {
+          prefix.append(c);
+          break;
+        }
+      }
+      prefix.append(c);
+      i = next;
+    }
+    return prefix.toString();
+  }
+
+  /** @return count of rules */
+  public int size() { return rules.length; }
+
+  /**
+   * @param index rule index
+   * @return rule
+   */
+  public CacheTimeRule getRule(final int index) { return rules[index]; }
+
+  /**
+   * @param index rule index
+   * @return how many times this rule was used to check cache entry
+   */
+  public int getHitCount(final int index) { return hitCounts.get(index); }
+
+  /** @return how many times no rule was found for cache entry */
+  public int getMissCount() { return missCount.get(); }
+
+  /**
+   * @param entry cache entry
+   * @return index of the first rule that matches the entry or {@link #NO_RULE}
+   */
+  int find(final CacheEntry entry) {
+    final String uri = entry.getUri();
+    Node node = root;
+    Node terminal = root.candidates != null ? root : null;
+    final int length = uri.length();
+    for (int i = 0; i < length && node != null; i++) {
+      node = node.child(uri.charAt(i));
+      if (node != null && node.candidates != null) {
+        terminal = node;
+      }
+    }
+    if (terminal == null) { return NO_RULE; }
+
+    for (final int index : terminal.candidates) {
+      final boolean matches;
+      switch (kinds[index]) {
+        case KIND_LITERAL:
+          matches = literals[index].length() == length;
+          break;
+        case KIND_PATTERN:
+          matches = patterns[index].matcher(uri).matches();
+          break;
+        default:
+          matches = rules[index].matches(entry);
+          break;
+      }
+      if (matches) { return index; }
+    }
+    return NO_RULE;
+  }
+
+  /**
+   * @param index rule index returned by {@link #find(CacheEntry)}
+   * @param timestamp entry timestamp
+   * @return whether entry can be used
+   */
+  boolean isActual(final int index, final long timestamp) {
+    if (index == NO_RULE) {
+      missCount.incrementAndGet();
+      return true;
+    }
+    hitCounts.incrementAndGet(index);
+    return rules[index].isActual(timestamp);
+  }
+
+  @Override
+  public String toString() { return "CacheTimeRules" + Arrays.toString(rules); }
+
+  /** Trie node. */
+  private static final class Node {
+    /** Parent node. */
+    private Node parent;
+    /** Children keys. */
+    private char[] keys = new char[0];
+    /** Children. */
+    private Node[] children = new Node[0];
+
+    /** Indices of rules with the prefix ending here. */
+    private int[] rules = new int[0];
+    /** Sorted indices of rules that must be checked for URIs passing this node, null if there are no such rules. */
+    int[] candidates;
+
+    Node child(final char key) {
+      final char[] keys = this.keys;
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == key) { return children[i]; }
+      }
+      return null;
+    }
+
+    Node add(final String prefix) {
+      Node node = this;
+      for (int i = 0; i < prefix.length(); i++) {
+        final char key = prefix.charAt(i);
+        Node child = node.child(key);
+        if (child == null) {
+          child = new Node();
+          child.parent = node;
+          final int count = node.keys.length;
+          node.keys = Arrays.copyOf(node.keys, count + 1);
+          node.children = Arrays.copyOf(node.children, count + 1);
+          node.keys[count] = key;
+          node.children[count] = child;
+        }
+        node = child;
+      }
+      return node;
+    }
+
+    void addRule(final int index) {
+      rules = Arrays.copyOf(rules, rules.length + 1);
+      rules[rules.length - 1] = index;
+    }
+
+    void collectCandidates() {
+      int count = 0;
+      for (Node node = this; node != null; node = node.parent) {
+        count += node.rules.length;
+      }
+      final int[] result = new int[count];
+      int pos = 0;
+      for (Node node = this; node != null; node = node.parent) {
+        System.arraycopy(node.rules, 0, result, pos, node.rules.length);
+        pos += node.rules.length;
+      }
+      Arrays.sort(result);
+      candidates = result;
+    }
+  }
+
+}
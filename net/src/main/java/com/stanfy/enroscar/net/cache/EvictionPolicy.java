@@ -0,0 +1,113 @@
+package com.stanfy.enroscar.net.cache;
+
+import java.util.Collection;
+
+/**
+ * Defines which entries are evicted from {@link BaseFileResponseCache} when it exceeds its max size.
+ * <p>
+ *   Entry with the lowest priority is evicted first. Priorities are computed when eviction happens,
+ *   so they can depend on the current state of the cache.
+ *   Methods of a policy are called from different threads, but calls are serialized on the policy instance.
+ * </p>
+ * @author Roman Mazur (Stanfy - http://stanfy.com)
+ */
+public abstract class EvictionPolicy {
+
+  /** Least recently used entries are evicted first. */
+  public static final EvictionPolicy LRU = new EvictionPolicy("LRU") {
+    @Override
+    public double getPriority(final EntryInfo info, final double inflation) {
+      return info.getLastAccess();
+    }
+    @Override
+    public boolean hasStablePriorities() { return true; }
+  };
+
+  /**
+   * Entries with the lowest count of hits per byte are evicted first,
+   * i.e. a large entry has to be hit more often than a small one to stay in the cache.
+   */
+  public static final EvictionPolicy SIZE_WEIGHTED_LFU = new EvictionPolicy("SizeWeightedLFU") {
+    @Override
+    public double getPriority(final EntryInfo info, final double inflation) {
+      return (info.getHits() + 1.0) / Math.max(info.getSize(), 1);
+    }
+    @Override
+    public boolean hasStablePriorities() { return true; }
+  };
+
+  /**
+   * Greedy-Dual-Size-Frequency: like {@link #SIZE_WEIGHTED_LFU} plus aging.
+   * Priority of evicted entries is added to priorities of the remaining ones,
+   * so that entries that were popular long ago are evicted eventually.
+   */
+  public static final EvictionPolicy GDSF = new EvictionPolicy("GDSF") {
+    @Override
+    public double getPriority(final EntryInfo info, final double inflation) {
+      return info.getInflation() + (info.getHits() + 1.0) / Math.max(info.getSize(), 1);
+    }
+    @Override
+    public boolean hasStablePriorities() { return true; }
+  };
+
+  /** Name. */
+  private final String name;
+
+  protected EvictionPolicy(final String name) {
+    this.name = name;
+  }
+
+  public String getName() { return name; }
+
+  /**
+   * @param info entry info
+   * @param inflation current cache inflation value: priority of the last evicted entry
+   * @return entry priority, entries with the lowest priority are evicted first
+   */
+  public abstract double getPriority(EntryInfo info, double inflation);
+
+  /**
+   * Stable priority depends only on the entry info and changes only when the entry is accessed.
+   * Then it's computed once per access and entries are kept ordered by it,
+   * otherwise priorities of all the entries are computed for every evicted entry.
+   * @return whether priorities of this policy are stable
+   */
+  public boolean hasStablePriorities() {
+    return false;
+  }
+
+  /**
+   * Called before entries are evicted.
+   * @param entries all the entries of the cache part that is being trimmed, including pinned ones
+   * @param maxSize max size of the cache part
+   */
+  public void onEvictionStarted(final Collection<? extends EntryInfo> entries, final long maxSize) {
+    // nothing
+  }
+
+  /**
+   * Called when an entry is selected for eviction.
+   * @param info evicted entry info
+   */
+  public void onEvicted(final EntryInfo info) {
+    // nothing
+  }
+
+  @Override
+  public String toString() { return name; }
+
+  /** Information about a cached entry. */
+  public interface EntryInfo {
+    /** @return entry metadata */
+    CacheEntry getEntry();
+    /** @return size of entry files in bytes */
+    long getSize();
+    /** @return count of cache hits since the entry was indexed */
+    int getHits();
+    /** @return logical time of the last access, greater values mean more recent access */
+    long getLastAccess();
+    /** @return cache inflation value at the moment of the last access */
+    double getInflation();
+  }
+
+}
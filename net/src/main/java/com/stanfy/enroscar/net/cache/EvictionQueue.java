@@ -0,0 +1,267 @@
+package com.stanfy.enroscar.net.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Index of cache entries that decides which of them should be evicted according to {@link EvictionPolicy}.
+ * Instances are not thread safe, callers synchronize on them.
+ * <p>
+ *   {@link EvictionPolicy#LRU} victims are taken from the head of the access ordered map.
+ *   Records of other policies with {@link EvictionPolicy#hasStablePriorities() stable priorities}
+ *   are kept ordered by priority, so finding a victim does not require a full scan.
+ * </p>
+ * @author Roman Mazur (Stanfy - http://stanfy.com)
+ */
+final class EvictionQueue {
+
+  /** Initial capacity. */
+  private static final int INITIAL_CAPACITY = 64;
+
+  /** Orders records by cached priority, least recently used one goes first among equal priorities. */
+  private static final Comparator<Record> PRIORITY_ORDER = new Comparator<Record>() {
+    @Override
+    public int compare(final Record lhs, final Record rhs) {
+      final int result = Double.compare(lhs.priority, rhs.priority);
+      if (result != 0) { return result; }
+      return lhs.lastAccess < rhs.lastAccess ? -1 : (lhs.lastAccess == rhs.lastAccess ? 0 : 1);
+    }
+  };
+
+  /** Records in access order: the most recently used record is the last one. */
+  private final LinkedHashMap<String, Record> records = new LinkedHashMap<String, Record>(INITIAL_CAPACITY);
+
+  /** Max size. */
+  private final long maxSize;
+  /** Policy. */
+  private final EvictionPolicy policy;
+  /** Statistics. */
+  private final EvictionStats stats;
+  /** Records ordered by priority, null if the policy is LRU or its priorities are not stable. */
+  private final TreeSet<Record> ordered;
+
+  /** Size of records in bytes. */
+  private long size;
+  /** Logical clock. */
+  private long clock;
+  /** Priority of the last evicted record. */
+  private double inflation;
+
+  EvictionQueue(final long maxSize, final EvictionPolicy policy, final EvictionStats stats) {
+    this.maxSize = maxSize;
+    this.policy = policy;
+    this.stats = stats;
+    this.ordered = policy != EvictionPolicy.LRU && policy.hasStablePriorities()
+        ? new TreeSet<Record>(PRIORITY_ORDER)
+        : null;
+  }
+
+  int count() { return records.size(); }
+
+  Iterable<Record> records() { return records.values(); }
+
+  /**
+   * @param key cache key
+   * @param access whether record is used: it's moved to the end of the queue and its hit is counted
+   * @return record or null
+   */
+  Record get(final String key, final boolean access) {
+    final Record record = access ? records.remove(key) : records.get(key);
+    if (record == null) { return null; }
+    if (access) {
+      if (ordered != null) { ordered.remove(record); }
+      record.hits++;
+      touch(record);
+      records.put(key, record);
+      stats.onHit(record.size);
+    }
+    return record;
+  }
+
+  /**
+   * Put a new record. Hits of the replaced record are kept.
+   * @param key cache key
+   * @param entry entry metadata
+   * @param entrySize size of entry files
+   * @param written whether entry has just been written after a cache miss
+   */
+  void put(final String key, final CacheEntry entry, final long entrySize, final boolean written) {
+    final Record old = records.remove(key);
+    final Record record = new Record(key, entry, entrySize);
+    if (old != null) {
+      if (ordered != null) { ordered.remove(old); }
+      size -= old.size;
+      record.hits = old.hits;
+    }
+    touch(record);
+    records.put(key, record);
+    size += entrySize;
+    if (written) {
+      stats.onMiss(entrySize);
+    }
+  }
+
+  /**
+   * Simulate an access to the entry: count a hit or insert the entry and trim the queue.
+   * Used to compare policies without touching the disk.
+   */
+  void simulateAccess(final String key, final CacheEntry entry, final long entrySize, final Set<String> pinned) {
+    if (get(key, true) == null) {
+      put(key, entry, entrySize, true);
+      trim(pinned);
+    }
+  }
+
+  Record remove(final String key) {
+    final Record record = records.remove(key);
+    if (record != null) {
+      if (ordered != null) { ordered.remove(record); }
+      size -= record.size;
+    }
+    return record;
+  }
+
+  void clear() {
+    records.clear();
+    if (ordered != null) { ordered.clear(); }
+    size = 0;
+  }
+
+  /** Record must not be in the ordered set when it's touched. */
+  private void touch(final Record record) {
+    record.lastAccess = ++clock;
+    record.inflation = inflation;
+    if (ordered != null) {
+      record.priority = policy.getPriority(record, inflation);
+      ordered.add(record);
+    }
+  }
+
+  /**
+   * Evict records until size is within the limit.
+   * @param pinned keys that cannot be evicted, may be null
+   * @return keys of evicted records
+   */
+  List<String> trim(final Set<String> pinned) {
+    if (size <= maxSize) { return Collections.emptyList(); }
+    final ArrayList<String> evicted = new ArrayList<String>();
+    if (policy == EvictionPolicy.LRU) {
+      // LRU does not have any state, its callbacks are not called
+      trimLru(pinned, evicted);
+    } else if (ordered != null) {
+      synchronized (policy) {
+        policy.onEvictionStarted(records.values(), maxSize);
+        trimOrdered(pinned, evicted);
+      }
+    } else {
+      synchronized (policy) {
+        policy.onEvictionStarted(records.values(), maxSize);
+        trimScanning(pinned, evicted);
+      }
+    }
+    return evicted;
+  }
+
+  /** The least recently used records are at the head of the map. */
+  private void trimLru(final Set<String> pinned, final List<String> evicted) {
+    final Iterator<Map.Entry<String, Record>> i = records.entrySet().iterator();
+    while (size > maxSize && i.hasNext()) {
+      final Map.Entry<String, Record> e = i.next();
+      if (pinned != null && pinned.contains(e.getKey())) { continue; }
+      i.remove();
+      onEvicted(e.getKey(), e.getValue(), e.getValue().lastAccess, evicted);
+    }
+  }
+
+  /** Records are taken in the order of their cached priorities. */
+  private void trimOrdered(final Set<String> pinned, final List<String> evicted) {
+    final Iterator<Record> i = ordered.iterator();
+    while (size > maxSize && i.hasNext()) {
+      final Record victim = i.next();
+      if (pinned != null && pinned.contains(victim.key)) { continue; }
+      i.remove();
+      records.remove(victim.key);
+      onEvicted(victim.key, victim, victim.priority, evicted);
+    }
+  }
+
+  /** Priorities can depend on the cache state, so they are computed for every victim. */
+  private void trimScanning(final Set<String> pinned, final List<String> evicted) {
+    while (size > maxSize) {
+      String victimKey = null;
+      Record victim = null;
+      double victimPriority = Double.POSITIVE_INFINITY;
+      // the first record wins among records with equal priorities: it's the least recently used one
+      for (final Map.Entry<String, Record> e : records.entrySet()) {
+        if (pinned != null && pinned.contains(e.getKey())) { continue; }
+        final double priority = policy.getPriority(e.getValue(), inflation);
+        if (priority < victimPriority || victim == null) {
+          victimPriority = priority;
+          victimKey = e.getKey();
+          victim = e.getValue();
+        }
+      }
+      if (victim == null) {
+        // only pinned records are left
+        return;
+      }
+      records.remove(victimKey);
+      onEvicted(victimKey, victim, victimPriority, evicted);
+    }
+  }
+
+  private void onEvicted(final String key, final Record victim, final double priority, final List<String> evicted) {
+    size -= victim.size;
+    if (priority > inflation) {
+      inflation = priority;
+    }
+    if (policy != EvictionPolicy.LRU) {
+      policy.onEvicted(victim);
+    }
+    stats.onEvicted(victim.size);
+    evicted.add(key);
+  }
+
+  /** Index record. */
+  static final class Record implements EvictionPolicy.EntryInfo {
+    /** Cache key. */
+    final String key;
+    /** Entry metadata. */
+    final CacheEntry entry;
+    /** Size of entry files. */
+    final long size;
+    /** Count of cache hits. */
+    int hits;
+    /** Logical time of the last access. */
+    long lastAccess;
+    /** Inflation at the moment of the last access. */
+    double inflation;
+    /** Priority computed at the moment of the last access, used for policies with stable priorities only. */
+    double priority;
+
+    Record(final String key, final CacheEntry entry, final long size) {
+      this.key = key;
+      this.entry = entry;
+      this.size = size;
+    }
+
+    @Override
+    public CacheEntry getEntry() { return entry; }
+    @Override
+    public long getSize() { return size; }
+    @Override
+    public int getHits() { return hits; }
+    @Override
+    public long getLastAccess() { return lastAccess; }
+    @Override
+    public double getInflation() { return inflation; }
+  }
+
+}
@@ -0,0 +1,66 @@
+package com.stanfy.enroscar.net.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of an eviction policy.
+ * @see BaseFileResponseCache#getEvictionStats()
+ * @see BaseFileResponseCache#getComparedEvictionStats()
+ * @author Roman Mazur (Stanfy - http://stanfy.com)
+ */
+public final class EvictionStats {
+
+  /** Policy. */
+  private final EvictionPolicy policy;
+
+  /** Counters. */
+  private final AtomicLong hitBytes = new AtomicLong(), missBytes = new AtomicLong(), evictedBytes = new AtomicLong();
+  /** Counters. */
+  private final AtomicInteger evictedCount = new AtomicInteger();
+
+  EvictionStats(final EvictionPolicy policy) {
+    this.policy = policy;
+  }
+
+  void onHit(final long size) {
+    hitBytes.addAndGet(size);
+  }
+
+  void onMiss(final long size) {
+    missBytes.addAndGet(size);
+  }
+
+  void onEvicted(final long size) {
+    evictedBytes.addAndGet(size);
+    evictedCount.incrementAndGet();
+  }
+
+  public EvictionPolicy getPolicy() { return policy; }
+
+  /** @return bytes of entries served from the cache */
+  public long getHitBytes() { return hitBytes.get(); }
+
+  /** @return bytes of entries that were not found in the cache and had to be written */
+  public long getMissBytes() { return missBytes.get(); }
+
+  /** @return bytes of evicted entries */
+  public long getEvictedBytes() { return evictedBytes.get(); }
+
+  /** @return count of evicted entries */
+  public int getEvictedCount() { return evictedCount.get(); }
+
+  /** @return ratio of served bytes to all the requested bytes, 0 if nothing was requested */
+  public double getByteHitRatio() {
+    final long hits = hitBytes.get();
+    final long total = hits + missBytes.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  @Override
+  public String toString() {
+    return policy + "[byteHitRatio=" + getByteHitRatio() + ", evicted=" + getEvictedCount()
+        + "/" + getEvictedBytes() + "b]";
+  }
+
+}
@@ -0,0 +1,110 @@
+package com.stanfy.enroscar.net.cache;
+
+import com.stanfy.enroscar.io.CompactDataInput;
+import com.stanfy.enroscar.io.CompactDataOutput;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Typed extension fields of {@link CacheEntry} metadata.
+ * Subclasses of {@link CacheEntry} put their own fields here identifying them with tags.
+ * Fields with unknown tags are ignored, so new fields can be added without cache migration.
+ * Tag {@value #LEGACY_TEXT} is reserved for the output of deprecated text metadata hooks.
+ * @author Roman Mazur - Stanfy (http://www.stanfy.com)
+ */
+public final class MetadataFields {
+
+  /** Tag of the text written by {@link CacheEntry#writeMetaData(java.io.Writer)}. */
+  static final int LEGACY_TEXT = 0;
+
+  /** Field types. */
+  private static final int TYPE_INT = 1, TYPE_LONG = 2, TYPE_STRING = 3;
+
+  /** Fields. */
+  private final TreeMap<Integer, Object> fields = new TreeMap<Integer, Object>();
+
+  MetadataFields() { }
+
+  public void putInt(final int tag, final int value) {
+    fields.put(checkTag(tag), value);
+  }
+
+  public void putLong(final int tag, final long value) {
+    fields.put(checkTag(tag), value);
+  }
+
+  public void putString(final int tag, final String value) {
+    fields.put(checkTag(tag), value);
+  }
+
+  void putLegacyText(final String text) {
+    fields.put(LEGACY_TEXT, text);
+  }
+
+  String getLegacyText() {
+    return getString(LEGACY_TEXT);
+  }
+
+  private static int checkTag(final int tag) {
+    if (tag <= LEGACY_TEXT) { throw new IllegalArgumentException("Tag must be positive: " + tag); }
+    return tag;
+  }
+
+  public int getInt(final int tag, final int defaultValue) {
+    final Object value = fields.get(tag);
+    return value instanceof Integer ? (Integer) value : defaultValue;
+  }
+
+  public long getLong(final int tag, final long defaultValue) {
+    final Object value = fields.get(tag);
+    return value instanceof Long ? (Long) value : defaultValue;
+  }
+
+  public String getString(final int tag) {
+    final Object value = fields.get(tag);
+    return value instanceof String ? (String) value : null;
+  }
+
+  public boolean has(final int tag) {
+    return fields.containsKey(tag);
+  }
+
+  void writeTo(final CompactDataOutput out) {
+    out.writeUnsignedVarInt(fields.size());
+    for (Map.Entry<Integer, Object> field : fields.entrySet()) {
+      out.writeUnsignedVarInt(field.getKey());
+      final Object value = field.getValue();
+      if (value instanceof Integer) {
+        out.writeByte(TYPE_INT).writeVarInt((Integer) value);
+      } else if (value instanceof Long) {
+        out.writeByte(TYPE_LONG).writeVarLong((Long) value);
+      } else {
+        out.writeByte(TYPE_STRING).writeString((String) value);
+      }
+    }
+  }
+
+  void readFrom(final CompactDataInput in) throws IOException {
+    final int count = in.readUnsignedVarInt();
+    for (int i = 0; i < count; i++) {
+      final int tag = in.readUnsignedVarInt();
+      final int type = in.readByte();
+      switch (type) {
+        case TYPE_INT:
+          fields.put(tag, in.readVarInt());
+          break;
+        case TYPE_LONG:
+          fields.put(tag, in.readVarLong());
+          break;
+        case TYPE_STRING:
+          fields.put(tag, in.readString());
+          break;
+        default:
+          throw new IOException("Unknown metadata field type " + type);
+      }
+    }
+  }
+
+}
@@ -79,7 +79,7 @@ public abstract class BaseContentHandler extends ContentHandler implements Initi
 
     InputStream source = IoUtils.getUncompressedInputStream(
         connection.getContentEncoding(),
-        buffersPool.bufferize(responseStream)
+        buffersPool.bufferizeUnsynchronized(responseStream)
     );
 
     if (Utils.isDebugRestResponse(context)) {
@@ -0,0 +1,155 @@
+package com.stanfy.enroscar.net.cache;
+
+import android.os.Build;
+
+import com.stanfy.enroscar.io.BuffersPool;
+import com.stanfy.enroscar.io.IoUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link CacheEntry} metadata format.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class CacheEntryTest {
+
+  @Test
+  public void binaryMetadataShouldBeReadBack() throws Exception {
+    BuffersPool pool = new BuffersPool();
+    TaggedEntry entry = new TaggedEntry();
+    entry.set(new URI("http://example.com/\u043f\u0440\u0438\u0432\u0456\u0442"), "GET",
+        Collections.<String, List<String>>emptyMap());
+    entry.tag = "abc";
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entry.writeTo(out, pool);
+    assertThat(out.toByteArray()[0]).isEqualTo((byte) 0);
+
+    TaggedEntry read = new TaggedEntry();
+    read.readFrom(new ByteArrayInputStream(out.toByteArray()), pool);
+    assertThat(read.isTextFormat()).isFalse();
+    assertThat(read.getUri()).isEqualTo(entry.getUri());
+    assertThat(read.getRequestMethod()).isEqualTo("GET");
+    assertThat(read.getTimestamp()).isEqualTo(entry.getTimestamp());
+    assertThat(read.getEncoding()).isNull();
+    assertThat(read.tag).isEqualTo("abc");
+  }
+
+  @Test
+  public void textMetadataShouldBeSupported() throws Exception {
+    String text = "http://example.com/\nGET\n12345\ngzip\nHTTP/1.1 200 OK\nold\n";
+
+    TaggedEntry read = new TaggedEntry();
+    read.readFrom(new ByteArrayInputStream(text.getBytes(IoUtils.UTF_8_NAME)), new BuffersPool());
+    assertThat(read.isTextFormat()).isTrue();
+    assertThat(read.getUri()).isEqualTo("http://example.com/");
+    assertThat(read.getTimestamp()).isEqualTo(12345);
+    assertThat(read.getEncoding()).isEqualTo("gzip");
+    assertThat(read.tag).isEqualTo("old");
+  }
+
+  @Test
+  public void validatorsShouldBeReadBack() throws Exception {
+    BuffersPool pool = new BuffersPool();
+    ApiFileResponseCache.ApiCacheEntry entry = new ApiFileResponseCache.ApiCacheEntry();
+    entry.set(new URI("http://example.com/api"), "GET", Collections.<String, List<String>>emptyMap());
+    entry.etag = "\"v1\"";
+    assertThat(entry.hasValidators()).isTrue();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entry.writeTo(out, pool);
+
+    ApiFileResponseCache.ApiCacheEntry read = new ApiFileResponseCache.ApiCacheEntry();
+    read.readFrom(new ByteArrayInputStream(out.toByteArray()), pool);
+    assertThat(read.getEtag()).isEqualTo("\"v1\"");
+    assertThat(read.getLastModified()).isNull();
+    assertThat(read.hasValidators()).isTrue();
+  }
+
+  @Test
+  public void deprecatedTextHooksShouldBeSupported() throws Exception {
+    BuffersPool pool = new BuffersPool();
+    LegacyEntry entry = new LegacyEntry();
+    entry.set(new URI("http://example.com/legacy"), "GET", Collections.<String, List<String>>emptyMap());
+    entry.name = "legacy";
+    entry.count = 42;
+    entry.size = 1L << 40;
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entry.writeTo(out, pool);
+    assertThat(out.toByteArray()[0]).isEqualTo((byte) 0);
+
+    LegacyEntry read = new LegacyEntry();
+    read.readFrom(new ByteArrayInputStream(out.toByteArray()), pool);
+    assertThat(read.isTextFormat()).isFalse();
+    assertThat(read.getUri()).isEqualTo(entry.getUri());
+    assertThat(read.name).isEqualTo("legacy");
+    assertThat(read.count).isEqualTo(42);
+    assertThat(read.size).isEqualTo(1L << 40);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void reservedTagShouldBeRejected() {
+    new MetadataFields().putString(MetadataFields.LEGACY_TEXT, "value");
+  }
+
+  /** Entry with an extension field. */
+  private static class TaggedEntry extends CacheEntry {
+    /** Extension value. */
+    String tag;
+
+    @Override
+    protected void writeMetaData(final MetadataFields fields) {
+      fields.putString(1, tag);
+    }
+
+    @Override
+    protected void readMetaData(final MetadataFields fields) {
+      tag = fields.getString(1);
+    }
+
+    @Override
+    protected void readMetaData(final InputStream in) throws IOException {
+      tag = readString(in);
+    }
+  }
+
+  /** Entry that uses deprecated text metadata hooks. */
+  @SuppressWarnings("deprecation")
+  private static class LegacyEntry extends CacheEntry {
+    /** Extension values. */
+    String name;
+    int count;
+    long size;
+
+    @Override
+    protected void writeMetaData(final Writer writer) throws IOException {
+      writeString(writer, name);
+      writeInt(writer, count);
+      writeLong(writer, size);
+    }
+
+    @Override
+    protected void readMetaData(final InputStream in) throws IOException {
+      name = readString(in);
+      count = readInt(in);
+      size = readLong(in);
+    }
+  }
+
+}
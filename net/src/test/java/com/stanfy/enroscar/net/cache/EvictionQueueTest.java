@@ -0,0 +1,106 @@
+package com.stanfy.enroscar.net.cache;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link EvictionQueue}.
+ */
+public class EvictionQueueTest {
+
+  private static EvictionQueue queue(final EvictionPolicy policy) {
+    return new EvictionQueue(100, policy, new EvictionStats(policy));
+  }
+
+  @Test
+  public void lruShouldEvictLeastRecentlyUsed() {
+    EvictionQueue queue = queue(EvictionPolicy.LRU);
+    queue.put("a", null, 40, true);
+    queue.put("b", null, 40, true);
+    queue.get("a", true);
+    queue.put("c", null, 40, true);
+    assertThat(queue.trim(null)).containsExactly("b");
+    assertThat(queue.count()).isEqualTo(2);
+  }
+
+  @Test
+  public void sizeWeightedLfuShouldEvictLargeEntriesFirst() {
+    EvictionQueue queue = queue(EvictionPolicy.SIZE_WEIGHTED_LFU);
+    queue.put("small1", null, 10, true);
+    queue.put("large", null, 80, true);
+    queue.put("small2", null, 10, true);
+    queue.put("small3", null, 10, true);
+    assertThat(queue.trim(null)).containsExactly("large");
+  }
+
+  @Test
+  public void pinnedEntriesShouldNotBeEvicted() {
+    EvictionQueue queue = queue(EvictionPolicy.LRU);
+    queue.put("a", null, 60, true);
+    queue.put("b", null, 60, true);
+    Set<String> pinned = Collections.singleton("a");
+    assertThat(queue.trim(pinned)).containsExactly("b");
+
+    queue.put("c", null, 60, true);
+    queue.trim(Collections.<String>emptySet());
+    assertThat(queue.get("a", false)).isNull();
+  }
+
+  @Test
+  public void orderedPoliciesShouldSkipPinnedEntries() {
+    EvictionQueue queue = queue(EvictionPolicy.GDSF);
+    queue.put("large", null, 60, true);
+    queue.put("small", null, 30, true);
+    queue.put("medium", null, 40, true);
+    Set<String> pinned = Collections.singleton("large");
+    assertThat(queue.trim(pinned)).containsExactly("medium");
+
+    queue.get("small", true);
+    queue.put("other", null, 30, true);
+    assertThat(queue.trim(null)).containsExactly("large");
+    assertThat(queue.count()).isEqualTo(2);
+  }
+
+  @Test
+  public void orderedPoliciesShouldEvictLikeScanning() {
+    EvictionPolicy scanning = new EvictionPolicy("ScanningGDSF") {
+      @Override
+      public double getPriority(final EntryInfo info, final double inflation) {
+        return EvictionPolicy.GDSF.getPriority(info, inflation);
+      }
+    };
+    EvictionQueue ordered = queue(EvictionPolicy.GDSF), scanned = queue(scanning);
+    Random random = new Random(1);
+    for (int i = 0; i < 1000; i++) {
+      String key = "k" + random.nextInt(20);
+      long size = 1 + random.nextInt(30);
+      if (ordered.get(key, true) == null) {
+        assertThat(scanned.get(key, true)).isNull();
+        ordered.put(key, null, size, true);
+        scanned.put(key, null, size, true);
+        assertThat(ordered.trim(null)).isEqualTo(scanned.trim(null));
+      } else {
+        assertThat(scanned.get(key, true)).isNotNull();
+      }
+    }
+  }
+
+  @Test
+  public void byteHitRatioShouldBeCounted() {
+    EvictionStats stats = new EvictionStats(EvictionPolicy.GDSF);
+    EvictionQueue queue = new EvictionQueue(100, EvictionPolicy.GDSF, stats);
+    queue.simulateAccess("a", null, 30, null);
+    queue.simulateAccess("a", null, 30, null);
+    queue.simulateAccess("a", null, 30, null);
+    queue.simulateAccess("b", null, 10, null);
+    assertThat(stats.getHitBytes()).isEqualTo(60);
+    assertThat(stats.getMissBytes()).isEqualTo(40);
+    assertThat(stats.getByteHitRatio()).isEqualTo(0.6);
+  }
+
+}
@@ -6,6 +6,7 @@ import com.squareup.okhttp.mockwebserver.MockResponse;
 import org.junit.Test;
 import org.robolectric.annotation.Config;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
@@ -48,4 +49,65 @@ public class BaseFileCacheTest extends AbstractOneCacheTest {
 
   }
 
+  @Test
+  public void installationShouldBeMeasured() {
+    assertThat(cache.isInstallationFinished()).isTrue();
+    assertThat(cache.getInstallTime()).isGreaterThanOrEqualTo(0);
+    assertThat(cache.getBypassCount()).isZero();
+  }
+
+  @Test
+  public void containsShouldUseIndex() throws IOException {
+    getWebServer().enqueue(new MockResponse().setBody("indexed"));
+
+    final URL url = getWebServer().getUrl("/indexed");
+    assertResponse(url.openConnection(), "indexed", false);
+    assertThat(cache.getWriteSuccessCount()).isEqualTo(1);
+
+    assertThat(cache.getIndexedCount()).isEqualTo(1);
+    assertThat(cache.contains(url.toString())).isTrue();
+
+    assertThat(cache.deleteGetEntry(url.toString())).isTrue();
+    assertThat(cache.getIndexedCount()).isZero();
+    assertThat(cache.contains(url.toString())).isFalse();
+  }
+
+  @Test
+  public void containsShouldNotReportFilesRemovedByDiskCache() throws IOException {
+    getWebServer().enqueue(new MockResponse().setBody("evicted"));
+
+    final URL url = getWebServer().getUrl("/evicted");
+    assertResponse(url.openConnection(), "evicted", false);
+    assertThat(cache.contains(url.toString())).isTrue();
+
+    // files disappear behind the index back
+    for (final File file : cache.getDiskCache().getDirectory().listFiles()) {
+      if (!file.getName().startsWith("journal")) {
+        assertThat(file.delete()).isTrue();
+      }
+    }
+
+    assertThat(cache.contains(url.toString())).isFalse();
+    assertThat(cache.getIndexedCount()).isZero();
+  }
+
+  @Test
+  public void mostHitUrisShouldBeOrderedByHits() throws IOException {
+    getWebServer().enqueue(new MockResponse().setBody("rare"));
+    getWebServer().enqueue(new MockResponse().setBody("hot"));
+    getWebServer().enqueue(new MockResponse().setBody("cold"));
+
+    final URL rare = getWebServer().getUrl("/rare"), hot = getWebServer().getUrl("/hot");
+    assertResponse(rare.openConnection(), "rare", false);
+    assertResponse(hot.openConnection(), "hot", false);
+    assertResponse(getWebServer().getUrl("/cold").openConnection(), "cold", false);
+
+    assertResponse(rare.openConnection(), "rare", true);
+    assertResponse(hot.openConnection(), "hot", true);
+    assertResponse(hot.openConnection(), "hot", true);
+
+    assertThat(cache.getMostHitUris(10)).containsExactly(hot.toString(), rare.toString());
+    assertThat(cache.getMostHitUris(1)).containsExactly(hot.toString());
+  }
+
 }
@@ -0,0 +1,76 @@
+package com.stanfy.enroscar.net.test.cache;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.stanfy.enroscar.beans.BeansManager;
+import com.stanfy.enroscar.beans.BeansManager.Editor;
+import com.stanfy.enroscar.io.BuffersPool;
+import com.stanfy.enroscar.net.test.AbstractMockServerTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ResponseCache;
+import java.net.URL;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link com.stanfy.enroscar.net.cache.BaseFileResponseCache} split into several shards.
+ */
+@Config(emulateSdk = 18)
+public class ShardedFileCacheTest extends AbstractMockServerTest {
+
+  /** Cache name. */
+  private static final String CACHE_NAME = "shardedCache";
+  /** Count of shards. */
+  private static final int SHARDS_COUNT = 4;
+  /** Count of requests. */
+  private static final int COUNT = 8;
+
+  /** Cache instance. */
+  private SimpleFileCache cache;
+
+  @Override
+  protected void configureBeansManager(final Editor editor) {
+    super.configureBeansManager(editor);
+    editor
+      .put(BuffersPool.class)
+      .put(CACHE_NAME, new SimpleFileCache("test-sharded-cache", SHARDS_COUNT));
+  }
+
+  @Before
+  public void setupCache() throws IOException {
+    cache = BeansManager.get(null).getContainer().getBean(CACHE_NAME, SimpleFileCache.class);
+    ResponseCache.setDefault(cache);
+  }
+
+  @Test
+  public void entriesShouldBeDistributedAmongShards() throws IOException {
+    for (int i = 0; i < COUNT; i++) {
+      getWebServer().enqueue(new MockResponse().setBody("body" + i));
+    }
+    for (int i = 0; i < COUNT; i++) {
+      assertResponse(getWebServer().getUrl("/" + i).openConnection(), "body" + i, false);
+    }
+    assertThat(cache.getWriteSuccessCount()).isEqualTo(COUNT);
+    assertThat(cache.getIndexedCount()).isEqualTo(COUNT);
+    assertThat(cache.getWorkingDirectory().list()).hasSize(SHARDS_COUNT);
+
+    for (int i = 0; i < COUNT; i++) {
+      final URL url = getWebServer().getUrl("/" + i);
+      assertThat(cache.contains(url.toString())).isTrue();
+      assertThat(new File(cache.getLocalPath(url.toString())).exists()).isTrue();
+      assertResponse(url.openConnection(), "body" + i, true);
+    }
+    assertThat(cache.getHitCount()).isEqualTo(COUNT);
+
+    final String url = getWebServer().getUrl("/0").toString();
+    assertThat(cache.deleteGetEntry(url)).isTrue();
+    assertThat(cache.contains(url)).isFalse();
+    assertThat(cache.getIndexedCount()).isEqualTo(COUNT - 1);
+  }
+
+}
@@ -17,10 +17,15 @@ public class SimpleFileCache extends BaseFileResponseCache {
   private final String name;
 
   public SimpleFileCache(final String name) {
+    this(name, 1);
+  }
+
+  public SimpleFileCache(final String name, final int shardsCount) {
     this.name = name;
     final int maxSize = 1024 * 1024 * 1;
     setWorkingDirectory(new File(Robolectric.application.getFilesDir(), name));
     setMaxSize(maxSize);
+    setShardsCount(shardsCount);
   }
 
   public String getName() { return name; }
@@ -0,0 +1,212 @@
+package com.stanfy.enroscar.net.test.cache;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.stanfy.enroscar.beans.BeansManager;
+import com.stanfy.enroscar.beans.BeansManager.Editor;
+import com.stanfy.enroscar.io.BuffersPool;
+import com.stanfy.enroscar.net.cache.ApiFileResponseCache;
+import com.stanfy.enroscar.net.cache.CacheEntry;
+import com.stanfy.enroscar.net.cache.CacheTimeRule;
+import com.stanfy.enroscar.net.test.AbstractMockServerTest;
+import com.stanfy.enroscar.utils.Time;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.Robolectric;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ResponseCache;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for stale-while-revalidate mode of {@link ApiFileResponseCache}.
+ * @author Roman Mazur (Stanfy - http://stanfy.com)
+ */
+@Config(emulateSdk = 18)
+public class StaleWhileRevalidateTest extends AbstractMockServerTest {
+
+  /** Cache name. */
+  private static final String CACHE_NAME = "staleCache";
+
+  /** Validators. */
+  private static final String ETAG = "\"v1\"", LAST_MODIFIED = "Mon, 01 Sep 2014 10:00:00 GMT";
+
+  /** Cache instance. */
+  private StaleCache cache;
+
+  @Override
+  protected void configureBeansManager(final Editor editor) {
+    super.configureBeansManager(editor);
+    editor
+      .put(BuffersPool.class)
+      .put(CACHE_NAME, new StaleCache());
+  }
+
+  @Before
+  public void setupCache() {
+    cache = BeansManager.get(null).getContainer().getBean(CACHE_NAME, StaleCache.class);
+    cache.setStaleWhileRevalidate(Time.HOURS);
+    ResponseCache.setDefault(cache);
+  }
+
+  private URL cacheStaleEntry(final String path, final String text) throws IOException {
+    getWebServer().enqueue(new MockResponse().setBody(text)
+        .addHeader("ETag", ETAG).addHeader("Last-Modified", LAST_MODIFIED));
+    final URL url = getWebServer().getUrl(path);
+    assertResponse(url.openConnection(), text, false);
+    assertThat(cache.getWriteSuccessCount()).isEqualTo(1);
+    return url;
+  }
+
+  @Test
+  public void staleEntryShouldBeServedAndRevalidatedWithValidators() throws Exception {
+    final URL url = cacheStaleEntry("/stale", "stale");
+
+    // outdated entry is returned without a request
+    assertResponse(url.openConnection(), "stale", true);
+    assertThat(cache.getStaleHitCount()).isEqualTo(1);
+    assertThat(cache.revalidations).hasSize(1);
+
+    getWebServer().enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED));
+    cache.runRevalidations();
+
+    assertThat(getWebServer().getRequestCount()).isEqualTo(2);
+    getWebServer().takeRequest();
+    final RecordedRequest revalidation = getWebServer().takeRequest();
+    assertThat(revalidation.getHeader("If-None-Match")).isEqualTo(ETAG);
+    assertThat(revalidation.getHeader("If-Modified-Since")).isEqualTo(LAST_MODIFIED);
+  }
+
+  @Test
+  public void notModifiedResponseShouldRenewTimestampOnly() throws Exception {
+    final URL url = cacheStaleEntry("/not-modified", "same");
+    final long timestamp = cache.getEntry(url).getTimestamp();
+
+    assertResponse(url.openConnection(), "same", true);
+    Thread.sleep(5);
+    getWebServer().enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED)
+        .addHeader("ETag", "\"v2\""));
+    cache.runRevalidations();
+
+    assertThat(cache.getNotModifiedCount()).isEqualTo(1);
+    assertThat(cache.getRefreshedCount()).isZero();
+    assertThat(cache.getRevalidationErrorCount()).isZero();
+    // body is not rewritten
+    assertThat(cache.getWriteSuccessCount()).isEqualTo(1);
+
+    final ApiFileResponseCache.ApiCacheEntry entry = cache.getEntry(url);
+    assertThat(entry.getTimestamp()).isGreaterThan(timestamp);
+    assertThat(entry.getEtag()).isEqualTo("\"v2\"");
+    assertThat(entry.getLastModified()).isEqualTo(LAST_MODIFIED);
+
+    assertThat(read(url.openConnection())).isEqualTo("same");
+    assertThat(getWebServer().getRequestCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void okResponseShouldReplaceBody() throws Exception {
+    final URL url = cacheStaleEntry("/modified", "old");
+
+    assertResponse(url.openConnection(), "old", true);
+    getWebServer().enqueue(new MockResponse().setBody("new").addHeader("ETag", "\"v2\""));
+    cache.runRevalidations();
+
+    assertThat(cache.getRefreshedCount()).isEqualTo(1);
+    assertThat(cache.getNotModifiedCount()).isZero();
+    assertThat(cache.getWriteSuccessCount()).isEqualTo(2);
+    assertThat(cache.getEntry(url).getEtag()).isEqualTo("\"v2\"");
+
+    assertThat(read(url.openConnection())).isEqualTo("new");
+    assertThat(getWebServer().getRequestCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void unexpectedResponseShouldBeCountedAsErrorAndKeepEntry() throws Exception {
+    final URL url = cacheStaleEntry("/unauthorized", "private");
+    final ApiFileResponseCache.ApiCacheEntry entry = cache.getEntry(url);
+    final long timestamp = entry.getTimestamp();
+
+    final URLConnection connection = url.openConnection();
+    connection.setRequestProperty("Authorization", "Bearer token");
+    assertResponse(connection, "private", true);
+    getWebServer().enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAUTHORIZED));
+    cache.runRevalidations();
+
+    getWebServer().takeRequest();
+    // headers of the request that has got the stale entry are forwarded
+    assertThat(getWebServer().takeRequest().getHeader("Authorization")).isEqualTo("Bearer token");
+
+    assertThat(cache.getRevalidationErrorCount()).isEqualTo(1);
+    assertThat(cache.getNotModifiedCount()).isZero();
+    assertThat(cache.getRefreshedCount()).isZero();
+    // indexed entry is not touched
+    assertThat(cache.getEntry(url)).isSameAs(entry);
+    assertThat(entry.getTimestamp()).isEqualTo(timestamp);
+    assertThat(entry.getEtag()).isEqualTo(ETAG);
+  }
+
+  @Test
+  public void disabledModeShouldNotServeStaleEntries() throws Exception {
+    final URL url = cacheStaleEntry("/disabled", "stale");
+    cache.setStaleWhileRevalidate(0);
+
+    getWebServer().enqueue(new MockResponse().setBody("fresh"));
+    assertResponse(url.openConnection(), "fresh", false);
+    assertThat(cache.getStaleHitCount()).isZero();
+    assertThat(cache.revalidations).isEmpty();
+  }
+
+  /** Cache where all entries are outdated immediately and revalidations are run manually. */
+  public static class StaleCache extends ApiFileResponseCache {
+
+    /** Time rules. */
+    private static final CacheTimeRule[] TIME_RULES = {
+      CacheTimeRule.ttlRuleForUri(".*", 0)
+    };
+
+    /** Scheduled revalidations. */
+    final List<Runnable> revalidations = new ArrayList<Runnable>();
+
+    public StaleCache() {
+      setWorkingDirectory(new File(Robolectric.application.getFilesDir(), "test-stale-cache"));
+      setMaxSize(1024 * 1024);
+    }
+
+    @Override
+    protected CacheTimeRule[] getTimeRules() { return TIME_RULES; }
+
+    @Override
+    protected Executor getRevalidationExecutor() {
+      return new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+          revalidations.add(command);
+        }
+      };
+    }
+
+    void runRevalidations() {
+      for (final Runnable r : revalidations) {
+        r.run();
+      }
+      revalidations.clear();
+    }
+
+    ApiCacheEntry getEntry(final URL url) {
+      final CacheEntry entry = getIndexedEntry(url.toString());
+      return (ApiCacheEntry) entry;
+    }
+
+  }
+
+}
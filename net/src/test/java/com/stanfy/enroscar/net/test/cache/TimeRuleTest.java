@@ -3,6 +3,7 @@ package com.stanfy.enroscar.net.test.cache;
 
 import com.stanfy.enroscar.net.cache.CacheEntry;
 import com.stanfy.enroscar.net.cache.CacheTimeRule;
+import com.stanfy.enroscar.net.cache.CacheTimeRules;
 import com.stanfy.enroscar.test.AbstractNetTest;
 import com.stanfy.enroscar.utils.Time;
 
@@ -67,4 +68,25 @@ public class TimeRuleTest extends AbstractNetTest {
     assertThat(entry.canBeUsed()).isFalse();
   }
 
+  @Test
+  public void compiledRulesShouldKeepOrderAndCountHits() throws Exception {
+    final CacheTimeRules rules = new CacheTimeRules(new CacheTimeRule[] {
+      CacheTimeRule.ttlRuleForUri("/test/other/", Time.DAYS),
+      CacheTimeRule.ttlRuleForUri("/test/u.*", 0),
+      CacheTimeRule.ttlRuleForUri(URL, Time.DAYS),
+    });
+    entry.setTimeRules(rules);
+    assertThat(entry.canBeUsed()).isFalse();
+    assertThat(entry.canBeUsed()).isFalse();
+    assertThat(rules.getHitCount(0)).isZero();
+    assertThat(rules.getHitCount(1)).isEqualTo(2);
+    assertThat(rules.getHitCount(2)).isZero();
+
+    final CacheEntry other = new CacheEntry();
+    other.set(new URI("/another/url/"), "GET", Collections.<String, List<String>>emptyMap());
+    other.setTimeRules(rules);
+    assertThat(other.canBeUsed()).isTrue();
+    assertThat(rules.getMissCount()).isEqualTo(1);
+  }
+
 }